@@ -12,7 +12,6 @@ import org.locationtech.jts.geom.Point;
 import org.springframework.cloud.client.loadbalancer.LoadBalanced;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
-import org.springframework.context.annotation.EnableAspectJAutoProxy;
 import org.springframework.context.annotation.Primary;
 import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
 import org.springframework.web.client.RestTemplate;
@@ -21,7 +20,6 @@ import org.springframework.web.client.RestTemplate;
  * The type App config.
  */
 @Configuration
-@EnableAspectJAutoProxy
 public class AppConfig {
     /**
      * Rest template rest template.
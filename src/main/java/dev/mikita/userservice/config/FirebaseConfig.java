@@ -4,9 +4,11 @@ import com.google.auth.oauth2.GoogleCredentials;
 import com.google.cloud.firestore.Firestore;
 import com.google.firebase.FirebaseApp;
 import com.google.firebase.FirebaseOptions;
+import com.google.firebase.ThreadManager;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.cloud.FirestoreClient;
 import com.google.firebase.cloud.StorageClient;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.env.Environment;
@@ -31,18 +33,19 @@ public class FirebaseConfig {
     /**
      * Firebase app.
      *
+     * @param threadManager the thread manager, present in virtual thread mode
      * @return the firebase app
      * @throws IOException the io exception
      */
     @Bean
-    public FirebaseApp firebaseApp() throws IOException {
+    public FirebaseApp firebaseApp(ObjectProvider<ThreadManager> threadManager) throws IOException {
         Resource resource = new ClassPathResource(firebaseServiceAccountFile);
         InputStream inputStream = resource.getInputStream();
-        FirebaseOptions options = new FirebaseOptions.Builder()
+        FirebaseOptions.Builder options = new FirebaseOptions.Builder()
                 .setCredentials(GoogleCredentials.fromStream(inputStream))
-                .setStorageBucket(this.firebaseStorageBucketName)
-                .build();
-        return FirebaseApp.initializeApp(options);
+                .setStorageBucket(this.firebaseStorageBucketName);
+        threadManager.ifAvailable(options::setThreadManager);
+        return FirebaseApp.initializeApp(options.build());
     }
 
     /**
@@ -0,0 +1,52 @@
+package dev.mikita.userservice.config;
+
+import com.google.firebase.FirebaseApp;
+import com.google.firebase.ThreadManager;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Opt-in virtual thread mode, enabled with {@code app.threads.virtual.enabled=true}.
+ * The property also sets {@code spring.threads.virtual.enabled}, which moves Tomcat request handling
+ * and Spring MVC async processing to virtual threads; this configuration adds the Firebase SDK
+ * executors, so blocking {@code ApiFuture.get()} calls park instead of holding a platform thread.
+ */
+@Configuration
+@ConditionalOnProperty(name = "app.threads.virtual.enabled", havingValue = "true")
+public class VirtualThreadConfig {
+    /**
+     * Firebase thread manager.
+     *
+     * @return the thread manager
+     */
+    @Bean
+    public ThreadManager firebaseThreadManager() {
+        return new VirtualThreadManager();
+    }
+
+    /**
+     * Runs Firebase SDK background work and callbacks on virtual threads.
+     */
+    static class VirtualThreadManager extends ThreadManager {
+        private final ThreadFactory threadFactory = Thread.ofVirtual().name("firebase-", 0).factory();
+
+        @Override
+        protected ExecutorService getExecutor(FirebaseApp app) {
+            return Executors.newThreadPerTaskExecutor(threadFactory);
+        }
+
+        @Override
+        protected void releaseExecutor(FirebaseApp app, ExecutorService executor) {
+            executor.shutdownNow();
+        }
+
+        @Override
+        protected ThreadFactory getThreadFactory() {
+            return threadFactory;
+        }
+    }
+}
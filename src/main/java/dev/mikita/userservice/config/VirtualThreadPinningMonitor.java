@@ -0,0 +1,65 @@
+package dev.mikita.userservice.config;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordingStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Logs virtual threads that stay pinned to their carrier, typically because they block inside
+ * a {@code synchronized} block or a native frame on the Firebase SDK path.
+ * Enabled with {@code app.threads.virtual.pinning-monitor.enabled=true}.
+ */
+@Component
+@ConditionalOnProperty(name = "app.threads.virtual.pinning-monitor.enabled", havingValue = "true")
+public class VirtualThreadPinningMonitor {
+    private static final Logger LOG = LoggerFactory.getLogger(VirtualThreadPinningMonitor.class);
+    private static final String PINNED_EVENT = "jdk.VirtualThreadPinned";
+    private static final int MAX_FRAMES = 12;
+
+    private final Duration threshold;
+    private RecordingStream recordingStream;
+
+    public VirtualThreadPinningMonitor(
+            @Value("${app.threads.virtual.pinning-monitor.threshold:20ms}") Duration threshold) {
+        this.threshold = threshold;
+    }
+
+    @PostConstruct
+    public void start() {
+        recordingStream = new RecordingStream();
+        recordingStream.enable(PINNED_EVENT).withThreshold(threshold).withStackTrace();
+        recordingStream.onEvent(PINNED_EVENT, this::logPinnedEvent);
+        recordingStream.startAsync();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (recordingStream != null) {
+            recordingStream.close();
+        }
+    }
+
+    private void logPinnedEvent(RecordedEvent event) {
+        String stackTrace = "<no stack trace>";
+        if (event.getStackTrace() != null) {
+            List<RecordedFrame> frames = event.getStackTrace().getFrames();
+            stackTrace = frames.stream()
+                    .limit(MAX_FRAMES)
+                    .map(frame -> frame.getMethod().getType().getName() + "." + frame.getMethod().getName()
+                            + ":" + frame.getLineNumber())
+                    .collect(Collectors.joining("\n\tat "));
+        }
+
+        LOG.warn("Virtual thread pinned for {} ms\n\tat {}", event.getDuration().toMillis(), stackTrace);
+    }
+}
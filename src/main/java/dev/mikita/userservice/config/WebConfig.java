@@ -0,0 +1,30 @@
+package dev.mikita.userservice.config;
+
+import dev.mikita.userservice.interceptor.FirebaseAuthorizationInterceptor;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.servlet.config.annotation.InterceptorRegistry;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * The type Web config.
+ */
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+    private final FirebaseAuthorizationInterceptor firebaseAuthorizationInterceptor;
+
+    /**
+     * Instantiates a new Web config.
+     *
+     * @param firebaseAuthorizationInterceptor the firebase authorization interceptor
+     */
+    @Autowired
+    public WebConfig(FirebaseAuthorizationInterceptor firebaseAuthorizationInterceptor) {
+        this.firebaseAuthorizationInterceptor = firebaseAuthorizationInterceptor;
+    }
+
+    @Override
+    public void addInterceptors(InterceptorRegistry registry) {
+        registry.addInterceptor(firebaseAuthorizationInterceptor);
+    }
+}
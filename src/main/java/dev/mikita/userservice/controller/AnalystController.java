@@ -7,12 +7,14 @@ import dev.mikita.userservice.dto.request.analyst.UpdateAnalystAnalystRequestDto
 import dev.mikita.userservice.dto.response.analyst.AnalystAnalystResponseDto;
 import dev.mikita.userservice.entity.Analyst;
 import dev.mikita.userservice.service.AnalystService;
+import dev.mikita.userservice.util.EntityVersion;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 @RestController
@@ -27,17 +29,17 @@ public class AnalystController {
 
     @GetMapping(path = "/me", produces = "application/json")
     @FirebaseAuthorization(roles = {"ANALYST"}, statuses = {"ACTIVE"})
-    public ResponseEntity<AnalystAnalystResponseDto> getCurrentAnalyst(HttpServletRequest request)
-            throws ExecutionException, InterruptedException, FirebaseAuthException {
+    public CompletableFuture<ResponseEntity<AnalystAnalystResponseDto>> getCurrentAnalyst(HttpServletRequest request) {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
-        return ResponseEntity.ok(new ModelMapper().map(
-                analystService.getAnalyst(token.getUid()), AnalystAnalystResponseDto.class));
+        return analystService.getAnalystAsync(token.getUid())
+                .thenApply(analyst -> ResponseEntity.ok(new ModelMapper().map(analyst, AnalystAnalystResponseDto.class)));
     }
 
     @PatchMapping(path = "/me", consumes = "application/json", produces = "application/json")
     @FirebaseAuthorization(roles = {"ANALYST"}, statuses = {"ACTIVE"})
     public ResponseEntity<AnalystAnalystResponseDto> updateCurrentAnalyst(
             @Valid @RequestBody UpdateAnalystAnalystRequestDto requestDto,
+            @RequestHeader(value = "If-Match", required = false) String ifMatch,
             HttpServletRequest request)
             throws ExecutionException, InterruptedException, FirebaseAuthException {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
@@ -46,6 +48,10 @@ public class AnalystController {
         Analyst analyst = modelMapper.map(requestDto, Analyst.class);
         analyst.setUid(token.getUid());
 
-        return ResponseEntity.ok(modelMapper.map(analystService.updateAnalyst(analyst), AnalystAnalystResponseDto.class));
+        Analyst updatedAnalyst = analystService.updateAnalyst(analyst, EntityVersion.toPrecondition(ifMatch));
+
+        return ResponseEntity.ok()
+                .eTag(updatedAnalyst.getVersion())
+                .body(modelMapper.map(updatedAnalyst, AnalystAnalystResponseDto.class));
     }
 }
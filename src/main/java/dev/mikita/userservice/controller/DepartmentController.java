@@ -11,6 +11,8 @@ import dev.mikita.userservice.entity.Department;
 import dev.mikita.userservice.entity.Employee;
 import dev.mikita.userservice.service.DepartmentService;
 import dev.mikita.userservice.service.EmployeeService;
+import dev.mikita.userservice.util.EntityVersion;
+import dev.mikita.userservice.util.EntityVersionCache;
 import jakarta.security.auth.message.AuthException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
@@ -21,6 +23,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 
 @RestController
@@ -28,38 +32,51 @@ import java.util.concurrent.ExecutionException;
 public class DepartmentController {
     private final DepartmentService departmentService;
     private final EmployeeService employeeService;
+    private final EntityVersionCache entityVersionCache;
 
     @Autowired
     public DepartmentController(DepartmentService departmentService,
-                                EmployeeService employeeService) {
+                                EmployeeService employeeService,
+                                EntityVersionCache entityVersionCache) {
         this.departmentService = departmentService;
         this.employeeService = employeeService;
+        this.entityVersionCache = entityVersionCache;
     }
 
     @GetMapping(path = "/{uid}", produces = "application/json")
     @FirebaseAuthorization(roles = {"SERVICE", "EMPLOYEE"}, statuses = {"ACTIVE"})
-    public ResponseEntity<DepartmentResponseDto> getDepartment(@PathVariable String uid, HttpServletRequest request)
-            throws AuthException, ExecutionException, FirebaseAuthException, InterruptedException {
+    public CompletableFuture<ResponseEntity<DepartmentResponseDto>> getDepartment(@PathVariable String uid,
+                                                                                HttpServletRequest request) {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
-        Department department = departmentService.getDepartment(uid);
 
-        switch (token.getClaims().get("role").toString()) {
-            case "ROLE_SERVICE" -> {
-                if (!token.getUid().equals(department.getServiceUid())) {
-                    throw new AuthException("Unauthorized");
+        // A client polling with the current version is answered without reading the department
+        Department notModified = entityVersionCache.findNotModified(uid, Department.class, request);
+        CompletableFuture<Department> departmentFuture = notModified != null
+                ? CompletableFuture.completedFuture(notModified)
+                : departmentService.getDepartmentAsync(uid);
+
+        return departmentFuture.thenCompose(department -> {
+            CompletableFuture<Boolean> authorized = switch (token.getClaims().get("role").toString()) {
+                case "SERVICE" -> CompletableFuture.completedFuture(token.getUid().equals(department.getServiceUid()));
+                case "EMPLOYEE" -> employeeService.isEmployeeInDepartmentAsync(token, uid);
+                default -> CompletableFuture.completedFuture(true);
+            };
+
+            return authorized.thenApply(isAuthorized -> {
+                if (!isAuthorized) {
+                    throw new CompletionException(new AuthException("Unauthorized"));
                 }
-            }
-            case "ROLE_EMPLOYEE" -> {
-                if (!employeeService.isEmployeeInDepartment(token.getUid(), uid)) {
-                    throw new AuthException("Unauthorized");
+
+                if (department == notModified || entityVersionCache.isNotModified(department, request)) {
+                    return EntityVersionCache.notModified(department);
                 }
-            }
-        }
 
-        ModelMapper modelMapper = new ModelMapper();
-        DepartmentResponseDto departmentResponseDto = modelMapper.map(department, DepartmentResponseDto.class);
+                ModelMapper modelMapper = new ModelMapper();
+                DepartmentResponseDto departmentResponseDto = modelMapper.map(department, DepartmentResponseDto.class);
 
-        return ResponseEntity.ok(departmentResponseDto);
+                return ResponseEntity.ok().eTag(department.getVersion()).body(departmentResponseDto);
+            });
+        });
     }
 
     @PostMapping(path = "", consumes = "application/json", produces = "application/json")
@@ -80,6 +97,7 @@ public class DepartmentController {
     public ResponseEntity<DepartmentResponseDto> updateDepartment(
             @PathVariable String uid,
             @Valid @RequestBody UpdateDepartmentRequestDto requestDto,
+            @RequestHeader(value = "If-Match", required = false) String ifMatch,
             HttpServletRequest request)
             throws ExecutionException, InterruptedException, FirebaseAuthException, AuthException {
 
@@ -93,9 +111,12 @@ public class DepartmentController {
         Department department = modelMapper.map(requestDto, Department.class);
         department.setUid(uid);
 
-        Department updatedDepartment = departmentService.updateDepartment(department);
+        Department updatedDepartment = departmentService.updateDepartment(department,
+                EntityVersion.toPrecondition(ifMatch));
 
-        return ResponseEntity.ok(modelMapper.map(updatedDepartment, DepartmentResponseDto.class));
+        return ResponseEntity.ok()
+                .eTag(updatedDepartment.getVersion())
+                .body(modelMapper.map(updatedDepartment, DepartmentResponseDto.class));
     }
 
     @DeleteMapping("/{uid}")
@@ -8,15 +8,17 @@ import dev.mikita.userservice.dto.request.common.UpdateEmployeeRequestDto;
 import dev.mikita.userservice.dto.response.common.EmployeeResponseDto;
 import dev.mikita.userservice.entity.Employee;
 import dev.mikita.userservice.service.EmployeeService;
+import dev.mikita.userservice.util.EntityVersion;
 import jakarta.security.auth.message.AuthException;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
-import org.modelmapper.Conditions;
 import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 
 @RestController
@@ -31,18 +33,18 @@ public class EmployeeController {
 
     @GetMapping(path = "/{uid}", produces = "application/json")
     @FirebaseAuthorization(roles = {"SERVICE"}, statuses = {"ACTIVE"})
-    public ResponseEntity<EmployeeResponseDto> getEmployee(
+    public CompletableFuture<ResponseEntity<EmployeeResponseDto>> getEmployee(
             @PathVariable String uid,
-            HttpServletRequest request)
-            throws FirebaseAuthException, ExecutionException, InterruptedException, AuthException {
-        Employee employee = employeeService.getEmployee(uid);
-
+            HttpServletRequest request) {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
-        if (!employee.getServiceUid().equals(token.getUid())) {
-            throw new AuthException("Unauthorized");
-        }
 
-        return ResponseEntity.ok(new ModelMapper().map(employee, EmployeeResponseDto.class));
+        return employeeService.getEmployeeAsync(uid).thenApply(employee -> {
+            if (!employee.getServiceUid().equals(token.getUid())) {
+                throw new CompletionException(new AuthException("Unauthorized"));
+            }
+
+            return ResponseEntity.ok(new ModelMapper().map(employee, EmployeeResponseDto.class));
+        });
     }
 
     @PostMapping(path = "", consumes = "application/json", produces = "application/json")
@@ -62,22 +64,23 @@ public class EmployeeController {
     public ResponseEntity<EmployeeResponseDto> updateEmployee(
             @PathVariable String uid,
             @Valid @RequestBody UpdateEmployeeRequestDto requestDto,
+            @RequestHeader(value = "If-Match", required = false) String ifMatch,
             HttpServletRequest request)
             throws FirebaseAuthException, ExecutionException, InterruptedException, AuthException {
-        Employee employee = employeeService.getEmployee(uid);
-
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
-        if (!employee.getServiceUid().equals(token.getUid())) {
+        if (!employeeService.getEmployee(uid).getServiceUid().equals(token.getUid())) {
             throw new AuthException("Unauthorized");
         }
 
         ModelMapper modelMapper = new ModelMapper();
-        modelMapper.getConfiguration().setPropertyCondition(Conditions.isNotNull());
-        modelMapper.map(requestDto, employee);
+        Employee employee = modelMapper.map(requestDto, Employee.class);
+        employee.setUid(uid);
 
-        Employee updatedEmployee = employeeService.updateEmployee(employee);
+        Employee updatedEmployee = employeeService.updateEmployee(employee, EntityVersion.toPrecondition(ifMatch));
 
-        return ResponseEntity.ok(modelMapper.map(updatedEmployee, EmployeeResponseDto.class));
+        return ResponseEntity.ok()
+                .eTag(updatedEmployee.getVersion())
+                .body(modelMapper.map(updatedEmployee, EmployeeResponseDto.class));
     }
 
     @DeleteMapping("/{uid}")
@@ -95,10 +98,9 @@ public class EmployeeController {
 
     @GetMapping(path = "/me", produces = "application/json")
     @FirebaseAuthorization(roles = {"EMPLOYEE"}, statuses = {"ACTIVE"})
-    public ResponseEntity<EmployeeResponseDto> getCurrentEmployee(HttpServletRequest request)
-            throws ExecutionException, FirebaseAuthException, InterruptedException {
+    public CompletableFuture<ResponseEntity<EmployeeResponseDto>> getCurrentEmployee(HttpServletRequest request) {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
-        return ResponseEntity.ok(
-                new ModelMapper().map(employeeService.getEmployee(token.getUid()), EmployeeResponseDto.class));
+        return employeeService.getEmployeeAsync(token.getUid())
+                .thenApply(employee -> ResponseEntity.ok(new ModelMapper().map(employee, EmployeeResponseDto.class)));
     }
 }
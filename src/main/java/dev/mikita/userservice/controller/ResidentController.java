@@ -12,6 +12,9 @@ import dev.mikita.userservice.entity.UserStatus;
 import dev.mikita.userservice.exception.NotFoundException;
 import dev.mikita.userservice.service.ResidentService;
 import dev.mikita.userservice.service.UserService;
+import dev.mikita.userservice.util.EntityVersion;
+import dev.mikita.userservice.util.EntityVersionCache;
+import dev.mikita.userservice.util.SerializedResponseCache;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import jakarta.ws.rs.BadRequestException;
@@ -22,6 +25,7 @@ import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.multipart.MultipartHttpServletRequest;
 import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -32,44 +36,48 @@ import java.util.concurrent.ExecutionException;
 public class ResidentController {
     private final ResidentService residentService;
     private final UserService userService;
+    private final SerializedResponseCache serializedResponseCache;
+    private final EntityVersionCache entityVersionCache;
 
     /**
      * Instantiates a new Resident controller.
      *
-     * @param residentService the resident service
-     * @param userService     the user service
+     * @param residentService         the resident service
+     * @param userService             the user service
+     * @param serializedResponseCache the serialized response cache
+     * @param entityVersionCache      the entity version cache
      */
     @Autowired
     public ResidentController(ResidentService residentService,
-                                UserService userService) {
+                                UserService userService,
+                                SerializedResponseCache serializedResponseCache,
+                                EntityVersionCache entityVersionCache) {
         this.residentService = residentService;
         this.userService = userService;
+        this.serializedResponseCache = serializedResponseCache;
+        this.entityVersionCache = entityVersionCache;
     }
 
     /**
      * Gets resident.
      *
      * @param uid     the uid
+     * @param request the request
      * @return the resident
-     * @throws FirebaseAuthException the firebase auth exception
-     * @throws ExecutionException    the execution exception
-     * @throws InterruptedException  the interrupted exception
      */
     @GetMapping(path = "/{uid}", produces = "application/json")
     @FirebaseAuthorization(statuses = {"ACTIVE"})
-    public ResponseEntity<ResidentResponseDto> getResident(
-            @PathVariable String uid)
-            throws FirebaseAuthException, ExecutionException, InterruptedException {
-        Resident resident = residentService.getResident(uid);
-
-        if (resident.getStatus() == UserStatus.DELETED || resident.getStatus() == UserStatus.BANNED) {
-            throw new NotFoundException("Resident not found");
-        }
-
-        ModelMapper modelMapper = new ModelMapper();
-        ResidentResponseDto responsePublicResidentDto = modelMapper.map(resident, ResidentResponseDto.class);
-
-        return ResponseEntity.ok(responsePublicResidentDto);
+    public CompletableFuture<ResponseEntity<byte[]>> getResident(
+            @PathVariable String uid, HttpServletRequest request) {
+        return residentService.getPublicResidentAsync(uid).thenApply(resident -> {
+            if (resident.getStatus() == UserStatus.DELETED || resident.getStatus() == UserStatus.BANNED) {
+                throw new NotFoundException("Resident not found");
+            }
+
+            // Mapped and serialized once per cached resident instance
+            return SerializedResponseCache.ok(serializedResponseCache.get(resident,
+                    cached -> new ModelMapper().map(cached, ResidentResponseDto.class)), request);
+        });
     }
 
     /**
@@ -92,23 +100,33 @@ public class ResidentController {
      *
      * @param request the request
      * @return the current resident
-     * @throws ExecutionException    the execution exception
-     * @throws FirebaseAuthException the firebase auth exception
-     * @throws InterruptedException  the interrupted exception
      */
     @GetMapping(path = "/me", produces = "application/json")
     @FirebaseAuthorization(roles = {"RESIDENT"}, statuses = {"ACTIVE"})
-    public ResponseEntity<ResidentResidentResponseDto> getCurrentResident(HttpServletRequest request)
-            throws ExecutionException, FirebaseAuthException, InterruptedException {
+    public CompletableFuture<ResponseEntity<ResidentResidentResponseDto>> getCurrentResident(HttpServletRequest request) {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
-        Resident resident = residentService.getResident(token.getUid());
-        return ResponseEntity.ok(new ModelMapper().map(resident, ResidentResidentResponseDto.class));
+
+        Resident notModified = entityVersionCache.findNotModified(token.getUid(), Resident.class, request);
+        if (notModified != null) {
+            return CompletableFuture.completedFuture(EntityVersionCache.notModified(notModified));
+        }
+
+        return residentService.getResidentAsync(token.getUid()).thenApply(resident -> {
+            if (entityVersionCache.isNotModified(resident, request)) {
+                return EntityVersionCache.notModified(resident);
+            }
+
+            return ResponseEntity.ok()
+                    .eTag(resident.getVersion())
+                    .body(new ModelMapper().map(resident, ResidentResidentResponseDto.class));
+        });
     }
 
     @PatchMapping(path = "/me", consumes = "application/json", produces = "application/json")
     @FirebaseAuthorization(roles = {"RESIDENT"}, statuses = {"ACTIVE"})
     public ResponseEntity<ResidentResidentResponseDto> updateCurrentResident(
             @Valid @RequestBody UpdateResidentRequestDto requestDto,
+            @RequestHeader(value = "If-Match", required = false) String ifMatch,
             HttpServletRequest request)
             throws ExecutionException, FirebaseAuthException, InterruptedException {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
@@ -117,9 +135,11 @@ public class ResidentController {
         Resident resident = modelMapper.map(requestDto, Resident.class);
         resident.setUid(token.getUid());
 
-        Resident updatedResident = residentService.updateResident(resident);
+        Resident updatedResident = residentService.updateResident(resident, EntityVersion.toPrecondition(ifMatch));
 
-        return ResponseEntity.ok(new ModelMapper().map(updatedResident, ResidentResidentResponseDto.class));
+        return ResponseEntity.ok()
+                .eTag(updatedResident.getVersion())
+                .body(new ModelMapper().map(updatedResident, ResidentResidentResponseDto.class));
     }
 
     /**
@@ -135,7 +155,7 @@ public class ResidentController {
     @FirebaseAuthorization(roles = {"RESIDENT"}, statuses = {"ACTIVE"})
     public void updateCurrentResidentPhoto(MultipartHttpServletRequest data,
                                            HttpServletRequest request)
-            throws FirebaseAuthException, IOException {
+            throws ExecutionException, FirebaseAuthException, InterruptedException, IOException {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
         MultipartFile photoFile = data.getFile("photo");
 
@@ -18,8 +18,11 @@ import dev.mikita.userservice.service.DepartmentService;
 import dev.mikita.userservice.service.EmployeeService;
 import dev.mikita.userservice.service.ServiceService;
 import dev.mikita.userservice.service.UserService;
+import dev.mikita.userservice.util.EntityVersion;
+import dev.mikita.userservice.util.EntityVersionCache;
 import dev.mikita.userservice.util.Pageable;
 import dev.mikita.userservice.util.PagedResult;
+import dev.mikita.userservice.util.SerializedResponseCache;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.validation.Valid;
 import jakarta.ws.rs.BadRequestException;
@@ -34,6 +37,7 @@ import java.io.IOException;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
@@ -47,6 +51,8 @@ public class ServiceController {
     private final UserService userService;
     private final DepartmentService departmentService;
     private final EmployeeService employeeService;
+    private final SerializedResponseCache serializedResponseCache;
+    private final EntityVersionCache entityVersionCache;
 
     @Getter
     public enum ServiceOrderBy {
@@ -102,37 +108,38 @@ public class ServiceController {
     public ServiceController(ServiceService serviceService,
                              UserService userService,
                              DepartmentService departmentService,
-                             EmployeeService employeeService
+                             EmployeeService employeeService,
+                             SerializedResponseCache serializedResponseCache,
+                             EntityVersionCache entityVersionCache
     ) {
         this.serviceService = serviceService;
         this.userService = userService;
         this.departmentService = departmentService;
         this.employeeService = employeeService;
+        this.serializedResponseCache = serializedResponseCache;
+        this.entityVersionCache = entityVersionCache;
     }
 
     /**
      * Gets service.
      *
-     * @param uid the uid
+     * @param uid     the uid
+     * @param request the request
      * @return the service
-     * @throws FirebaseAuthException the firebase auth exception
-     * @throws ExecutionException    the execution exception
-     * @throws InterruptedException  the interrupted exception
      */
     @GetMapping(path = "/{uid}", produces = "application/json")
     @FirebaseAuthorization(statuses = {"ACTIVE"})
-    public ResponseEntity<ServiceResponseDto> getService(@PathVariable String uid)
-            throws FirebaseAuthException, ExecutionException, InterruptedException {
-        Service service = serviceService.getService(uid);
-
-        if (service.getStatus() == UserStatus.DELETED || service.getStatus() == UserStatus.BANNED) {
-            throw new NotFoundException("Resident not found");
-        }
-
-        ModelMapper modelMapper = new ModelMapper();
-        ServiceResponseDto responsePublicServiceDto = modelMapper.map(service, ServiceResponseDto.class);
-
-        return ResponseEntity.ok(responsePublicServiceDto);
+    public CompletableFuture<ResponseEntity<byte[]>> getService(@PathVariable String uid,
+                                                                HttpServletRequest request) {
+        return serviceService.getPublicServiceAsync(uid).thenApply(service -> {
+            if (service.getStatus() == UserStatus.DELETED || service.getStatus() == UserStatus.BANNED) {
+                throw new NotFoundException("Resident not found");
+            }
+
+            // Mapped and serialized once per cached service instance
+            return SerializedResponseCache.ok(serializedResponseCache.get(service,
+                    cached -> new ModelMapper().map(cached, ServiceResponseDto.class)), request);
+        });
     }
 
     @GetMapping(path = "", produces = "application/json")
@@ -140,13 +147,15 @@ public class ServiceController {
     public ResponseEntity<Map<String, Object>> getServices(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor,
             @RequestParam(name = "order_by", required = false) ServiceOrderBy orderBy,
-            @RequestParam(required = false) Order order) {
+            @RequestParam(required = false) Order order)
+            throws ExecutionException, InterruptedException {
         // Pagination and sorting
         if (orderBy == null) orderBy = ServiceOrderBy.CREATION_DATE;
         if (order == null) order = Order.DESC;
 
-        Pageable pageable = new Pageable(page, size, orderBy.getFieldName(), Query.Direction.valueOf(order.getFieldName()));
+        Pageable pageable = new Pageable(page, size, orderBy.getFieldName(), Query.Direction.valueOf(order.getFieldName()), cursor);
         PagedResult<Service> pageServices = serviceService.getServices(null, pageable);
         List<Service> services = pageServices.items();
 
@@ -160,6 +169,7 @@ public class ServiceController {
         response.put("currentPage", pageServices.currentPage());
         response.put("totalItems", pageServices.totalItems());
         response.put("totalPages", pageServices.totalPages());
+        response.put("nextCursor", pageServices.nextCursor());
 
         return ResponseEntity.ok(response);
     }
@@ -176,19 +186,31 @@ public class ServiceController {
 
     @GetMapping(path = "/me", produces = "application/json")
     @FirebaseAuthorization(roles = {"SERVICE"}, statuses = {"ACTIVE"})
-    public ResponseEntity<ServiceResponseDto> getCurrentService(
-            HttpServletRequest request)
-            throws FirebaseAuthException, ExecutionException, InterruptedException {
+    public CompletableFuture<ResponseEntity<ServiceResponseDto>> getCurrentService(
+            HttpServletRequest request) {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
-        Service service = serviceService.getService(token.getUid());
 
-        return ResponseEntity.ok(new ModelMapper().map(service, ServiceResponseDto.class));
+        Service notModified = entityVersionCache.findNotModified(token.getUid(), Service.class, request);
+        if (notModified != null) {
+            return CompletableFuture.completedFuture(EntityVersionCache.notModified(notModified));
+        }
+
+        return serviceService.getServiceAsync(token.getUid()).thenApply(service -> {
+            if (entityVersionCache.isNotModified(service, request)) {
+                return EntityVersionCache.notModified(service);
+            }
+
+            return ResponseEntity.ok()
+                    .eTag(service.getVersion())
+                    .body(new ModelMapper().map(service, ServiceResponseDto.class));
+        });
     }
 
     @PatchMapping(path = "/me", produces = "application/json", consumes = "application/json")
     @FirebaseAuthorization(roles = {"SERVICE"}, statuses = {"ACTIVE"})
     public ResponseEntity<ServiceResponseDto> updateCurrentService(
             @Valid @RequestBody UpdateServiceRequestDto requestDto,
+            @RequestHeader(value = "If-Match", required = false) String ifMatch,
             HttpServletRequest request)
             throws ExecutionException, FirebaseAuthException, InterruptedException {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
@@ -197,9 +219,11 @@ public class ServiceController {
         Service service = modelMapper.map(requestDto, Service.class);
         service.setUid(token.getUid());
 
-        Service updatedService = serviceService.updateService(service);
+        Service updatedService = serviceService.updateService(service, EntityVersion.toPrecondition(ifMatch));
 
-        return ResponseEntity.ok(new ModelMapper().map(updatedService, ServiceResponseDto.class));
+        return ResponseEntity.ok()
+                .eTag(updatedService.getVersion())
+                .body(new ModelMapper().map(updatedService, ServiceResponseDto.class));
     }
 
     /**
@@ -215,7 +239,7 @@ public class ServiceController {
     @FirebaseAuthorization(roles = {"SERVICE"}, statuses = {"ACTIVE"})
     public void updateCurrentServicePhoto(MultipartHttpServletRequest data,
                                            HttpServletRequest request)
-            throws FirebaseAuthException, IOException {
+            throws ExecutionException, FirebaseAuthException, InterruptedException, IOException {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
         MultipartFile photoFile = data.getFile("photo");
 
@@ -231,12 +255,13 @@ public class ServiceController {
     public ResponseEntity<Map<String, Object>> getDepartments(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor,
             HttpServletRequest request)
             throws ExecutionException, InterruptedException {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
 
         // Pagination
-        Pageable pageable = new Pageable(page, size, DepartmentOrderBy.SERVICE_UID.getFieldName(), Query.Direction.valueOf(Order.DESC.getFieldName()));
+        Pageable pageable = new Pageable(page, size, DepartmentOrderBy.SERVICE_UID.getFieldName(), Query.Direction.valueOf(Order.DESC.getFieldName()), cursor);
         PagedResult<Department> pageDepartments = departmentService.getDepartmentsByServiceUid(token.getUid(), pageable);
         List<Department> departments = pageDepartments.items();
 
@@ -250,6 +275,7 @@ public class ServiceController {
         response.put("currentPage", pageDepartments.currentPage());
         response.put("totalItems", pageDepartments.totalItems());
         response.put("totalPages", pageDepartments.totalPages());
+        response.put("nextCursor", pageDepartments.nextCursor());
 
         return ResponseEntity.ok(response);
     }
@@ -259,11 +285,13 @@ public class ServiceController {
     public ResponseEntity<Map<String, Object>> getEmployees(
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
-            HttpServletRequest request) {
+            @RequestParam(required = false) String cursor,
+            HttpServletRequest request)
+            throws ExecutionException, InterruptedException {
         FirebaseToken token = (FirebaseToken) request.getAttribute("firebaseToken");
 
         // Pagination and sorting
-        Pageable pageable = new Pageable(page, size, EmployeeOrderBy.SERVICE_UID.getFieldName(), Query.Direction.valueOf(Order.DESC.getFieldName()));
+        Pageable pageable = new Pageable(page, size, EmployeeOrderBy.SERVICE_UID.getFieldName(), Query.Direction.valueOf(Order.DESC.getFieldName()), cursor);
         PagedResult<Employee> pageEmployees = employeeService.getEmployeesByServiceUid(token.getUid(), pageable);
         List<Employee> employees = pageEmployees.items();
 
@@ -277,6 +305,7 @@ public class ServiceController {
         response.put("currentPage", pageEmployees.currentPage());
         response.put("totalItems", pageEmployees.totalItems());
         response.put("totalPages", pageEmployees.totalPages());
+        response.put("nextCursor", pageEmployees.nextCursor());
 
         return ResponseEntity.ok(response);
     }
@@ -21,6 +21,7 @@ import org.springframework.web.bind.annotation.*;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
@@ -65,14 +66,15 @@ public class AdminAnalystController {
             @RequestParam(required = false) List<UserStatus> statuses,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor,
             @RequestParam(name = "order_by", required = false) OrderBy orderBy,
             @RequestParam(required = false) Order order
-    ) {
+    ) throws ExecutionException, InterruptedException {
         // Pagination and sorting
         if (orderBy == null) orderBy = OrderBy.CREATION_DATE;
         if (order == null) order = Order.DESC;
 
-        Pageable pageable = new Pageable(page, size, orderBy.getFieldName(), Query.Direction.valueOf(order.getFieldName()));
+        Pageable pageable = new Pageable(page, size, orderBy.getFieldName(), Query.Direction.valueOf(order.getFieldName()), cursor);
         PagedResult<Analyst> pageAnalysts = analystService.getAnalysts(statuses, pageable);
         List<Analyst> analysts = pageAnalysts.items();
 
@@ -86,15 +88,16 @@ public class AdminAnalystController {
         response.put("currentPage", pageAnalysts.currentPage());
         response.put("totalItems", pageAnalysts.totalItems());
         response.put("totalPages", pageAnalysts.totalPages());
+        response.put("nextCursor", pageAnalysts.nextCursor());
 
         return ResponseEntity.ok(response);
     }
 
     @GetMapping(path = "/{uid}", produces = "application/json")
     @FirebaseAuthorization(roles = {"MODERATOR"})
-    public ResponseEntity<AnalystModeratorResponseDto> getAnalyst(@PathVariable String uid)
-            throws ExecutionException, InterruptedException, FirebaseAuthException {
-        return ResponseEntity.ok(new ModelMapper().map(analystService.getAnalyst(uid), AnalystModeratorResponseDto.class));
+    public CompletableFuture<ResponseEntity<AnalystModeratorResponseDto>> getAnalyst(@PathVariable String uid) {
+        return analystService.getAnalystAsync(uid)
+                .thenApply(analyst -> ResponseEntity.ok(new ModelMapper().map(analyst, AnalystModeratorResponseDto.class)));
     }
 
     @PostMapping(path = "", consumes = "application/json", produces = "application/json")
@@ -19,6 +19,7 @@ import org.springframework.web.bind.annotation.*;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
@@ -64,13 +65,15 @@ public class AdminResidentController {
             @RequestParam(required = false) List<UserStatus> statuses,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor,
             @RequestParam(name = "order_by", required = false) OrderBy orderBy,
-            @RequestParam(required = false) Order order) {
+            @RequestParam(required = false) Order order)
+            throws ExecutionException, InterruptedException {
         // Pagination and sorting
         if (orderBy == null) orderBy = OrderBy.CREATION_DATE;
         if (order == null) order = Order.DESC;
 
-        Pageable pageable = new Pageable(page, size, orderBy.getFieldName(), Query.Direction.valueOf(order.getFieldName()));
+        Pageable pageable = new Pageable(page, size, orderBy.getFieldName(), Query.Direction.valueOf(order.getFieldName()), cursor);
         PagedResult<Resident> pageResidents = residentService.getResidents(statuses, pageable);
         List<Resident> residents = pageResidents.items();
 
@@ -84,15 +87,16 @@ public class AdminResidentController {
         response.put("currentPage", pageResidents.currentPage());
         response.put("totalItems", pageResidents.totalItems());
         response.put("totalPages", pageResidents.totalPages());
+        response.put("nextCursor", pageResidents.nextCursor());
 
         return ResponseEntity.ok(response);
     }
 
     @GetMapping(path = "/{uid}", produces = "application/json")
     @FirebaseAuthorization(roles = {"MODERATOR"})
-    public ResponseEntity<ResidentModeratorResponseDto> getResident(@PathVariable String uid)
-            throws ExecutionException, InterruptedException, FirebaseAuthException {
-        return ResponseEntity.ok(new ModelMapper().map(residentService.getResident(uid), ResidentModeratorResponseDto.class));
+    public CompletableFuture<ResponseEntity<ResidentModeratorResponseDto>> getResident(@PathVariable String uid) {
+        return residentService.getResidentAsync(uid)
+                .thenApply(resident -> ResponseEntity.ok(new ModelMapper().map(resident, ResidentModeratorResponseDto.class)));
     }
 
     @PatchMapping(path = "/{uid}", consumes = "application/json")
@@ -21,6 +21,7 @@ import org.springframework.web.bind.annotation.*;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
@@ -61,9 +62,9 @@ public class AdminServiceController {
 
     @GetMapping("/{uid}")
     @FirebaseAuthorization(roles = {"MODERATOR"})
-    public ResponseEntity<ServiceModeratorResponseDto> getService(@PathVariable String uid)
-            throws FirebaseAuthException, ExecutionException, InterruptedException {
-        return ResponseEntity.ok(new ModelMapper().map(serviceService.getService(uid), ServiceModeratorResponseDto.class));
+    public CompletableFuture<ResponseEntity<ServiceModeratorResponseDto>> getService(@PathVariable String uid) {
+        return serviceService.getServiceAsync(uid)
+                .thenApply(service -> ResponseEntity.ok(new ModelMapper().map(service, ServiceModeratorResponseDto.class)));
     }
 
     @GetMapping
@@ -72,13 +73,15 @@ public class AdminServiceController {
             @RequestParam(required = false) List<UserStatus> statuses,
             @RequestParam(defaultValue = "0") int page,
             @RequestParam(defaultValue = "20") int size,
+            @RequestParam(required = false) String cursor,
             @RequestParam(name = "order_by", required = false) OrderBy orderBy,
-            @RequestParam(required = false) Order order) {
+            @RequestParam(required = false) Order order)
+            throws ExecutionException, InterruptedException {
         // Pagination and sorting
         if (orderBy == null) orderBy = OrderBy.CREATION_DATE;
         if (order == null) order = Order.DESC;
 
-        Pageable pageable = new Pageable(page, size, orderBy.getFieldName(), Query.Direction.valueOf(order.getFieldName()));
+        Pageable pageable = new Pageable(page, size, orderBy.getFieldName(), Query.Direction.valueOf(order.getFieldName()), cursor);
         PagedResult<Service> pageServices = serviceService.getServices(statuses, pageable);
         List<Service> services = pageServices.items();
 
@@ -92,6 +95,7 @@ public class AdminServiceController {
         response.put("currentPage", pageServices.currentPage());
         response.put("totalItems", pageServices.totalItems());
         response.put("totalPages", pageServices.totalPages());
+        response.put("nextCursor", pageServices.nextCursor());
 
         return ResponseEntity.ok(response);
     }
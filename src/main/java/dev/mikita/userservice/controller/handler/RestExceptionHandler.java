@@ -1,7 +1,9 @@
 package dev.mikita.userservice.controller.handler;
 
 import com.google.firebase.auth.FirebaseAuthException;
+import dev.mikita.userservice.exception.BadRequestException;
 import dev.mikita.userservice.exception.NotFoundException;
+import dev.mikita.userservice.exception.PreconditionFailedException;
 import jakarta.security.auth.message.AuthException;
 import jakarta.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
@@ -44,6 +46,18 @@ public class RestExceptionHandler {
         return new ResponseEntity<>(errorInfo(request, e), HttpStatus.BAD_REQUEST);
     }
 
+    /**
+     * Bad request response entity.
+     *
+     * @param request the request
+     * @param e       the e
+     * @return the response entity
+     */
+    @ExceptionHandler(BadRequestException.class)
+    public ResponseEntity<ErrorInfo> badRequest(HttpServletRequest request, BadRequestException e) {
+        return new ResponseEntity<>(errorInfo(request, e), HttpStatus.BAD_REQUEST);
+    }
+
     /**
      * Auth exception response entity.
      *
@@ -102,4 +116,16 @@ public class RestExceptionHandler {
     public ResponseEntity<ErrorInfo> resourceNotFound(HttpServletRequest request, NotFoundException e) {
         return new ResponseEntity<>(errorInfo(request, e), HttpStatus.NOT_FOUND);
     }
+
+    /**
+     * Precondition failed response entity.
+     *
+     * @param request the request
+     * @param e       the e
+     * @return the response entity
+     */
+    @ExceptionHandler(PreconditionFailedException.class)
+    public ResponseEntity<ErrorInfo> preconditionFailed(HttpServletRequest request, PreconditionFailedException e) {
+        return new ResponseEntity<>(errorInfo(request, e), HttpStatus.PRECONDITION_FAILED);
+    }
 }
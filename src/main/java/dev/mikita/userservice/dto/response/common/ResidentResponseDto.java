@@ -1,6 +1,7 @@
 package dev.mikita.userservice.dto.response.common;
 
 import lombok.Data;
+import java.util.Map;
 
 /**
  * The type Resident public response dto.
@@ -23,4 +24,8 @@ public class ResidentResponseDto {
      * The Photo.
      */
     String photo;
+    /**
+     * The Photo variants, keyed by size in pixels.
+     */
+    Map<String, String> photoVariants;
 }
\ No newline at end of file
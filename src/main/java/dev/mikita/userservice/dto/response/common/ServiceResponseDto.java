@@ -1,6 +1,7 @@
 package dev.mikita.userservice.dto.response.common;
 
 import lombok.Data;
+import java.util.Map;
 
 @Data
 public class ServiceResponseDto {
@@ -11,4 +12,5 @@ public class ServiceResponseDto {
     String description;
     String address;
     String photo;
+    Map<String, String> photoVariants;
 }
@@ -3,6 +3,7 @@ package dev.mikita.userservice.dto.response.moderator;
 import dev.mikita.userservice.entity.UserStatus;
 import lombok.Data;
 import java.time.LocalDateTime;
+import java.util.Map;
 
 @Data
 public class ResidentModeratorResponseDto {
@@ -12,6 +13,7 @@ public class ResidentModeratorResponseDto {
     String firstName;
     String lastName;
     String photo;
+    Map<String, String> photoVariants;
     UserStatus status;
     LocalDateTime creationDate;
 }
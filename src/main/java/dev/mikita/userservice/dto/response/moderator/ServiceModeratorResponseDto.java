@@ -3,6 +3,7 @@ package dev.mikita.userservice.dto.response.moderator;
 import dev.mikita.userservice.entity.UserStatus;
 import lombok.Data;
 import java.time.LocalDateTime;
+import java.util.Map;
 
 @Data
 public class ServiceModeratorResponseDto {
@@ -13,6 +14,7 @@ public class ServiceModeratorResponseDto {
     String description;
     String address;
     String photo;
+    Map<String, String> photoVariants;
     UserStatus status;
     LocalDateTime creationDate;
 }
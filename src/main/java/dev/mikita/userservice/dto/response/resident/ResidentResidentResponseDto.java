@@ -1,6 +1,7 @@
 package dev.mikita.userservice.dto.response.resident;
 
 import lombok.Data;
+import java.util.Map;
 
 /**
  * The type Resident private response dto.
@@ -13,4 +14,5 @@ public class ResidentResidentResponseDto {
     String firstName;
     String lastName;
     String photo;
+    Map<String, String> photoVariants;
 }
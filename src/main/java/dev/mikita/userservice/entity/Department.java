@@ -7,7 +7,7 @@ import java.util.List;
 
 @Data
 @EqualsAndHashCode(callSuper = false)
-public class Department {
+public class Department implements Versioned {
     private String uid;
     private String name;
     private String description;
@@ -16,4 +16,5 @@ public class Department {
     private LocalDateTime creationDate;
     private List<Long> categories;
     private String serviceUid;
+    private String version;
 }
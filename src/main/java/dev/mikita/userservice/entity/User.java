@@ -2,12 +2,13 @@ package dev.mikita.userservice.entity;
 
 import lombok.Data;
 import java.time.LocalDateTime;
+import java.util.Map;
 
 /**
  * The type User.
  */
 @Data
-public class User {
+public class User implements Versioned {
     private String uid;
     private String email;
     private String phoneNumber;
@@ -15,5 +16,7 @@ public class User {
     private UserRole role;
     private UserStatus status;
     private String photo;
+    private Map<String, String> photoVariants;
     private LocalDateTime creationDate;
+    private String version;
 }
\ No newline at end of file
@@ -0,0 +1,20 @@
+package dev.mikita.userservice.entity;
+
+/**
+ * An entity carrying the version of the stored state it was read from.
+ */
+public interface Versioned {
+    /**
+     * Gets uid.
+     *
+     * @return the uid
+     */
+    String getUid();
+
+    /**
+     * Gets the quoted entity tag of the stored state, or null if the entity was not read from the store.
+     *
+     * @return the version
+     */
+    String getVersion();
+}
@@ -0,0 +1,33 @@
+package dev.mikita.userservice.event;
+
+/**
+ * Published by repositories after an entity was updated or deleted, so caches holding it can be invalidated.
+ * The {@link InvalidationBus} forwards local events to other instances and re-publishes theirs as remote events.
+ *
+ * @param entityType the entity type
+ * @param uid        the entity uid
+ * @param version    the version written, or null if unknown or deleted
+ * @param remote     whether the change was made by another instance
+ */
+public record EntityChangedEvent(Class<?> entityType, String uid, String version, boolean remote) {
+    /**
+     * Instantiates a new local Entity changed event of an unknown version.
+     *
+     * @param entityType the entity type
+     * @param uid        the entity uid
+     */
+    public EntityChangedEvent(Class<?> entityType, String uid) {
+        this(entityType, uid, null, false);
+    }
+
+    /**
+     * Instantiates a new local Entity changed event.
+     *
+     * @param entityType the entity type
+     * @param uid        the entity uid
+     * @param version    the version written
+     */
+    public EntityChangedEvent(Class<?> entityType, String uid, String version) {
+        this(entityType, uid, version, false);
+    }
+}
@@ -0,0 +1,168 @@
+package dev.mikita.userservice.event;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import dev.mikita.userservice.repository.WritePipeline;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Exchanges messages through a Firestore collection: every message is a document, and every instance
+ * listens to the documents published since it started. Documents carry an {@code expireAt} field, so a
+ * Firestore TTL policy on that field keeps the collection small.
+ * Enabled with {@code app.invalidation.transport=firestore}.
+ */
+@Component
+@ConditionalOnProperty(name = "app.invalidation.transport", havingValue = "firestore")
+public class FirestoreInvalidationTransport implements InvalidationTransport {
+    private static final Logger LOG = LoggerFactory.getLogger(FirestoreInvalidationTransport.class);
+
+    private final CollectionReference collectionReference;
+    private final WritePipeline writePipeline;
+    private final Duration retention;
+    private final Duration clockSkew;
+    private final Duration resubscribeDelay;
+    private final ScheduledExecutorService resubscribeScheduler;
+    private final List<Consumer<InvalidationMessage>> subscribers = new CopyOnWriteArrayList<>();
+
+    private volatile long lastPublishedAt;
+    private volatile ListenerRegistration registration;
+
+    /**
+     * Instantiates a new Firestore invalidation transport.
+     *
+     * @param firestore        the firestore
+     * @param writePipeline    the write pipeline
+     * @param collectionName   the collection name
+     * @param retention        how long a message document is kept before the TTL policy may delete it
+     * @param clockSkew        how far back before the last seen message the listener starts, covering clock skew
+     *                         between instances; messages seen twice are dropped by the bus
+     * @param resubscribeDelay how long to wait before listening again after the listener failed
+     */
+    @Autowired
+    public FirestoreInvalidationTransport(Firestore firestore,
+                                          WritePipeline writePipeline,
+                                          @Value("${app.invalidation.firestore.collection:invalidations}") String collectionName,
+                                          @Value("${app.invalidation.firestore.retention:1h}") Duration retention,
+                                          @Value("${app.invalidation.firestore.clock-skew:5s}") Duration clockSkew,
+                                          @Value("${app.invalidation.firestore.resubscribe-delay:5s}") Duration resubscribeDelay) {
+        this.collectionReference = firestore.collection(collectionName);
+        this.writePipeline = writePipeline;
+        this.retention = retention;
+        this.clockSkew = clockSkew;
+        this.resubscribeDelay = resubscribeDelay;
+        this.resubscribeScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "invalidation-listener");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.lastPublishedAt = System.currentTimeMillis();
+    }
+
+    /**
+     * Starts listening to the messages published from now on.
+     */
+    @PostConstruct
+    public void start() {
+        listen();
+    }
+
+    /**
+     * Stops listening.
+     */
+    @PreDestroy
+    public void stop() {
+        resubscribeScheduler.shutdownNow();
+        if (registration != null) {
+            registration.remove();
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> send(InvalidationMessage message) {
+        Map<String, Object> data = new HashMap<>();
+        data.put("origin", message.origin());
+        data.put("entityType", message.entityType());
+        data.put("uid", message.uid());
+        data.put("version", message.version());
+        data.put("publishedAt", message.publishedAt());
+        data.put("expireAt", new Date(message.publishedAt() + retention.toMillis()));
+
+        // Runs inside the event listener of the writing request, which must not wait for a write slot
+        return writePipeline.trySubmit("invalidation.send", () -> collectionReference.document(message.id()).set(data))
+                .thenApply(writeResult -> null);
+    }
+
+    @Override
+    public void subscribe(Consumer<InvalidationMessage> subscriber) {
+        subscribers.add(subscriber);
+    }
+
+    private void listen() {
+        registration = collectionReference
+                .whereGreaterThan("publishedAt", lastPublishedAt - clockSkew.toMillis())
+                .addSnapshotListener(this::onSnapshot);
+    }
+
+    // Snapshot callbacks of one listener are delivered sequentially
+    private void onSnapshot(QuerySnapshot snapshot, FirestoreException e) {
+        if (e != null) {
+            LOG.warn("Invalidation listener failed, changes of other instances are missed until it is back", e);
+            resubscribe();
+            return;
+        }
+
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            if (change.getType() != DocumentChange.Type.ADDED) {
+                continue;
+            }
+
+            InvalidationMessage message = toMessage(change.getDocument());
+            lastPublishedAt = Math.max(lastPublishedAt, message.publishedAt());
+            subscribers.forEach(subscriber -> subscriber.accept(message));
+        }
+    }
+
+    private void resubscribe() {
+        if (registration != null) {
+            registration.remove();
+        }
+
+        // Resumes from the last message seen, the overlap is delivered again
+        resubscribeScheduler.schedule(this::listen, resubscribeDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static InvalidationMessage toMessage(QueryDocumentSnapshot document) {
+        Long publishedAt = document.getLong("publishedAt");
+
+        return new InvalidationMessage(
+                document.getId(),
+                document.getString("origin"),
+                document.getString("entityType"),
+                document.getString("uid"),
+                document.getString("version"),
+                publishedAt != null ? publishedAt : 0L);
+    }
+}
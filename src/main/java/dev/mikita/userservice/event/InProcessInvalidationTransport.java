@@ -0,0 +1,29 @@
+package dev.mikita.userservice.event;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * Delivers messages synchronously to the subscribers of the same JVM. Used for a single instance and in
+ * tests, where several {@link InvalidationBus}es can share one transport to stand in for several nodes.
+ */
+@Component
+@ConditionalOnProperty(name = "app.invalidation.transport", havingValue = "in-process", matchIfMissing = true)
+public class InProcessInvalidationTransport implements InvalidationTransport {
+    private final List<Consumer<InvalidationMessage>> subscribers = new CopyOnWriteArrayList<>();
+
+    @Override
+    public CompletableFuture<Void> send(InvalidationMessage message) {
+        subscribers.forEach(subscriber -> subscriber.accept(message));
+        return CompletableFuture.completedFuture(null);
+    }
+
+    @Override
+    public void subscribe(Consumer<InvalidationMessage> subscriber) {
+        subscribers.add(subscriber);
+    }
+}
@@ -0,0 +1,170 @@
+package dev.mikita.userservice.event;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the caches of all instances coherent. Every local {@link EntityChangedEvent} is sent to the other
+ * instances, and every message received from another instance is re-published locally as a remote
+ * {@link EntityChangedEvent}, so the same listeners evict the entry no matter where the write happened.
+ * Messages delivered more than once, and several messages for the same written version, are applied once.
+ */
+@Component
+public class InvalidationBus {
+    private static final Logger LOG = LoggerFactory.getLogger(InvalidationBus.class);
+    private static final String ENTITY_PACKAGE = "dev.mikita.userservice.entity.";
+
+    private final InvalidationTransport transport;
+    private final ApplicationEventPublisher eventPublisher;
+    private final String nodeId;
+    private final Cache<String, Boolean> seen;
+    private final Map<String, Class<?>> entityTypes = new ConcurrentHashMap<>();
+    private final MeterRegistry meterRegistry;
+    private final Counter sendFailures;
+    private final Timer lag;
+
+    /**
+     * Instantiates a new Invalidation bus.
+     *
+     * @param transport      the transport
+     * @param eventPublisher the event publisher
+     * @param meterRegistry  the meter registry
+     * @param nodeId         the id of this instance, random if blank
+     * @param dedupeWindow   how long received messages are remembered to drop duplicates
+     */
+    @Autowired
+    public InvalidationBus(InvalidationTransport transport,
+                           ApplicationEventPublisher eventPublisher,
+                           MeterRegistry meterRegistry,
+                           @Value("${app.invalidation.node-id:}") String nodeId,
+                           @Value("${app.invalidation.dedupe-window:10m}") Duration dedupeWindow) {
+        this.transport = transport;
+        this.eventPublisher = eventPublisher;
+        this.nodeId = nodeId.isBlank() ? UUID.randomUUID().toString() : nodeId;
+        this.seen = Caffeine.newBuilder()
+                .expireAfterWrite(dedupeWindow)
+                .maximumSize(100_000)
+                .build();
+        this.meterRegistry = meterRegistry;
+        this.sendFailures = Counter.builder("invalidation.send.failures")
+                .description("Invalidations that could not be sent to other instances")
+                .register(meterRegistry);
+        this.lag = Timer.builder("invalidation.lag")
+                .description("Time from a change on another instance until it was applied here")
+                .register(meterRegistry);
+
+        transport.subscribe(this::receive);
+    }
+
+    /**
+     * Gets the id of this instance.
+     *
+     * @return the node id
+     */
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Sends a local change to the other instances.
+     *
+     * @param event the event
+     */
+    @EventListener
+    public void onEntityChanged(EntityChangedEvent event) {
+        if (event.remote()) {
+            return;
+        }
+
+        InvalidationMessage message = new InvalidationMessage(UUID.randomUUID().toString(), nodeId,
+                event.entityType().getName(), event.uid(), event.version(), System.currentTimeMillis());
+
+        try {
+            transport.send(message).whenComplete((result, e) -> {
+                if (e != null) {
+                    sendFailed(message, e);
+                }
+            });
+        } catch (RuntimeException e) {
+            sendFailed(message, e);
+        }
+    }
+
+    // Other instances catch up when their entries expire
+    private void sendFailed(InvalidationMessage message, Throwable e) {
+        sendFailures.increment();
+        LOG.warn("Failed to send invalidation of {} {}", message.entityType(), message.uid(), e);
+    }
+
+    private void receive(InvalidationMessage message) {
+        if (nodeId.equals(message.origin())) {
+            count("own");
+            return;
+        }
+
+        if (!markSeen(message)) {
+            count("duplicate");
+            return;
+        }
+
+        Class<?> entityType = resolve(message.entityType());
+        if (entityType == null) {
+            count("unknown");
+            LOG.warn("Dropping invalidation of unknown entity type {}", message.entityType());
+            return;
+        }
+
+        eventPublisher.publishEvent(new EntityChangedEvent(entityType, message.uid(), message.version(), true));
+        lag.record(Math.max(0, System.currentTimeMillis() - message.publishedAt()), TimeUnit.MILLISECONDS);
+        count("applied");
+    }
+
+    private boolean markSeen(InvalidationMessage message) {
+        Map<String, Boolean> seenMap = seen.asMap();
+        if (seenMap.putIfAbsent(message.id(), Boolean.TRUE) != null) {
+            return false;
+        }
+
+        // A version identifies a write, several messages for it need only one eviction
+        return message.version() == null
+                || seenMap.putIfAbsent(message.entityType() + "/" + message.uid() + "/" + message.version(),
+                        Boolean.TRUE) == null;
+    }
+
+    private Class<?> resolve(String className) {
+        if (className == null || !className.startsWith(ENTITY_PACKAGE)) {
+            return null;
+        }
+
+        return entityTypes.computeIfAbsent(className, name -> {
+            try {
+                return Class.forName(name);
+            } catch (ClassNotFoundException e) {
+                return null;
+            }
+        });
+    }
+
+    private void count(String result) {
+        Counter.builder("invalidation.messages")
+                .description("Invalidations received from the transport by result")
+                .tag("result", result)
+                .register(meterRegistry)
+                .increment();
+    }
+}
@@ -0,0 +1,15 @@
+package dev.mikita.userservice.event;
+
+/**
+ * A cache invalidation exchanged between instances through an {@link InvalidationTransport}.
+ *
+ * @param id          the message id, unique per change
+ * @param origin      the node id of the instance that made the change
+ * @param entityType  the entity class name
+ * @param uid         the entity uid
+ * @param version     the version written, or null if unknown or deleted
+ * @param publishedAt the epoch millis the message was sent at
+ */
+public record InvalidationMessage(String id, String origin, String entityType, String uid, String version,
+                                  long publishedAt) {
+}
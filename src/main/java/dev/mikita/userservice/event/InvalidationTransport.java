@@ -0,0 +1,25 @@
+package dev.mikita.userservice.event;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Carries {@link InvalidationMessage}s between instances. Delivery is at least once and unordered,
+ * a subscriber also receives the messages sent by its own instance.
+ */
+public interface InvalidationTransport {
+    /**
+     * Sends a message to all subscribed instances without blocking the caller.
+     *
+     * @param message the message
+     * @return completes once the message was handed over, failed if other instances will not receive it
+     */
+    CompletableFuture<Void> send(InvalidationMessage message);
+
+    /**
+     * Subscribes to the messages of all instances.
+     *
+     * @param subscriber the subscriber
+     */
+    void subscribe(Consumer<InvalidationMessage> subscriber);
+}
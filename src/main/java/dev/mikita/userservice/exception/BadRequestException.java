@@ -0,0 +1,25 @@
+package dev.mikita.userservice.exception;
+
+/**
+ * Indicates that a request parameter or header sent by the client is malformed.
+ */
+public class BadRequestException extends BaseException {
+    /**
+     * Instantiates a new Bad request exception.
+     *
+     * @param message the message
+     */
+    public BadRequestException(String message) {
+        super(message);
+    }
+
+    /**
+     * Instantiates a new Bad request exception.
+     *
+     * @param message the message
+     * @param cause   the cause
+     */
+    public BadRequestException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
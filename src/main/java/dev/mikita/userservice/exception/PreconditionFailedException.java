@@ -0,0 +1,25 @@
+package dev.mikita.userservice.exception;
+
+/**
+ * Indicates that a conditional write was rejected because the resource changed since the client read it.
+ */
+public class PreconditionFailedException extends BaseException {
+    /**
+     * Instantiates a new Precondition failed exception.
+     *
+     * @param message the message
+     */
+    public PreconditionFailedException(String message) {
+        super(message);
+    }
+
+    /**
+     * Instantiates a new Precondition failed exception.
+     *
+     * @param message the message
+     * @param cause   the cause
+     */
+    public PreconditionFailedException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
@@ -0,0 +1,79 @@
+package dev.mikita.userservice.filter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.firebase.auth.FirebaseAuthException;
+import dev.mikita.userservice.controller.handler.ErrorInfo;
+import dev.mikita.userservice.interceptor.FirebaseAuthorizationInterceptor;
+import dev.mikita.userservice.interceptor.FirebaseAuthorizationRule;
+import jakarta.security.auth.message.AuthException;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import java.io.IOException;
+
+/**
+ * Authorizes multipart uploads to {@link dev.mikita.userservice.annotation.FirebaseAuthorization}
+ * handlers before the dispatcher resolves the multipart body. Rejected requests are answered
+ * with the body still unread and the connection closed, so the container does not drain it.
+ */
+@Component
+@Order(Ordered.HIGHEST_PRECEDENCE + 10)
+public class MultipartAuthorizationFilter extends OncePerRequestFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(MultipartAuthorizationFilter.class);
+
+    private final FirebaseAuthorizationInterceptor firebaseAuthorizationInterceptor;
+    private final ObjectMapper objectMapper;
+
+    /**
+     * Instantiates a new Multipart authorization filter.
+     *
+     * @param firebaseAuthorizationInterceptor the firebase authorization interceptor
+     * @param objectMapper                     the object mapper
+     */
+    @Autowired
+    public MultipartAuthorizationFilter(FirebaseAuthorizationInterceptor firebaseAuthorizationInterceptor,
+                                        ObjectMapper objectMapper) {
+        this.firebaseAuthorizationInterceptor = firebaseAuthorizationInterceptor;
+        this.objectMapper = objectMapper;
+    }
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        String contentType = request.getContentType();
+        return contentType == null || !contentType.toLowerCase().startsWith("multipart/");
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        FirebaseAuthorizationRule rule = firebaseAuthorizationInterceptor.findMultipartRule(request);
+        if (rule != null) {
+            try {
+                firebaseAuthorizationInterceptor.authorize(request, rule);
+            } catch (AuthException | FirebaseAuthException e) {
+                LOG.warn("Rejected multipart request to {}: {}", request.getRequestURI(), e.getMessage());
+                reject(request, response);
+                return;
+            }
+        }
+
+        filterChain.doFilter(request, response);
+    }
+
+    private void reject(HttpServletRequest request, HttpServletResponse response) throws IOException {
+        response.setStatus(HttpServletResponse.SC_UNAUTHORIZED);
+        response.setHeader(HttpHeaders.CONNECTION, "close");
+        response.setContentType(MediaType.APPLICATION_JSON_VALUE);
+        objectMapper.writeValue(response.getOutputStream(), new ErrorInfo("Unauthorized", request.getRequestURI()));
+    }
+}
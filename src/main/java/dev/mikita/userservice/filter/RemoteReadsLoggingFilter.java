@@ -0,0 +1,65 @@
+package dev.mikita.userservice.filter;
+
+import dev.mikita.userservice.repository.RequestIdentityMap;
+import dev.mikita.userservice.repository.RequestIdentityMap.RemoteReads;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import java.io.IOException;
+
+/**
+ * Logs the remote Firestore and Auth reads each request issued through the {@link RequestIdentityMap}.
+ * Enable with {@code logging.level.dev.mikita.userservice.filter.RemoteReadsLoggingFilter=DEBUG}.
+ */
+@Component
+public class RemoteReadsLoggingFilter extends OncePerRequestFilter {
+    private static final Logger LOG = LoggerFactory.getLogger(RemoteReadsLoggingFilter.class);
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!LOG.isDebugEnabled()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            if (isAsyncStarted(request)) {
+                request.getAsyncContext().addListener(new CompletionListener(request));
+            } else {
+                log(request);
+            }
+        }
+    }
+
+    private static void log(HttpServletRequest request) {
+        RemoteReads remoteReads = RequestIdentityMap.remoteReads(request);
+        LOG.debug("{} {} issued {} remote reads ({} Firestore, {} Auth)", request.getMethod(),
+                request.getRequestURI(), remoteReads.total(), remoteReads.documentReads(), remoteReads.authReads());
+    }
+
+    private record CompletionListener(HttpServletRequest request) implements AsyncListener {
+        @Override
+        public void onComplete(AsyncEvent event) {
+            log(request);
+        }
+
+        @Override
+        public void onTimeout(AsyncEvent event) {}
+
+        @Override
+        public void onError(AsyncEvent event) {}
+
+        @Override
+        public void onStartAsync(AsyncEvent event) {}
+    }
+}
@@ -0,0 +1,210 @@
+package dev.mikita.userservice.interceptor;
+
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.FirebaseToken;
+import dev.mikita.userservice.annotation.FirebaseAuthorization;
+import dev.mikita.userservice.util.FirebaseTokenVerifier;
+import jakarta.security.auth.message.AuthException;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletRequestWrapper;
+import jakarta.servlet.http.HttpServletResponse;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+import org.springframework.core.MethodParameter;
+import org.springframework.core.annotation.AnnotatedElementUtils;
+import org.springframework.core.annotation.AnnotationAwareOrderComparator;
+import org.springframework.stereotype.Component;
+import org.springframework.web.method.HandlerMethod;
+import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.multipart.MultipartRequest;
+import org.springframework.web.servlet.HandlerExecutionChain;
+import org.springframework.web.servlet.HandlerInterceptor;
+import org.springframework.web.servlet.mvc.method.annotation.RequestMappingHandlerMapping;
+import org.springframework.web.util.ServletRequestPathUtils;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Authorizes requests to handler methods annotated with {@link FirebaseAuthorization}.
+ * The annotations are resolved once, when the context is refreshed, into immutable per-handler rules.
+ */
+@Component
+public class FirebaseAuthorizationInterceptor implements HandlerInterceptor, ApplicationListener<ContextRefreshedEvent> {
+    /**
+     * Request attribute holding the verified {@link FirebaseToken}.
+     */
+    public static final String FIREBASE_TOKEN_ATTRIBUTE = "firebaseToken";
+
+    private final FirebaseTokenVerifier firebaseTokenVerifier;
+    private volatile Map<Method, FirebaseAuthorizationRule> rules = Map.of();
+    private volatile Set<Method> multipartMethods = Set.of();
+    private volatile List<RequestMappingHandlerMapping> handlerMappings = List.of();
+
+    /**
+     * Instantiates a new Firebase authorization interceptor.
+     *
+     * @param firebaseTokenVerifier the firebase token verifier
+     */
+    @Autowired
+    public FirebaseAuthorizationInterceptor(FirebaseTokenVerifier firebaseTokenVerifier) {
+        this.firebaseTokenVerifier = firebaseTokenVerifier;
+    }
+
+    @Override
+    public void onApplicationEvent(ContextRefreshedEvent event) {
+        Map<Method, FirebaseAuthorizationRule> resolvedRules = new HashMap<>();
+        Set<Method> resolvedMultipartMethods = new HashSet<>();
+        List<RequestMappingHandlerMapping> resolvedHandlerMappings = new ArrayList<>(
+                event.getApplicationContext().getBeansOfType(RequestMappingHandlerMapping.class).values());
+        AnnotationAwareOrderComparator.sort(resolvedHandlerMappings);
+
+        resolvedHandlerMappings.forEach(mapping ->
+                mapping.getHandlerMethods().forEach((info, handlerMethod) -> {
+                    FirebaseAuthorization annotation = AnnotatedElementUtils.findMergedAnnotation(
+                            handlerMethod.getMethod(), FirebaseAuthorization.class);
+
+                    if (annotation == null) {
+                        return;
+                    }
+
+                    resolvedRules.put(handlerMethod.getMethod(), FirebaseAuthorizationRule.of(annotation));
+                    if (acceptsMultipart(handlerMethod)) {
+                        resolvedMultipartMethods.add(handlerMethod.getMethod());
+                    }
+                }));
+
+        rules = Map.copyOf(resolvedRules);
+        multipartMethods = Set.copyOf(resolvedMultipartMethods);
+        handlerMappings = List.copyOf(resolvedHandlerMappings);
+    }
+
+    /**
+     * Finds the rule of the multipart handler the dispatcher will select for the request, so the request can
+     * be authorized before its body is parsed. The handler is resolved through the same handler mappings as
+     * the dispatcher, so every spelling of a path reaching the handler is covered, encoded or not.
+     *
+     * @param request the request
+     * @return the rule, or null if the request does not target a guarded multipart handler
+     */
+    public FirebaseAuthorizationRule findMultipartRule(HttpServletRequest request) {
+        if (multipartMethods.isEmpty()) {
+            return null;
+        }
+
+        // The lookup stores the matched path and pattern as attributes, keep them off the real request
+        HttpServletRequest lookupRequest = new LookupRequest(request);
+        ServletRequestPathUtils.parseAndCache(lookupRequest);
+
+        for (RequestMappingHandlerMapping mapping : handlerMappings) {
+            HandlerExecutionChain chain;
+            try {
+                chain = mapping.getHandler(lookupRequest);
+            } catch (Exception e) {
+                // Unsupported method or media type, the dispatcher reports it without reading the body
+                return null;
+            }
+
+            if (chain != null) {
+                return chain.getHandler() instanceof HandlerMethod handlerMethod
+                        && multipartMethods.contains(handlerMethod.getMethod())
+                        ? rules.get(handlerMethod.getMethod())
+                        : null;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public boolean preHandle(HttpServletRequest request, HttpServletResponse response, Object handler)
+            throws Exception {
+        // Async dispatches were authorized on the initial dispatch
+        if (request.getDispatcherType() == DispatcherType.ASYNC || !(handler instanceof HandlerMethod handlerMethod)) {
+            return true;
+        }
+
+        // Already authorized by the multipart filter, before the body was read
+        if (request.getAttribute(FIREBASE_TOKEN_ATTRIBUTE) != null) {
+            return true;
+        }
+
+        FirebaseAuthorizationRule rule = rules.get(handlerMethod.getMethod());
+        if (rule != null) {
+            authorize(request, rule);
+        }
+
+        return true;
+    }
+
+    /**
+     * Verifies the bearer token of the request against the rule and stores it
+     * in the {@value #FIREBASE_TOKEN_ATTRIBUTE} request attribute.
+     *
+     * @param request the request
+     * @param rule    the rule
+     * @throws AuthException         if the token is missing or not permitted by the rule
+     * @throws FirebaseAuthException if the token is invalid
+     */
+    public void authorize(HttpServletRequest request, FirebaseAuthorizationRule rule)
+            throws AuthException, FirebaseAuthException {
+        String authorizationHeader = request.getHeader("Authorization");
+        if (authorizationHeader == null || !authorizationHeader.startsWith("Bearer ")) {
+            throw new AuthException("Unauthorized");
+        }
+
+        FirebaseToken firebaseToken = firebaseTokenVerifier.verify(authorizationHeader.substring(7));
+        if (!rule.permits(firebaseToken)) {
+            throw new AuthException("Unauthorized");
+        }
+
+        request.setAttribute(FIREBASE_TOKEN_ATTRIBUTE, firebaseToken);
+    }
+
+    private static boolean acceptsMultipart(HandlerMethod handlerMethod) {
+        for (MethodParameter parameter : handlerMethod.getMethodParameters()) {
+            Class<?> type = parameter.getParameterType();
+            if (MultipartRequest.class.isAssignableFrom(type) || MultipartFile.class.isAssignableFrom(type)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Request whose attributes are written to a local map, reading through to the wrapped request.
+     */
+    private static final class LookupRequest extends HttpServletRequestWrapper {
+        private final Map<String, Object> attributes = new HashMap<>();
+        private final Set<String> removedAttributes = new HashSet<>();
+
+        private LookupRequest(HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public Object getAttribute(String name) {
+            if (attributes.containsKey(name)) {
+                return attributes.get(name);
+            }
+            return removedAttributes.contains(name) ? null : super.getAttribute(name);
+        }
+
+        @Override
+        public void setAttribute(String name, Object value) {
+            attributes.put(name, value);
+            removedAttributes.remove(name);
+        }
+
+        @Override
+        public void removeAttribute(String name) {
+            attributes.remove(name);
+            removedAttributes.add(name);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package dev.mikita.userservice.interceptor;
+
+import com.google.firebase.auth.FirebaseToken;
+import dev.mikita.userservice.annotation.FirebaseAuthorization;
+import dev.mikita.userservice.entity.UserRole;
+import dev.mikita.userservice.entity.UserStatus;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Authorization rule of one handler method, resolved from its {@link FirebaseAuthorization} annotation.
+ * Empty role or status sets allow any value.
+ *
+ * @param roles    the allowed roles
+ * @param statuses the allowed statuses
+ */
+public record FirebaseAuthorizationRule(Set<UserRole> roles, Set<UserStatus> statuses) {
+    private static final Map<String, UserRole> ROLES_BY_CLAIM = claimLookup(UserRole.class);
+    private static final Map<String, UserStatus> STATUSES_BY_CLAIM = claimLookup(UserStatus.class);
+
+    /**
+     * Resolves the rule of an annotation.
+     *
+     * @param annotation the annotation
+     * @return the firebase authorization rule
+     * @throws IllegalArgumentException if the annotation names an unknown role or status
+     */
+    public static FirebaseAuthorizationRule of(FirebaseAuthorization annotation) {
+        EnumSet<UserRole> roles = EnumSet.noneOf(UserRole.class);
+        for (String role : annotation.roles()) {
+            roles.add(resolve(ROLES_BY_CLAIM, role));
+        }
+
+        EnumSet<UserStatus> statuses = EnumSet.noneOf(UserStatus.class);
+        for (String status : annotation.statuses()) {
+            statuses.add(resolve(STATUSES_BY_CLAIM, status));
+        }
+
+        return new FirebaseAuthorizationRule(Collections.unmodifiableSet(roles), Collections.unmodifiableSet(statuses));
+    }
+
+    /**
+     * Checks the role and status claims of a verified token.
+     *
+     * @param firebaseToken the firebase token
+     * @return true if the token satisfies the rule
+     */
+    public boolean permits(FirebaseToken firebaseToken) {
+        Map<String, Object> claims = firebaseToken.getClaims();
+        return matches(roles, ROLES_BY_CLAIM, claims.get("role"))
+                && matches(statuses, STATUSES_BY_CLAIM, claims.get("status"));
+    }
+
+    private static <E extends Enum<E>> boolean matches(Set<E> allowed, Map<String, E> lookup, Object claim) {
+        if (allowed.isEmpty()) {
+            return true;
+        }
+
+        // Backed by EnumSet, so contains() is a single bitmask test
+        return claim != null && allowed.contains(lookup.get(claim));
+    }
+
+    private static <E extends Enum<E>> E resolve(Map<String, E> lookup, String name) {
+        E value = lookup.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Unknown value in @FirebaseAuthorization: " + name);
+        }
+        return value;
+    }
+
+    private static <E extends Enum<E>> Map<String, E> claimLookup(Class<E> type) {
+        Map<String, E> lookup = new HashMap<>();
+        for (E value : type.getEnumConstants()) {
+            lookup.put(value.toString(), value);
+        }
+        return Map.copyOf(lookup);
+    }
+}
@@ -1,182 +1,239 @@
 package dev.mikita.userservice.repository;
 
+import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.*;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.UserRecord;
 import dev.mikita.userservice.entity.*;
+import dev.mikita.userservice.event.EntityChangedEvent;
 import dev.mikita.userservice.exception.NotFoundException;
+import dev.mikita.userservice.util.EntityVersion;
+import dev.mikita.userservice.util.FirestoreWrites;
 import dev.mikita.userservice.util.Pageable;
 import dev.mikita.userservice.util.PagedResult;
+import dev.mikita.userservice.util.PhotoVariants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Repository;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
 @Repository
 public class AnalystRepository {
     private final CollectionReference collectionReference;
+    private final RequestIdentityMap requestIdentityMap;
     private final FirebaseAuth firebaseAuth;
+    private final UserRecordProvider userRecordProvider;
+    private final ApplicationEventPublisher eventPublisher;
+    private final WritePipeline writePipeline;
+    private final UserCounters userCounters;
+    private final RegistrationCoordinator registrationCoordinator;
 
     @Autowired
     public AnalystRepository(Firestore firestore,
                              FirebaseAuth firebaseAuth,
+                             UserRecordProvider userRecordProvider,
+                             RequestIdentityMap requestIdentityMap,
+                             ApplicationEventPublisher eventPublisher,
+                             WritePipeline writePipeline,
+                             UserCounters userCounters,
+                             RegistrationCoordinator registrationCoordinator,
                              @Value("${firebase.firestore.collections.analyst}") String collectionName) {
         this.firebaseAuth = firebaseAuth;
+        this.userRecordProvider = userRecordProvider;
         this.collectionReference = firestore.collection(collectionName);
+        this.requestIdentityMap = requestIdentityMap;
+        this.eventPublisher = eventPublisher;
+        this.writePipeline = writePipeline;
+        this.userCounters = userCounters;
+        this.registrationCoordinator = registrationCoordinator;
     }
 
     public Analyst find(String uid) throws ExecutionException, InterruptedException, FirebaseAuthException {
-        UserRecord userRecord = firebaseAuth.getUser(uid);
+        UserRecord userRecord = userRecordProvider.get(uid, "analyst");
 
         if (userRecord.getCustomClaims().isEmpty() ||
                 !userRecord.getCustomClaims().get("role").toString().equals(UserRole.ANALYST.toString())) {
             throw NotFoundException.create("Analyst", uid);
         }
 
-        return makeAnalyst(userRecord, collectionReference.document(uid).get().get());
+        return makeAnalyst(userRecord, requestIdentityMap.get(collectionReference.document(uid)));
     }
 
-    // Piece of shit. Choosing firebase for this project was a mistake :(
-    public PagedResult<Analyst> findAll(List<UserStatus> statuses, Pageable pageable) {
-        List<Analyst> analysts = new ArrayList<>();
+    public CompletableFuture<Analyst> findAsync(String uid) {
+        CompletableFuture<UserRecord> userRecordFuture = userRecordProvider.getAsync(uid, "analyst");
+        CompletableFuture<DocumentSnapshot> snapshotFuture =
+                requestIdentityMap.getAsync(collectionReference.document(uid));
 
-        try {
-            // Total items query
-            Query totalItemsQuery;
-            if (statuses != null) {
-                totalItemsQuery = collectionReference.whereIn("status", statuses.stream()
-                        .map(UserStatus::toString)
-                        .collect(Collectors.toList()));
-            } else {
-                totalItemsQuery = collectionReference;
+        return userRecordFuture.thenCombine(snapshotFuture, (userRecord, snapshot) -> {
+            if (userRecord.getCustomClaims().isEmpty()
+                    || !userRecord.getCustomClaims().get("role").toString().equals(UserRole.ANALYST.toString())) {
+                throw NotFoundException.create("Analyst", uid);
             }
 
-            long totalItems = totalItemsQuery.get().get().size();
-            int totalPages = (int) Math.ceil((double) totalItems / pageable.getSize());
-
-            // Items query
-            Query query;
-            if (statuses != null) {
-                query = collectionReference.whereIn("status", statuses.stream()
-                        .map(UserStatus::toString)
-                        .collect(Collectors.toList()))
-                        .orderBy("status", pageable.getSortDirection())
-                        .offset(pageable.getOffset())
-                        .limit(pageable.getSize());
-            } else {
-                query = collectionReference
-                    .orderBy(pageable.getSortBy(), pageable.getSortDirection())
-                    .offset(pageable.getOffset())
-                    .limit(pageable.getSize());
-            }
+            return makeAnalyst(userRecord, snapshot);
+        });
+    }
+
+    // Piece of shit. Choosing firebase for this project was a mistake :(
+    public PagedResult<Analyst> findAll(List<UserStatus> statuses, Pageable pageable)
+            throws ExecutionException, InterruptedException {
+        List<Analyst> analysts = new ArrayList<>();
 
-            QuerySnapshot querySnapshot = query.get().get();
-            List<QueryDocumentSnapshot> documents = querySnapshot.getDocuments();
+        // Total items query, the role filter replaces checking every row against its Auth record
+        Query totalItemsQuery = collectionReference
+                .whereEqualTo(UserProjection.ROLE_FIELD, UserRole.ANALYST.toString());
+        if (statuses != null) {
+            totalItemsQuery = totalItemsQuery.whereIn(UserProjection.STATUS_FIELD, statuses.stream()
+                    .map(UserStatus::toString)
+                    .collect(Collectors.toList()));
+        }
 
-            for (QueryDocumentSnapshot snapshot : documents) {
-                UserRecord userRecord = firebaseAuth.getUser(snapshot.getId());
+        ApiFuture<AggregateQuerySnapshot> totalItemsFuture = totalItemsQuery.count().get();
 
-                if (userRecord.getCustomClaims().isEmpty() ||
-                        !userRecord.getCustomClaims().get("role").toString().equals(UserRole.ANALYST.toString())) {
-                    continue;
-                }
+        // Items query
+        String sortField = statuses != null ? "status" : pageable.getSortBy();
+        Query query = pageable.applyTo(totalItemsQuery, sortField);
 
-                analysts.add(makeAnalyst(userRecord, snapshot));
-            }
+        QuerySnapshot querySnapshot = query.get().get();
+        List<QueryDocumentSnapshot> documents = querySnapshot.getDocuments();
+        long totalItems = totalItemsFuture.get().getCount();
+        int totalPages = (int) Math.ceil((double) totalItems / pageable.getSize());
 
-            return new PagedResult<>(analysts, pageable.getPage(), totalItems, totalPages);
-        } catch (Exception e) {
-            return new PagedResult<>(analysts, pageable.getPage(), 0, 0);
+        for (QueryDocumentSnapshot snapshot : documents) {
+            analysts.add(makeAnalyst(snapshot));
         }
+
+        return new PagedResult<>(analysts, pageable.getPage(), totalItems, totalPages,
+                pageable.nextCursor(documents, sortField));
     }
 
     public void persist(Analyst analyst) throws ExecutionException, InterruptedException, FirebaseAuthException {
-        UserRecord userRecord = firebaseAuth.createUser(new UserRecord.CreateRequest()
+        UserRecord.CreateRequest createRequest = new UserRecord.CreateRequest()
                 .setEmail(analyst.getEmail())
                 .setPassword(analyst.getPassword())
                 .setDisplayName(analyst.getName())
-                .setEmailVerified(true));
+                .setEmailVerified(true);
 
         // Set Custom Claims
         Map<String, Object> customClaims = new HashMap<>();
         customClaims.put("role", UserRole.ANALYST.toString());
         customClaims.put("status", UserStatus.ACTIVE.toString());
 
-        firebaseAuth.setCustomUserClaims(userRecord.getUid(), customClaims);
-
         // Set Firestore Document
         Map<String, Object> data = new HashMap<>();
         data.put("name", analyst.getName());
         data.put("description", analyst.getDescription());
-        data.put("creationDate", new Date(userRecord.getUserMetadata().getCreationTimestamp()));
+        data.putAll(UserProjection.fields(analyst.getEmail(), null, UserRole.ANALYST));
         data.put("status", UserStatus.ACTIVE.toString());
 
-        collectionReference.document(userRecord.getUid()).set(data);
+        // Account, claims and document are created together or not at all
+        registrationCoordinator.register(UserRole.ANALYST, collectionReference, createRequest, customClaims, data);
     }
 
-    public Analyst update(Analyst analyst) throws ExecutionException, InterruptedException, FirebaseAuthException {
-        UserRecord userRecord = firebaseAuth.getUser(analyst.getUid());
+    /**
+     * Update analyst. Only the non-null fields of the patch are written. Auth is updated first, so a rejected
+     * Auth change leaves the document untouched, then the document, read in the same transaction only when the
+     * status changes.
+     *
+     * @param analyst      the patch, identified by its uid
+     * @param precondition the precondition on the document update time
+     * @throws FirebaseAuthException the firebase auth exception
+     * @throws ExecutionException    the execution exception
+     * @throws InterruptedException  the interrupted exception
+     */
+    public void update(Analyst analyst, Precondition precondition)
+            throws ExecutionException, InterruptedException, FirebaseAuthException {
+        String uid = analyst.getUid();
+        DocumentReference documentReference = collectionReference.document(uid);
+
+        // Auth is changed before the document: its errors, such as a taken email, must leave the document and its
+        // version untouched. The precondition is checked up front so a rejected one leaves Auth untouched as well
+        if (FirestoreWrites.hasUpdateTime(precondition)) {
+            FirestoreWrites.read(documentReference, precondition);
+        }
 
-        // Update User Record
-        UserRecord.UpdateRequest request = new UserRecord.UpdateRequest(userRecord.getUid());
+        Map<String, Object> userData = new HashMap<>();
 
-        if (!Objects.equals(analyst.getName(), userRecord.getDisplayName())) {
-            request.setDisplayName(analyst.getName());
+        if (analyst.getName() != null) {
+            userData.put("name", analyst.getName());
         }
 
-        if (!Objects.equals(analyst.getEmail(), userRecord.getEmail())) {
-            request.setEmail(analyst.getEmail());
-            request.setEmailVerified(true);
+        if (analyst.getDescription() != null) {
+            userData.put("description", analyst.getDescription());
         }
 
-        if (analyst.getPassword() != null) {
-            request.setPassword(analyst.getPassword());
+        if (analyst.getStatus() != null) {
+            userData.put("status", analyst.getStatus().toString());
         }
 
-        // Update Firestore Document
-        DocumentSnapshot snapshot = collectionReference.document(userRecord.getUid()).get().get();
-        Map<String, Object> userData = new HashMap<>();
+        // Update User Record
+        UserRecord.UpdateRequest request = new UserRecord.UpdateRequest(uid);
+        boolean userRecordChanged = false;
 
-        if (!Objects.equals(analyst.getName(), snapshot.getString("name"))) {
-            userData.put("name", analyst.getName());
+        if (analyst.getName() != null) {
+            request.setDisplayName(analyst.getName());
+            userRecordChanged = true;
         }
 
-        if (!Objects.equals(analyst.getDescription(), snapshot.getString("description"))) {
-            userData.put("description", analyst.getDescription());
+        if (analyst.getPassword() != null) {
+            request.setPassword(analyst.getPassword());
+            userRecordChanged = true;
         }
 
-        if (!Objects.equals(analyst.getStatus().toString(), snapshot.getString("status"))) {
-            userData.put("status", analyst.getStatus().toString());
+        if (analyst.getEmail() != null) {
+            request.setEmail(analyst.getEmail());
+            userData.put(UserProjection.EMAIL_FIELD, analyst.getEmail());
+            request.setEmailVerified(true);
+            userRecordChanged = true;
         }
 
-        // Update Custom Claims
-        Map<String, Object> customClaims = new HashMap<>(userRecord.getCustomClaims());
+        // Update Custom Claims, rebuilt from a fresh record so a concurrent change is not undone
+        if (analyst.getStatus() != null) {
+            UserRecord userRecord = firebaseAuth.getUser(uid);
 
-        if (!Objects.equals(analyst.getStatus().toString(), customClaims.get("status").toString())) {
-            customClaims.put("status", analyst.getStatus().toString());
+            if (!Objects.equals(analyst.getStatus().toString(), userRecord.getCustomClaims().get("status"))) {
+                Map<String, Object> customClaims = new HashMap<>(userRecord.getCustomClaims());
+                customClaims.put("status", analyst.getStatus().toString());
+                request.setCustomClaims(customClaims);
+                userRecordChanged = true;
+            }
         }
 
-        // Update User Record
-        request.setCustomClaims(customClaims);
-        firebaseAuth.updateUser(request);
+        if (userRecordChanged) {
+            firebaseAuth.updateUser(request);
+            userRecordProvider.invalidate(uid);
+        }
 
-        // Update Firestore Document
-        if (!userData.isEmpty()) {
-            collectionReference.document(userRecord.getUid()).update(userData);
+        // The projected fields go with the document fields, written after Auth accepted them. A write rejected after
+        // a concurrent change leaves Auth ahead of the document until the client retries with the new version
+        // A status change also moves the user between counters, which needs the previous status
+        String version = null;
+        if (analyst.getStatus() != null) {
+            userCounters.update(documentReference, userData, precondition, UserRole.ANALYST);
+        } else {
+            version = EntityVersion.of(FirestoreWrites.update(documentReference, userData, precondition).getUpdateTime());
         }
+        requestIdentityMap.evict(documentReference);
 
-        return analyst;
+        eventPublisher.publishEvent(new EntityChangedEvent(Analyst.class, uid, version));
     }
 
     public void delete(String uid) throws FirebaseAuthException {
         firebaseAuth.deleteUser(uid);
-        collectionReference.document(uid).delete();
+        userRecordProvider.invalidate(uid);
+        DocumentReference documentReference = collectionReference.document(uid);
+        requestIdentityMap.evict(documentReference);
+        writePipeline.submit("analyst.delete", () -> userCounters.delete(documentReference, UserRole.ANALYST))
+                .whenComplete((result, e) ->
+                        eventPublisher.publishEvent(new EntityChangedEvent(Analyst.class, uid)));
     }
 
     private Analyst makeAnalyst(UserRecord userRecord, DocumentSnapshot snapshot) {
@@ -185,6 +242,8 @@ public class AnalystRepository {
         analyst.setUid(userRecord.getUid());
         analyst.setEmail(userRecord.getEmail());
         analyst.setPhoto(userRecord.getPhotoUrl());
+        analyst.setPhotoVariants(PhotoVariants.of(snapshot, userRecord.getPhotoUrl()));
+        analyst.setVersion(EntityVersion.of(snapshot, userRecord));
         analyst.setStatus(UserStatus.valueOf(snapshot.getString("status")));
         analyst.setRole(UserRole.ANALYST);
         analyst.setCreationDate(LocalDateTime.ofInstant(
@@ -195,4 +254,15 @@ public class AnalystRepository {
 
         return analyst;
     }
+
+    private static Analyst makeAnalyst(DocumentSnapshot snapshot) {
+        Analyst analyst = new Analyst();
+
+        UserProjection.read(analyst, snapshot);
+        analyst.setRole(UserRole.ANALYST);
+        analyst.setName(snapshot.getString("name"));
+        analyst.setDescription(snapshot.getString("description"));
+
+        return analyst;
+    }
 }
@@ -0,0 +1,318 @@
+package dev.mikita.userservice.repository;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreException;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import dev.mikita.userservice.entity.Department;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory copy of the departments collection kept current by a Firestore snapshot listener, with a
+ * secondary index from service uid to its departments ordered by document id. Reads are answered locally
+ * once the initial snapshot has loaded; until then, and for a department written by this instance whose
+ * change has not been delivered yet, {@link DepartmentRepository} falls back to Firestore, for listings of its
+ * service as well. Such an expected
+ * version is forgotten once its change is delivered or after a timeout, so a write whose change never arrives
+ * does not keep the department out of the replica. Reads return copies the caller may modify.
+ * Enabled with {@code app.departments.replica.enabled=true}.
+ */
+@Component
+@ConditionalOnProperty(name = "app.departments.replica.enabled", havingValue = "true")
+public class DepartmentReplica implements HealthIndicator {
+    private static final Logger LOG = LoggerFactory.getLogger(DepartmentReplica.class);
+    private static final Comparator<Department> BY_UID = Comparator.comparing(Department::getUid);
+
+    private final CollectionReference collectionReference;
+    private final Duration resubscribeDelay;
+    private final ScheduledExecutorService resubscribeScheduler;
+    private final Map<String, Entry> departments = new ConcurrentHashMap<>();
+    private final Map<String, List<Department>> byServiceUid = new ConcurrentHashMap<>();
+    private final Cache<String, ExpectedVersion> expectedVersions;
+    private final Counter hits;
+    private final Counter fallbacks;
+
+    private volatile boolean ready;
+    private volatile ListenerRegistration registration;
+
+    /**
+     * Instantiates a new Department replica.
+     *
+     * @param firestore        the firestore
+     * @param meterRegistry    the meter registry
+     * @param resubscribeDelay how long to wait before listening again after the listener failed
+     * @param expectVersionTtl how long reads wait for the change of an own write to be delivered
+     * @param collectionName   the collection name
+     */
+    @Autowired
+    public DepartmentReplica(Firestore firestore,
+                             MeterRegistry meterRegistry,
+                             @Value("${app.departments.replica.resubscribe-delay:5s}") Duration resubscribeDelay,
+                             @Value("${app.departments.replica.expect-version-ttl:1m}") Duration expectVersionTtl,
+                             @Value("${firebase.firestore.collections.department}") String collectionName) {
+        this.collectionReference = firestore.collection(collectionName);
+        this.resubscribeDelay = resubscribeDelay;
+        this.expectedVersions = Caffeine.newBuilder()
+                .expireAfterWrite(expectVersionTtl)
+                .build();
+        this.resubscribeScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "department-replica");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.hits = Counter.builder("departments.replica.reads")
+                .description("Department reads answered by the replica")
+                .tag("result", "hit")
+                .register(meterRegistry);
+        this.fallbacks = Counter.builder("departments.replica.reads")
+                .description("Department reads answered by the replica")
+                .tag("result", "fallback")
+                .register(meterRegistry);
+
+        Gauge.builder("departments.replica.size", departments, Map::size)
+                .description("Departments held by the replica")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts listening to the departments collection.
+     */
+    @PostConstruct
+    public void start() {
+        registration = collectionReference.addSnapshotListener(this::onSnapshot);
+    }
+
+    /**
+     * Stops listening.
+     */
+    @PreDestroy
+    public void stop() {
+        resubscribeScheduler.shutdownNow();
+        if (registration != null) {
+            registration.remove();
+        }
+    }
+
+    /**
+     * Checks whether the initial snapshot has loaded.
+     *
+     * @return true if reads can be answered locally
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Finds a department.
+     *
+     * @param uid the uid
+     * @return the department, or null if the replica cannot answer and the caller must read Firestore
+     */
+    public Department find(String uid) {
+        Entry entry = ready ? departments.get(uid) : null;
+        if (entry == null || isBehind(uid, entry)) {
+            fallbacks.increment();
+            return null;
+        }
+
+        hits.increment();
+        return copy(entry.department());
+    }
+
+    /**
+     * Finds the departments of a service ordered by uid.
+     *
+     * @param serviceUid the service uid
+     * @return the departments, or null if the replica cannot answer and the caller must read Firestore
+     */
+    public List<Department> findByServiceUid(String serviceUid) {
+        if (!ready || isBehind(serviceUid)) {
+            fallbacks.increment();
+            return null;
+        }
+
+        hits.increment();
+        return byServiceUid.getOrDefault(serviceUid, List.of()).stream()
+                .map(DepartmentReplica::copy)
+                .toList();
+    }
+
+    /**
+     * Makes reads of a department and listings of its service fall back to Firestore until the listener
+     * delivered the given version, so a client reads its own write.
+     *
+     * @param uid        the uid
+     * @param updateTime the update time of the write, {@link Timestamp#MAX_VALUE} for a delete
+     */
+    public void expectVersion(String uid, Timestamp updateTime) {
+        Entry entry = departments.get(uid);
+        expectVersion(uid, entry != null ? entry.department().getServiceUid() : null, updateTime);
+    }
+
+    /**
+     * Makes reads of a department and listings of its service fall back to Firestore until the listener
+     * delivered the given version. For a department the replica may not hold yet, such as a created one.
+     *
+     * @param uid        the uid
+     * @param serviceUid the service uid
+     * @param updateTime the update time of the write
+     */
+    public void expectVersion(String uid, String serviceUid, Timestamp updateTime) {
+        expectedVersions.asMap().merge(uid, new ExpectedVersion(updateTime, serviceUid), (current, expected) ->
+                current.updateTime().compareTo(expected.updateTime()) >= 0 ? current : expected);
+    }
+
+    /**
+     * Withdraws an expected version whose write failed, unless a newer write expects a later one.
+     *
+     * @param uid        the uid
+     * @param updateTime the update time passed to {@link #expectVersion(String, Timestamp)}
+     */
+    public void cancelExpectedVersion(String uid, Timestamp updateTime) {
+        expectedVersions.asMap().computeIfPresent(uid, (key, expected) ->
+                expected.updateTime().equals(updateTime) ? null : expected);
+    }
+
+    @Override
+    public Health health() {
+        Health.Builder builder = ready ? Health.up() : Health.outOfService();
+        return builder.withDetail("departments", departments.size()).build();
+    }
+
+    private boolean isBehind(String uid, Entry entry) {
+        ExpectedVersion expected = expectedVersions.getIfPresent(uid);
+        return expected != null && entry.updateTime().compareTo(expected.updateTime()) < 0;
+    }
+
+    // Expected versions are few, only own writes not delivered yet, so they are scanned rather than indexed
+    private boolean isBehind(String serviceUid) {
+        return expectedVersions.asMap().values().stream()
+                .anyMatch(expected -> serviceUid.equals(expected.serviceUid()));
+    }
+
+    // Snapshot callbacks of one listener are delivered sequentially
+    private void onSnapshot(QuerySnapshot snapshot, FirestoreException e) {
+        if (e != null) {
+            LOG.warn("Department replica listener failed, reads fall back to Firestore", e);
+            ready = false;
+            resubscribe();
+            return;
+        }
+
+        Set<String> changedServiceUids = new HashSet<>();
+
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            QueryDocumentSnapshot document = change.getDocument();
+            Entry previous = change.getType() == DocumentChange.Type.REMOVED
+                    ? departments.remove(document.getId())
+                    : departments.put(document.getId(),
+                            new Entry(DepartmentRepository.snapshotToEntity(document), document.getUpdateTime()));
+
+            if (previous != null) {
+                changedServiceUids.add(previous.department().getServiceUid());
+            }
+            if (change.getType() != DocumentChange.Type.REMOVED) {
+                changedServiceUids.add(document.getString("serviceUid"));
+            }
+
+            settleExpectedVersion(document.getId(), change.getType() == DocumentChange.Type.REMOVED
+                    ? Timestamp.MAX_VALUE
+                    : document.getUpdateTime());
+        }
+
+        changedServiceUids.remove(null);
+        reindex(changedServiceUids);
+
+        if (!ready) {
+            ready = true;
+            LOG.info("Department replica loaded {} departments", departments.size());
+        }
+    }
+
+    private void settleExpectedVersion(String uid, Timestamp deliveredVersion) {
+        expectedVersions.asMap().computeIfPresent(uid, (key, expected) ->
+                deliveredVersion.compareTo(expected.updateTime()) >= 0 ? null : expected);
+    }
+
+    private void reindex(Set<String> serviceUids) {
+        Map<String, List<Department>> index = new HashMap<>();
+        serviceUids.forEach(serviceUid -> index.put(serviceUid, new ArrayList<>()));
+
+        departments.values().forEach(entry -> {
+            List<Department> serviceDepartments = index.get(entry.department().getServiceUid());
+            if (serviceDepartments != null) {
+                serviceDepartments.add(entry.department());
+            }
+        });
+
+        index.forEach((serviceUid, serviceDepartments) -> {
+            if (serviceDepartments.isEmpty()) {
+                byServiceUid.remove(serviceUid);
+            } else {
+                serviceDepartments.sort(BY_UID);
+                byServiceUid.put(serviceUid, List.copyOf(serviceDepartments));
+            }
+        });
+    }
+
+    private void resubscribe() {
+        if (registration != null) {
+            registration.remove();
+        }
+
+        // The new listener delivers the full collection again, replacing the current state
+        resubscribeScheduler.schedule(() -> {
+            departments.clear();
+            byServiceUid.clear();
+            registration = collectionReference.addSnapshotListener(this::onSnapshot);
+        }, resubscribeDelay.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    private static Department copy(Department department) {
+        Department copy = new Department();
+        copy.setUid(department.getUid());
+        copy.setName(department.getName());
+        copy.setDescription(department.getDescription());
+        copy.setAddress(department.getAddress());
+        copy.setPhoneNumber(department.getPhoneNumber());
+        copy.setCreationDate(department.getCreationDate());
+        copy.setCategories(department.getCategories() != null ? new ArrayList<>(department.getCategories()) : null);
+        copy.setServiceUid(department.getServiceUid());
+        copy.setVersion(department.getVersion());
+        return copy;
+    }
+
+    private record Entry(Department department, Timestamp updateTime) {}
+
+    private record ExpectedVersion(Timestamp updateTime, String serviceUid) {}
+}
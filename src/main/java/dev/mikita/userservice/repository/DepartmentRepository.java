@@ -1,102 +1,198 @@
 package dev.mikita.userservice.repository;
 
+import com.google.api.core.ApiFuture;
+import com.google.cloud.Timestamp;
 import com.google.cloud.firestore.*;
 import com.google.firebase.auth.FirebaseAuthException;
 import dev.mikita.userservice.entity.Department;
+import dev.mikita.userservice.event.EntityChangedEvent;
 import dev.mikita.userservice.exception.NotFoundException;
+import dev.mikita.userservice.util.EntityVersion;
+import dev.mikita.userservice.util.FirestoreWrites;
+import dev.mikita.userservice.util.PageCursor;
 import dev.mikita.userservice.util.Pageable;
 import dev.mikita.userservice.util.PagedResult;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Repository;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 @Repository
 public class DepartmentRepository {
     private final CollectionReference collectionReference;
+    private final RequestIdentityMap requestIdentityMap;
+    private final ApplicationEventPublisher eventPublisher;
+    private final WritePipeline writePipeline;
+    private final DepartmentReplica departmentReplica;
 
     @Autowired
     public DepartmentRepository(Firestore firestore,
+                                RequestIdentityMap requestIdentityMap,
+                                ApplicationEventPublisher eventPublisher,
+                                WritePipeline writePipeline,
+                                ObjectProvider<DepartmentReplica> departmentReplica,
                                 @Value("${firebase.firestore.collections.department}") String collectionName) {
         this.collectionReference = firestore.collection(collectionName);
+        this.requestIdentityMap = requestIdentityMap;
+        this.eventPublisher = eventPublisher;
+        this.writePipeline = writePipeline;
+        this.departmentReplica = departmentReplica.getIfAvailable();
     }
 
     public PagedResult<Department> findByServiceUid(String uid, Pageable pageable)
             throws ExecutionException, InterruptedException {
+        List<Department> replicated = departmentReplica != null ? departmentReplica.findByServiceUid(uid) : null;
+        if (replicated != null) {
+            return page(replicated, pageable);
+        }
+
         List<Department> departments = new ArrayList<>();
 
         // Total items query
         Query totalItemsQuery = collectionReference.whereEqualTo("serviceUid", uid);
 
-        long totalItems = totalItemsQuery.get().get().size();
-        int totalPages = (int) Math.ceil((double) totalItems / pageable.getSize());
+        ApiFuture<AggregateQuerySnapshot> totalItemsFuture = totalItemsQuery.count().get();
 
         // Items query
-        Query query = collectionReference.whereEqualTo("serviceUid", uid)
-                .offset(pageable.getOffset())
-                .limit(pageable.getSize());
+        Query query = pageable.applyTo(totalItemsQuery, null);
 
         List<QueryDocumentSnapshot> documents = query.get().get().getDocuments();
+        long totalItems = totalItemsFuture.get().getCount();
+        int totalPages = (int) Math.ceil((double) totalItems / pageable.getSize());
+
         documents.forEach(document -> departments.add(snapshotToEntity(document)));
 
-        return new PagedResult<>(departments, pageable.getPage(), totalItems, totalPages);
+        return new PagedResult<>(departments, pageable.getPage(), totalItems, totalPages,
+                pageable.nextCursor(documents, null));
     }
 
     public Department find(String uid) throws FirebaseAuthException, ExecutionException, InterruptedException {
-        DocumentSnapshot snapshot = collectionReference.document(uid).get().get();
+        Department replicated = departmentReplica != null ? departmentReplica.find(uid) : null;
+        if (replicated != null) {
+            return replicated;
+        }
+
+        DocumentSnapshot snapshot = requestIdentityMap.get(collectionReference.document(uid));
         if (!snapshot.exists()) throw new NotFoundException("Department not found");
         return snapshotToEntity(snapshot);
     }
 
-    public void persist(Department department) throws ExecutionException, InterruptedException {
-        collectionReference.document().set(entityToMap(department)).get();
+    public CompletableFuture<Department> findAsync(String uid) {
+        Department replicated = departmentReplica != null ? departmentReplica.find(uid) : null;
+        if (replicated != null) {
+            return CompletableFuture.completedFuture(replicated);
+        }
+
+        return requestIdentityMap.getAsync(collectionReference.document(uid)).thenApply(snapshot -> {
+            if (!snapshot.exists()) throw new NotFoundException("Department not found");
+            return snapshotToEntity(snapshot);
+        });
     }
 
-    public Department update(Department department) throws ExecutionException, InterruptedException {
-        DocumentSnapshot snapshot = collectionReference.document(department.getUid()).get().get();
+    public void persist(Department department) throws ExecutionException, InterruptedException {
+        DocumentReference documentReference = collectionReference.document();
+        WriteResult writeResult = writePipeline.submit("department.persist",
+                () -> documentReference.set(entityToMap(department))).get();
+        if (departmentReplica != null) {
+            departmentReplica.expectVersion(documentReference.getId(), department.getServiceUid(),
+                    writeResult.getUpdateTime());
+        }
+    }
 
+    /**
+     * Update department. Only the non-null fields of the patch are written, without reading the department first.
+     *
+     * @param department   the patch, identified by its uid
+     * @param precondition the precondition on the document update time
+     * @throws ExecutionException   the execution exception
+     * @throws InterruptedException the interrupted exception
+     */
+    public void update(Department department, Precondition precondition)
+            throws ExecutionException, InterruptedException {
         Map<String, Object> departmentData = new HashMap<>();
 
-        if (!Objects.equals(department.getName(), snapshot.getString("name"))) {
+        if (department.getName() != null) {
             departmentData.put("name", department.getName());
         }
 
-        if (!Objects.equals(department.getDescription(), snapshot.getString("description"))) {
+        if (department.getDescription() != null) {
             departmentData.put("description", department.getDescription());
         }
 
-        if (!Objects.equals(department.getAddress(), snapshot.getString("address"))) {
+        if (department.getAddress() != null) {
             departmentData.put("address", department.getAddress());
         }
 
-        if (!Objects.equals(department.getPhoneNumber(), snapshot.getString("phoneNumber"))) {
+        if (department.getPhoneNumber() != null) {
             departmentData.put("phoneNumber", department.getPhoneNumber());
         }
 
-        if (!Objects.equals(department.getCategories(), snapshot.get("categories"))) {
+        if (department.getCategories() != null) {
             departmentData.put("categories", department.getCategories());
         }
 
-        // Update Firestore Document
-        if (!departmentData.isEmpty()) {
-            collectionReference.document(department.getUid()).update(departmentData);
+        // Update Firestore Document, waiting for the commit so caches are not reloaded with the old state
+        DocumentReference documentReference = collectionReference.document(department.getUid());
+        WriteResult writeResult = FirestoreWrites.update(documentReference, departmentData, precondition);
+        requestIdentityMap.evict(documentReference);
+        if (departmentReplica != null) {
+            departmentReplica.expectVersion(department.getUid(), writeResult.getUpdateTime());
         }
-
-        return department;
+        eventPublisher.publishEvent(new EntityChangedEvent(Department.class, department.getUid(),
+                EntityVersion.of(writeResult.getUpdateTime())));
     }
 
     public void delete(String uid) throws FirebaseAuthException {
-        collectionReference.document(uid).delete();
+        DocumentReference documentReference = collectionReference.document(uid);
+        requestIdentityMap.evict(documentReference);
+        if (departmentReplica != null) {
+            departmentReplica.expectVersion(uid, Timestamp.MAX_VALUE);
+        }
+        writePipeline.submit("department.delete", documentReference::delete).whenComplete((result, e) -> {
+            if (e != null && departmentReplica != null) {
+                departmentReplica.cancelExpectedVersion(uid, Timestamp.MAX_VALUE);
+            }
+            eventPublisher.publishEvent(new EntityChangedEvent(Department.class, uid));
+        });
     }
 
     public boolean exists(String uid) throws ExecutionException, InterruptedException {
-        return collectionReference.document(uid).get().get().exists();
+        if (departmentReplica != null && departmentReplica.find(uid) != null) {
+            return true;
+        }
+
+        return requestIdentityMap.get(collectionReference.document(uid)).exists();
+    }
+
+    // Pages the departments ordered by uid the same way as a Firestore query ordered by document id
+    private static PagedResult<Department> page(List<Department> departments, Pageable pageable) {
+        int from;
+        if (pageable.getCursor() != null) {
+            String after = pageable.getCursor().documentId();
+            from = 0;
+            while (from < departments.size() && departments.get(from).getUid().compareTo(after) <= 0) {
+                from++;
+            }
+        } else {
+            from = Math.min(pageable.getOffset(), departments.size());
+        }
+
+        List<Department> items = departments.subList(from, Math.min(from + pageable.getSize(), departments.size()));
+        int totalPages = (int) Math.ceil((double) departments.size() / pageable.getSize());
+        String nextCursor = items.size() < pageable.getSize()
+                ? null
+                : new PageCursor(null, items.get(items.size() - 1).getUid()).encode();
+
+        return new PagedResult<>(List.copyOf(items), pageable.getPage(), departments.size(), totalPages, nextCursor);
     }
 
-    private Department snapshotToEntity(DocumentSnapshot snapshot) {
+    static Department snapshotToEntity(DocumentSnapshot snapshot) {
         Department department = new Department();
 
         department.setUid(snapshot.getId());
@@ -109,6 +205,7 @@ public class DepartmentRepository {
                 ZoneId.systemDefault()));
         department.setServiceUid(snapshot.getString("serviceUid"));
         department.setCategories((List<Long>) snapshot.get("categories"));
+        department.setVersion(EntityVersion.of(snapshot));
 
         return department;
     }
@@ -1,5 +1,6 @@
 package dev.mikita.userservice.repository;
 
+import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.*;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
@@ -7,92 +8,135 @@ import com.google.firebase.auth.UserRecord;
 import dev.mikita.userservice.entity.Employee;
 import dev.mikita.userservice.entity.UserRole;
 import dev.mikita.userservice.entity.UserStatus;
+import dev.mikita.userservice.event.EntityChangedEvent;
 import dev.mikita.userservice.exception.NotFoundException;
+import dev.mikita.userservice.util.ClaimsUpdateTracker;
+import dev.mikita.userservice.util.EntityVersion;
+import dev.mikita.userservice.util.FirestoreWrites;
 import dev.mikita.userservice.util.Pageable;
 import dev.mikita.userservice.util.PagedResult;
+import dev.mikita.userservice.util.PhotoVariants;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Repository;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 @Repository
 public class EmployeeRepository {
     private final CollectionReference collectionReference;
+    private final RequestIdentityMap requestIdentityMap;
     private final FirebaseAuth firebaseAuth;
+    private final UserRecordProvider userRecordProvider;
+    private final ApplicationEventPublisher eventPublisher;
+    private final WritePipeline writePipeline;
+    private final UserCounters userCounters;
+    private final RegistrationCoordinator registrationCoordinator;
 
     public EmployeeRepository(Firestore firestore,
                               FirebaseAuth firebaseAuth,
+                              UserRecordProvider userRecordProvider,
+                              RequestIdentityMap requestIdentityMap,
+                              ApplicationEventPublisher eventPublisher,
+                              WritePipeline writePipeline,
+                              UserCounters userCounters,
+                              RegistrationCoordinator registrationCoordinator,
                               @Value("${firebase.firestore.collections.employee}") String collectionName) {
         this.firebaseAuth = firebaseAuth;
+        this.userRecordProvider = userRecordProvider;
         this.collectionReference = firestore.collection(collectionName);
+        this.requestIdentityMap = requestIdentityMap;
+        this.eventPublisher = eventPublisher;
+        this.writePipeline = writePipeline;
+        this.userCounters = userCounters;
+        this.registrationCoordinator = registrationCoordinator;
     }
 
     public Employee find(String uid) throws FirebaseAuthException, ExecutionException, InterruptedException {
-        UserRecord userRecord = firebaseAuth.getUser(uid);
+        UserRecord userRecord = userRecordProvider.get(uid, "employee");
 
         if (userRecord.getCustomClaims().isEmpty()
                 || !userRecord.getCustomClaims().get("role").toString().equals("EMPLOYEE")) {
             throw NotFoundException.create("Employee", uid);
         }
 
-        return makeEmployee(userRecord, collectionReference.document(uid).get().get());
+        return makeEmployee(userRecord, requestIdentityMap.get(collectionReference.document(uid)));
     }
 
-    public List<Employee> findAllByDepartmentUid(String uid) throws ExecutionException, InterruptedException {
-        List<Employee> employees = new ArrayList<>();
-        collectionReference.whereEqualTo("departmentUid", uid).get().get().forEach(documentSnapshot -> {
-            try {
-                UserRecord userRecord = firebaseAuth.getUser(documentSnapshot.getId());
-                employees.add(makeEmployee(userRecord, documentSnapshot));
-            } catch (FirebaseAuthException e) {
-                throw new RuntimeException(e);
+    /**
+     * Gets the document of an employee without the Auth record.
+     *
+     * @param uid the uid
+     * @return the document future, of a missing document if there is no such employee
+     */
+    public CompletableFuture<DocumentSnapshot> findDocumentAsync(String uid) {
+        return requestIdentityMap.getAsync(collectionReference.document(uid));
+    }
+
+    public CompletableFuture<Employee> findAsync(String uid) {
+        CompletableFuture<UserRecord> userRecordFuture = userRecordProvider.getAsync(uid, "employee");
+        CompletableFuture<DocumentSnapshot> snapshotFuture =
+                requestIdentityMap.getAsync(collectionReference.document(uid));
+
+        return userRecordFuture.thenCombine(snapshotFuture, (userRecord, snapshot) -> {
+            if (userRecord.getCustomClaims().isEmpty()
+                    || !userRecord.getCustomClaims().get("role").toString().equals(UserRole.EMPLOYEE.toString())) {
+                throw NotFoundException.create("Employee", uid);
             }
+
+            return makeEmployee(userRecord, snapshot);
         });
-        return employees;
     }
 
-    public PagedResult<Employee> findAllByServiceUid(String uid, Pageable pageable) {
+    public List<Employee> findAllByDepartmentUid(String uid) throws ExecutionException, InterruptedException {
         List<Employee> employees = new ArrayList<>();
+        List<QueryDocumentSnapshot> documents = collectionReference
+                .whereEqualTo(UserProjection.ROLE_FIELD, UserRole.EMPLOYEE.toString())
+                .whereEqualTo("departmentUid", uid)
+                .get().get().getDocuments();
 
-        try {
-            // Total items query
-            Query totalItemsQuery = collectionReference.whereEqualTo("serviceUid", uid);
+        for (QueryDocumentSnapshot snapshot : documents) {
+            employees.add(makeEmployee(snapshot));
+        }
+        return employees;
+    }
 
-            long totalItems = totalItemsQuery.get().get().size();
-            int totalPages = (int) Math.ceil((double) totalItems / pageable.getSize());
+    public PagedResult<Employee> findAllByServiceUid(String uid, Pageable pageable)
+            throws ExecutionException, InterruptedException {
+        List<Employee> employees = new ArrayList<>();
 
-            // Items query
-            Query query = collectionReference.whereEqualTo("serviceUid", uid)
-                    .offset(pageable.getOffset())
-                    .limit(pageable.getSize());
+        // Total items query, the role filter replaces checking every row against its Auth record
+        Query totalItemsQuery = collectionReference
+                .whereEqualTo(UserProjection.ROLE_FIELD, UserRole.EMPLOYEE.toString())
+                .whereEqualTo("serviceUid", uid);
 
-            List<QueryDocumentSnapshot> documents = query.get().get().getDocuments();
-            for (QueryDocumentSnapshot snapshot : documents) {
-                UserRecord userRecord = firebaseAuth.getUser(snapshot.getId());
+        ApiFuture<AggregateQuerySnapshot> totalItemsFuture = totalItemsQuery.count().get();
 
-                if (userRecord.getCustomClaims().isEmpty() ||
-                        !userRecord.getCustomClaims().get("role").toString().equals(UserRole.EMPLOYEE.toString())) {
-                    continue;
-                }
+        // Items query
+        Query query = pageable.applyTo(totalItemsQuery, null);
 
-                employees.add(makeEmployee(userRecord, snapshot));
-            }
+        List<QueryDocumentSnapshot> documents = query.get().get().getDocuments();
+        long totalItems = totalItemsFuture.get().getCount();
+        int totalPages = (int) Math.ceil((double) totalItems / pageable.getSize());
 
-            return new PagedResult<>(employees, pageable.getPage(), totalItems, totalPages);
-        } catch (Exception e) {
-            return new PagedResult<>(employees, pageable.getPage(), 0, 0);
+        for (QueryDocumentSnapshot snapshot : documents) {
+            employees.add(makeEmployee(snapshot));
         }
+
+        return new PagedResult<>(employees, pageable.getPage(), totalItems, totalPages,
+                pageable.nextCursor(documents, null));
     }
 
     public void persist(Employee employee) throws FirebaseAuthException {
-        UserRecord userRecord = firebaseAuth.createUser(new UserRecord.CreateRequest()
+        UserRecord.CreateRequest createRequest = new UserRecord.CreateRequest()
                 .setEmail(employee.getEmail())
                 .setPhoneNumber(employee.getPhoneNumber())
                 .setPassword(employee.getPassword())
                 .setDisplayName(employee.getFirstName() + " " + employee.getLastName())
-                .setEmailVerified(true));
+                .setEmailVerified(true);
 
         // Set Custom Claims
         Map<String, Object> customClaims = new HashMap<>();
@@ -101,79 +145,129 @@ public class EmployeeRepository {
         customClaims.put("serviceUid", employee.getServiceUid());
         customClaims.put("departmentUid", employee.getDepartmentUid());
 
-        firebaseAuth.setCustomUserClaims(userRecord.getUid(), customClaims);
-
         // Set Firestore Document
         Map<String, Object> data = new HashMap<>();
         data.put("firstName", employee.getFirstName());
         data.put("lastName", employee.getLastName());
         data.put("serviceUid", employee.getServiceUid());
         data.put("departmentUid", employee.getDepartmentUid());
-        data.put("creationDate", new Date(userRecord.getUserMetadata().getCreationTimestamp()));
+        data.putAll(UserProjection.fields(employee.getEmail(), employee.getPhoneNumber(), UserRole.EMPLOYEE));
+        data.put("status", UserStatus.ACTIVE.toString());
 
-        collectionReference.document(userRecord.getUid()).set(data);
+        // Account, claims and document are created together or not at all
+        registrationCoordinator.register(UserRole.EMPLOYEE, collectionReference, createRequest, customClaims, data);
     }
 
-    public Employee update(Employee employee) throws FirebaseAuthException, ExecutionException, InterruptedException {
-        UserRecord userRecord = firebaseAuth.getUser(employee.getUid());
+    /**
+     * Update employee. Only the non-null fields of the patch are written. Auth is updated first, so a rejected
+     * Auth change leaves the document untouched, then the document, reading it in the same transaction only
+     * when the status changes.
+     *
+     * @param employee     the patch, identified by its uid
+     * @param precondition the precondition on the document update time
+     * @throws FirebaseAuthException the firebase auth exception
+     * @throws ExecutionException    the execution exception
+     * @throws InterruptedException  the interrupted exception
+     */
+    public void update(Employee employee, Precondition precondition)
+            throws FirebaseAuthException, ExecutionException, InterruptedException {
+        String uid = employee.getUid();
+        DocumentReference documentReference = collectionReference.document(uid);
+
+        // Auth is changed before the document: its errors, such as a taken email, must leave the document and its
+        // version untouched. The precondition is checked up front so a rejected one leaves Auth untouched as well,
+        // on the read that also gives the stored half of a name patched alone for the display name
+        boolean partialName = (employee.getFirstName() == null) != (employee.getLastName() == null);
+        DocumentSnapshot previous = partialName || FirestoreWrites.hasUpdateTime(precondition)
+                ? FirestoreWrites.read(documentReference, precondition)
+                : null;
 
-        // Update User Record
-        UserRecord.UpdateRequest request = new UserRecord.UpdateRequest(userRecord.getUid());
+        Map<String, Object> userData = new HashMap<>();
 
-        if (!Objects.equals(employee.getFirstName() + " " + employee.getLastName(), userRecord.getDisplayName())) {
-            request.setDisplayName(employee.getFirstName() + " " + employee.getLastName());
+        if (employee.getFirstName() != null) {
+            userData.put("firstName", employee.getFirstName());
         }
 
-        if (!Objects.equals(employee.getEmail(), userRecord.getEmail())) {
-            request.setEmail(employee.getEmail());
-            request.setEmailVerified(true);
+        if (employee.getLastName() != null) {
+            userData.put("lastName", employee.getLastName());
         }
 
-        if (employee.getPassword() != null) {
-            request.setPassword(employee.getPassword());
+        if (employee.getDepartmentUid() != null) {
+            userData.put("departmentUid", employee.getDepartmentUid());
         }
 
-        if (!Objects.equals(employee.getPhoneNumber(), userRecord.getPhoneNumber())) {
-            request.setPhoneNumber(employee.getPhoneNumber());
+        // Claims hold the status, the copy serves listings
+        if (employee.getStatus() != null) {
+            userData.put(UserProjection.STATUS_FIELD, employee.getStatus().toString());
         }
 
-        // Update Firestore Document
-        DocumentSnapshot snapshot = collectionReference.document(userRecord.getUid()).get().get();
-        Map<String, Object> userData = new HashMap<>();
+        // Update User Record
+        UserRecord.UpdateRequest request = new UserRecord.UpdateRequest(uid);
+        boolean userRecordChanged = false;
+
+        if (employee.getFirstName() != null || employee.getLastName() != null) {
+            String firstName = employee.getFirstName() != null ? employee.getFirstName() : previous.getString("firstName");
+            String lastName = employee.getLastName() != null ? employee.getLastName() : previous.getString("lastName");
+            request.setDisplayName(firstName + " " + lastName);
+            userRecordChanged = true;
+        }
 
-        if (!Objects.equals(employee.getFirstName(), snapshot.getString("firstName"))) {
-            userData.put("firstName", employee.getFirstName());
+        if (employee.getPassword() != null) {
+            request.setPassword(employee.getPassword());
+            userRecordChanged = true;
         }
 
-        if (!Objects.equals(employee.getLastName(), snapshot.getString("lastName"))) {
-            userData.put("lastName", employee.getLastName());
+        if (employee.getPhoneNumber() != null) {
+            request.setPhoneNumber(employee.getPhoneNumber());
+            userData.put(UserProjection.PHONE_NUMBER_FIELD, employee.getPhoneNumber());
+            userRecordChanged = true;
         }
 
-        if (!Objects.equals(employee.getDepartmentUid(), snapshot.getString("departmentUid"))) {
-            userData.put("departmentUid", employee.getDepartmentUid());
+        if (employee.getEmail() != null) {
+            request.setEmail(employee.getEmail());
+            userData.put(UserProjection.EMAIL_FIELD, employee.getEmail());
+            request.setEmailVerified(true);
+            userRecordChanged = true;
         }
 
-        // Update Custom Claims
-        Map<String, Object> customClaims = new HashMap<>(userRecord.getCustomClaims());
+        // Update Custom Claims, rebuilt from a fresh record so a concurrent change is not undone
+        if (employee.getStatus() != null || employee.getDepartmentUid() != null) {
+            UserRecord userRecord = firebaseAuth.getUser(uid);
+            Map<String, Object> customClaims = new HashMap<>(userRecord.getCustomClaims());
 
-        if (!Objects.equals(employee.getStatus().toString(), customClaims.get("status").toString())) {
-            customClaims.put("status", employee.getStatus().toString());
-        }
+            if (employee.getStatus() != null) {
+                customClaims.put("status", employee.getStatus().toString());
+            }
+
+            if (employee.getDepartmentUid() != null) {
+                customClaims.put("departmentUid", employee.getDepartmentUid());
+            }
 
-        if (!Objects.equals(employee.getDepartmentUid(), customClaims.get("departmentUid").toString())) {
-            customClaims.put("departmentUid", employee.getDepartmentUid());
+            if (!customClaims.equals(userRecord.getCustomClaims())) {
+                request.setCustomClaims(customClaims);
+                userRecordChanged = true;
+                // Written with the document, after Auth accepted the claims
+                userData.put(ClaimsUpdateTracker.FIELD, FieldValue.serverTimestamp());
+            }
         }
 
-        // Update User Record
-        request.setCustomClaims(customClaims);
-        firebaseAuth.updateUser(request);
+        if (userRecordChanged) {
+            firebaseAuth.updateUser(request);
+            userRecordProvider.invalidate(uid);
+        }
 
-        // Update Firestore Document
-        if (!userData.isEmpty()) {
-            collectionReference.document(userRecord.getUid()).update(userData);
+        // The projected fields go with the document fields, written after Auth accepted them. A write rejected after
+        // a concurrent change leaves Auth ahead of the document until the client retries with the new version
+        // A status change also moves the user between counters, which needs the previous status
+        String version = null;
+        if (employee.getStatus() != null) {
+            userCounters.update(documentReference, userData, precondition, UserRole.EMPLOYEE);
+        } else {
+            version = EntityVersion.of(FirestoreWrites.update(documentReference, userData, precondition).getUpdateTime());
         }
+        requestIdentityMap.evict(documentReference);
 
-        return employee;
+        eventPublisher.publishEvent(new EntityChangedEvent(Employee.class, uid, version));
     }
 
     /**
@@ -184,7 +278,12 @@ public class EmployeeRepository {
      */
     public void delete(String uid) throws FirebaseAuthException {
         firebaseAuth.deleteUser(uid);
-        collectionReference.document(uid).delete();
+        userRecordProvider.invalidate(uid);
+        DocumentReference documentReference = collectionReference.document(uid);
+        requestIdentityMap.evict(documentReference);
+        writePipeline.submit("employee.delete", () -> userCounters.delete(documentReference, UserRole.EMPLOYEE))
+                .whenComplete((result, e) ->
+                        eventPublisher.publishEvent(new EntityChangedEvent(Employee.class, uid)));
     }
 
     private Employee makeEmployee(UserRecord userRecord, DocumentSnapshot snapshot) {
@@ -194,6 +293,8 @@ public class EmployeeRepository {
         employee.setEmail(userRecord.getEmail());
         employee.setPhoneNumber(userRecord.getPhoneNumber());
         employee.setPhoto(userRecord.getPhotoUrl());
+        employee.setPhotoVariants(PhotoVariants.of(snapshot, userRecord.getPhotoUrl()));
+        employee.setVersion(EntityVersion.of(snapshot, userRecord));
         employee.setStatus(UserStatus.valueOf(userRecord.getCustomClaims().get("status").toString()));
         employee.setRole(UserRole.EMPLOYEE);
         employee.setCreationDate(LocalDateTime.ofInstant(
@@ -206,4 +307,17 @@ public class EmployeeRepository {
 
         return employee;
     }
+
+    private static Employee makeEmployee(DocumentSnapshot snapshot) {
+        Employee employee = new Employee();
+
+        UserProjection.read(employee, snapshot);
+        employee.setRole(UserRole.EMPLOYEE);
+        employee.setFirstName(snapshot.getString("firstName"));
+        employee.setLastName(snapshot.getString("lastName"));
+        employee.setDepartmentUid(snapshot.getString("departmentUid"));
+        employee.setServiceUid(snapshot.getString("serviceUid"));
+
+        return employee;
+    }
 }
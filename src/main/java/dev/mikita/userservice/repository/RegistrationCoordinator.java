@@ -0,0 +1,178 @@
+package dev.mikita.userservice.repository;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.firebase.auth.AuthErrorCode;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.UserRecord.CreateRequest;
+import dev.mikita.userservice.entity.UserRole;
+import dev.mikita.userservice.entity.UserStatus;
+import dev.mikita.userservice.util.FutureUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Registers a user across Firebase Auth and Firestore as a saga. The uid is chosen up front, so the Auth
+ * account and the Firestore batch (user document and counter) are created in parallel, followed by the custom
+ * claims: two sequential round trips. The compensations of both steps are recorded before they are issued,
+ * since a step whose response was lost may have been applied: a timed out account creation, or a retried document
+ * create failing because the first attempt landed. Both compensations are safe to run when their step did not
+ * apply. If any step fails, the compensations run in reverse order and the registration leaves neither an Auth
+ * account nor a user document behind.
+ */
+@Component
+public class RegistrationCoordinator {
+    private static final Logger LOG = LoggerFactory.getLogger(RegistrationCoordinator.class);
+
+    private final FirebaseAuth firebaseAuth;
+    private final WritePipeline writePipeline;
+    private final UserCounters userCounters;
+    private final UserRecordProvider userRecordProvider;
+    private final RequestIdentityMap requestIdentityMap;
+    private final MeterRegistry meterRegistry;
+
+    /**
+     * Instantiates a new Registration coordinator.
+     *
+     * @param firebaseAuth       the firebase auth
+     * @param writePipeline      the write pipeline
+     * @param userCounters       the user counters
+     * @param userRecordProvider the user record provider
+     * @param requestIdentityMap the request identity map
+     * @param meterRegistry      the meter registry
+     */
+    @Autowired
+    public RegistrationCoordinator(FirebaseAuth firebaseAuth,
+                                   WritePipeline writePipeline,
+                                   UserCounters userCounters,
+                                   UserRecordProvider userRecordProvider,
+                                   RequestIdentityMap requestIdentityMap,
+                                   MeterRegistry meterRegistry) {
+        this.firebaseAuth = firebaseAuth;
+        this.writePipeline = writePipeline;
+        this.userCounters = userCounters;
+        this.userRecordProvider = userRecordProvider;
+        this.requestIdentityMap = requestIdentityMap;
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Registers a user.
+     *
+     * @param role                the role
+     * @param collectionReference the collection of the user document
+     * @param createRequest       the Auth account to create, its uid is assigned here
+     * @param customClaims        the custom claims, including the initial status
+     * @param data                the user document
+     * @return the uid
+     * @throws FirebaseAuthException if an Auth step failed, after compensation
+     */
+    public String register(UserRole role, CollectionReference collectionReference, CreateRequest createRequest,
+                           Map<String, Object> customClaims, Map<String, Object> data) throws FirebaseAuthException {
+        DocumentReference documentReference = collectionReference.document();
+        String uid = documentReference.getId();
+        UserStatus status = UserStatus.valueOf(customClaims.get("status").toString());
+        Deque<Compensation> compensations = new ArrayDeque<>();
+        compensations.push(new Compensation("document", () -> userCounters.delete(documentReference, role).get()));
+        compensations.push(new Compensation("account", () -> deleteAccount(uid)));
+
+        // Round trip 1: the Firestore batch and the Auth account do not depend on each other. The batch is
+        // submitted first, it is the step that may be rejected before anything was written
+        CompletableFuture<?> document = writePipeline.submit(role.toString().toLowerCase() + ".persist",
+                () -> userCounters.create(documentReference, data, role, status));
+        CompletableFuture<?> account;
+        try {
+            account = FutureUtil.toCompletableFuture(firebaseAuth.createUserAsync(createRequest.setUid(uid)));
+        } catch (RuntimeException e) {
+            // An invalid request is rejected before it is sent, the document is already on its way
+            account = CompletableFuture.failedFuture(e);
+        }
+
+        // Round trip 2: claims can only be set on an existing account
+        CompletableFuture<Void> claims = account.thenCompose(ignored ->
+                FutureUtil.toCompletableFuture(firebaseAuth.setCustomUserClaimsAsync(uid, customClaims)));
+
+        try {
+            // Completes once every step settled, so no compensation races the step it undoes
+            CompletableFuture.allOf(claims, document).join();
+        } catch (CompletionException e) {
+            compensate(role, uid, compensations);
+            throw rethrow(e);
+        } finally {
+            userRecordProvider.invalidate(uid);
+            requestIdentityMap.evict(documentReference);
+        }
+
+        return uid;
+    }
+
+    private void deleteAccount(String uid) throws FirebaseAuthException {
+        try {
+            firebaseAuth.deleteUser(uid);
+        } catch (FirebaseAuthException e) {
+            // The account was never created
+            if (e.getAuthErrorCode() != AuthErrorCode.USER_NOT_FOUND) {
+                throw e;
+            }
+        } finally {
+            userRecordProvider.invalidate(uid);
+        }
+    }
+
+    // Pushed in the order the steps are issued, so iterating undoes the last step first
+    private void compensate(UserRole role, String uid, Deque<Compensation> compensations) {
+        for (Compensation compensation : compensations) {
+            try {
+                compensation.action().run();
+                count(compensation.step(), "success");
+            } catch (Exception e) {
+                count(compensation.step(), "failure");
+                LOG.error("Failed to undo the {} of the partial registration of {} {}, remove it manually",
+                        compensation.step(), role, uid, e);
+            }
+        }
+    }
+
+    private void count(String step, String outcome) {
+        Counter.builder("registration.compensations")
+                .description("Steps of failed registrations undone by outcome")
+                .tag("step", step)
+                .tag("outcome", outcome)
+                .register(meterRegistry)
+                .increment();
+    }
+
+    private static FirebaseAuthException rethrow(Throwable e) {
+        Throwable cause = e;
+        while ((cause instanceof CompletionException || cause instanceof ExecutionException)
+                && cause.getCause() != null) {
+            cause = cause.getCause();
+        }
+
+        if (cause instanceof FirebaseAuthException firebaseAuthException) {
+            return firebaseAuthException;
+        }
+        if (cause instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        throw new RuntimeException("Registration failed", cause);
+    }
+
+    private record Compensation(String step, Action action) {}
+
+    @FunctionalInterface
+    private interface Action {
+        void run() throws Exception;
+    }
+}
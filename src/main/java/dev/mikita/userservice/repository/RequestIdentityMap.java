@@ -0,0 +1,204 @@
+package dev.mikita.userservice.repository;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.firebase.auth.UserRecord;
+import dev.mikita.userservice.util.FutureUtil;
+import dev.mikita.userservice.util.SingleFlight;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.RequestContextHolder;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Request-scoped unit of work that memoizes document snapshots by path and user records by uid,
+ * so each is read remotely at most once per HTTP request. Writes evict the affected entry.
+ * Outside a request (background jobs, async continuations) every call goes to the remote store.
+ * Concurrent reads of a document across requests are coalesced into one in-flight read.
+ */
+@Component
+public class RequestIdentityMap {
+    private static final String SCOPE_ATTRIBUTE = RequestIdentityMap.class.getName() + ".scope";
+
+    private final SingleFlight<String, DocumentSnapshot> inFlightReads;
+
+    /**
+     * Instantiates a new Request identity map.
+     *
+     * @param meterRegistry the meter registry
+     */
+    @Autowired
+    public RequestIdentityMap(MeterRegistry meterRegistry) {
+        this.inFlightReads = new SingleFlight<>("documents", meterRegistry);
+    }
+
+    /**
+     * Reads a document.
+     *
+     * @param reference the document reference
+     * @return the document snapshot
+     * @throws ExecutionException   the execution exception
+     * @throws InterruptedException the interrupted exception
+     */
+    public DocumentSnapshot get(DocumentReference reference) throws ExecutionException, InterruptedException {
+        return getAsync(reference).get();
+    }
+
+    /**
+     * Reads a document without blocking.
+     *
+     * @param reference the document reference
+     * @return the document snapshot future
+     */
+    public CompletableFuture<DocumentSnapshot> getAsync(DocumentReference reference) {
+        Scope scope = currentScope();
+        if (scope == null) {
+            return read(reference);
+        }
+
+        return memoize(scope.documents, reference.getPath(), () -> {
+            scope.documentReads.incrementAndGet();
+            return read(reference);
+        });
+    }
+
+    /**
+     * Evicts a document after it was written.
+     *
+     * @param reference the document reference
+     */
+    public void evict(DocumentReference reference) {
+        inFlightReads.forget(reference.getPath());
+
+        Scope scope = currentScope();
+        if (scope != null) {
+            scope.documents.remove(reference.getPath());
+        }
+    }
+
+    /**
+     * Gets a user record, loading it at most once per request.
+     *
+     * @param uid    the uid
+     * @param loader the loader, called when the record was not read in this request
+     * @return the user record future
+     */
+    public CompletableFuture<UserRecord> getUserRecord(String uid, Supplier<CompletableFuture<UserRecord>> loader) {
+        Scope scope = currentScope();
+        if (scope == null) {
+            return loader.get();
+        }
+
+        return memoize(scope.userRecords, uid, loader);
+    }
+
+    /**
+     * Evicts a user record after the user was written.
+     *
+     * @param uid the uid
+     */
+    public void evictUserRecord(String uid) {
+        Scope scope = currentScope();
+        if (scope != null) {
+            scope.userRecords.remove(uid);
+        }
+    }
+
+    /**
+     * Counts a remote Auth lookup issued by the current request.
+     */
+    public void recordAuthRead() {
+        Scope scope = currentScope();
+        if (scope != null) {
+            scope.authReads.incrementAndGet();
+        }
+    }
+
+    /**
+     * Gets the remote reads issued so far by a request.
+     *
+     * @param request the request
+     * @return the remote reads
+     */
+    public static RemoteReads remoteReads(HttpServletRequest request) {
+        Object scope = request.getAttribute(SCOPE_ATTRIBUTE);
+        if (!(scope instanceof Scope requestScope)) {
+            return new RemoteReads(0, 0);
+        }
+        return new RemoteReads(requestScope.documentReads.get(), requestScope.authReads.get());
+    }
+
+    // Concurrent requests reading the same document share one remote read
+    private CompletableFuture<DocumentSnapshot> read(DocumentReference reference) {
+        return inFlightReads.execute(reference.getPath(), () -> FutureUtil.toCompletableFuture(reference.get()));
+    }
+
+    private static <T> CompletableFuture<T> memoize(Map<String, CompletableFuture<T>> memo, String key,
+                                                    Supplier<CompletableFuture<T>> loader) {
+        CompletableFuture<T> future = memo.get(key);
+        if (future != null) {
+            return future;
+        }
+
+        future = loader.get();
+        CompletableFuture<T> existing = memo.putIfAbsent(key, future);
+        if (existing != null) {
+            return existing;
+        }
+
+        // Do not pin a failed read for the rest of the request
+        CompletableFuture<T> loaded = future;
+        loaded.whenComplete((result, e) -> {
+            if (e != null) {
+                memo.remove(key, loaded);
+            }
+        });
+        return loaded;
+    }
+
+    private static Scope currentScope() {
+        RequestAttributes attributes = RequestContextHolder.getRequestAttributes();
+        if (attributes == null) {
+            return null;
+        }
+
+        Object scope = attributes.getAttribute(SCOPE_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+        if (scope == null) {
+            scope = new Scope();
+            attributes.setAttribute(SCOPE_ATTRIBUTE, scope, RequestAttributes.SCOPE_REQUEST);
+        }
+        return (Scope) scope;
+    }
+
+    /**
+     * Remote reads issued by one request.
+     *
+     * @param documentReads the firestore document reads
+     * @param authReads     the firebase auth lookups
+     */
+    public record RemoteReads(int documentReads, int authReads) {
+        /**
+         * Total remote reads.
+         *
+         * @return the total
+         */
+        public int total() {
+            return documentReads + authReads;
+        }
+    }
+
+    private static class Scope {
+        private final Map<String, CompletableFuture<DocumentSnapshot>> documents = new ConcurrentHashMap<>();
+        private final Map<String, CompletableFuture<UserRecord>> userRecords = new ConcurrentHashMap<>();
+        private final AtomicInteger documentReads = new AtomicInteger();
+        private final AtomicInteger authReads = new AtomicInteger();
+    }
+}
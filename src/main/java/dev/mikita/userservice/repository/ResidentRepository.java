@@ -1,5 +1,6 @@
 package dev.mikita.userservice.repository;
 
+import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.*;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
@@ -9,15 +10,21 @@ import com.google.firebase.auth.UserRecord.UpdateRequest;
 import dev.mikita.userservice.entity.Resident;
 import dev.mikita.userservice.entity.UserRole;
 import dev.mikita.userservice.entity.UserStatus;
+import dev.mikita.userservice.event.EntityChangedEvent;
 import dev.mikita.userservice.exception.NotFoundException;
+import dev.mikita.userservice.util.EntityVersion;
+import dev.mikita.userservice.util.FirestoreWrites;
 import dev.mikita.userservice.util.Pageable;
 import dev.mikita.userservice.util.PagedResult;
+import dev.mikita.userservice.util.PhotoVariants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Repository;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
@@ -27,21 +34,45 @@ import java.util.stream.Collectors;
 @Repository
 public class ResidentRepository {
     private final CollectionReference collectionReference;
+    private final RequestIdentityMap requestIdentityMap;
     private final FirebaseAuth firebaseAuth;
+    private final UserRecordProvider userRecordProvider;
+    private final ApplicationEventPublisher eventPublisher;
+    private final WritePipeline writePipeline;
+    private final UserCounters userCounters;
+    private final RegistrationCoordinator registrationCoordinator;
 
     /**
      * Instantiates a new Resident repository.
      *
-     * @param firestore      the firestore
-     * @param firebaseAuth   the firebase auth
-     * @param collectionName the collection name
+     * @param firestore               the firestore
+     * @param firebaseAuth            the firebase auth
+     * @param userRecordProvider      the user record provider
+     * @param requestIdentityMap      the request identity map
+     * @param eventPublisher          the event publisher
+     * @param writePipeline           the write pipeline
+     * @param userCounters            the user counters
+     * @param registrationCoordinator the registration coordinator
+     * @param collectionName          the collection name
      */
     @Autowired
     public ResidentRepository(Firestore firestore,
                               FirebaseAuth firebaseAuth,
+                              UserRecordProvider userRecordProvider,
+                              RequestIdentityMap requestIdentityMap,
+                              ApplicationEventPublisher eventPublisher,
+                              WritePipeline writePipeline,
+                              UserCounters userCounters,
+                              RegistrationCoordinator registrationCoordinator,
                               @Value("${firebase.firestore.collections.resident}") String collectionName) {
         this.firebaseAuth = firebaseAuth;
+        this.userRecordProvider = userRecordProvider;
         this.collectionReference = firestore.collection(collectionName);
+        this.requestIdentityMap = requestIdentityMap;
+        this.eventPublisher = eventPublisher;
+        this.writePipeline = writePipeline;
+        this.userCounters = userCounters;
+        this.registrationCoordinator = registrationCoordinator;
     }
 
     /**
@@ -54,67 +85,67 @@ public class ResidentRepository {
      * @throws InterruptedException  the interrupted exception
      */
     public Resident find(String uid) throws FirebaseAuthException, ExecutionException, InterruptedException {
-        UserRecord userRecord = firebaseAuth.getUser(uid);
+        UserRecord userRecord = userRecordProvider.get(uid, "resident");
 
         if (userRecord.getCustomClaims().isEmpty()
                 || !userRecord.getCustomClaims().get("role").toString().equals(UserRole.RESIDENT.toString())) {
             throw NotFoundException.create("Resident", uid);
         }
 
-        return makeResident(userRecord, collectionReference.document(uid).get().get());
+        return makeResident(userRecord, requestIdentityMap.get(collectionReference.document(uid)));
     }
 
-    public PagedResult<Resident> findAll(List<UserStatus> statuses, Pageable pageable) {
-        List<Resident> residents = new ArrayList<>();
-
-        try {
-            // Total items query
-            Query totalItemsQuery;
-            if (statuses != null) {
-                totalItemsQuery = collectionReference.whereIn("status", statuses.stream()
-                        .map(UserStatus::toString)
-                        .collect(Collectors.toList()));
-            } else {
-                totalItemsQuery = collectionReference;
+    /**
+     * Find resident without blocking. The Auth lookup and the document read are issued concurrently.
+     *
+     * @param uid the uid
+     * @return the resident future
+     */
+    public CompletableFuture<Resident> findAsync(String uid) {
+        CompletableFuture<UserRecord> userRecordFuture = userRecordProvider.getAsync(uid, "resident");
+        CompletableFuture<DocumentSnapshot> snapshotFuture =
+                requestIdentityMap.getAsync(collectionReference.document(uid));
+
+        return userRecordFuture.thenCombine(snapshotFuture, (userRecord, snapshot) -> {
+            if (userRecord.getCustomClaims().isEmpty()
+                    || !userRecord.getCustomClaims().get("role").toString().equals(UserRole.RESIDENT.toString())) {
+                throw NotFoundException.create("Resident", uid);
             }
 
-            long totalItems = totalItemsQuery.get().get().size();
-            int totalPages = (int) Math.ceil((double) totalItems / pageable.getSize());
-
-            // Items query
-            Query query;
-            if (statuses != null) {
-                query = collectionReference.whereIn("status", statuses.stream()
-                        .map(UserStatus::toString)
-                        .collect(Collectors.toList()))
-                        .orderBy("status", pageable.getSortDirection())
-                        .offset(pageable.getOffset())
-                        .limit(pageable.getSize());
-            } else {
-                query = collectionReference
-                    .orderBy(pageable.getSortBy(), pageable.getSortDirection())
-                    .offset(pageable.getOffset())
-                    .limit(pageable.getSize());
-            }
+            return makeResident(userRecord, snapshot);
+        });
+    }
+
+    public PagedResult<Resident> findAll(List<UserStatus> statuses, Pageable pageable)
+            throws ExecutionException, InterruptedException {
+        List<Resident> residents = new ArrayList<>();
 
-            QuerySnapshot querySnapshot = query.get().get();
-            List<QueryDocumentSnapshot> documents = querySnapshot.getDocuments();
+        // Total items query, the role filter replaces checking every row against its Auth record
+        Query totalItemsQuery = collectionReference
+                .whereEqualTo(UserProjection.ROLE_FIELD, UserRole.RESIDENT.toString());
+        if (statuses != null) {
+            totalItemsQuery = totalItemsQuery.whereIn(UserProjection.STATUS_FIELD, statuses.stream()
+                    .map(UserStatus::toString)
+                    .collect(Collectors.toList()));
+        }
 
-            for (QueryDocumentSnapshot snapshot : documents) {
-                UserRecord userRecord = firebaseAuth.getUser(snapshot.getId());
+        ApiFuture<AggregateQuerySnapshot> totalItemsFuture = totalItemsQuery.count().get();
 
-                if (userRecord.getCustomClaims().isEmpty() ||
-                        !userRecord.getCustomClaims().get("role").toString().equals(UserRole.RESIDENT.toString())) {
-                    continue;
-                }
+        // Items query
+        String sortField = statuses != null ? "status" : pageable.getSortBy();
+        Query query = pageable.applyTo(totalItemsQuery, sortField);
 
-                residents.add(makeResident(userRecord, snapshot));
-            }
+        QuerySnapshot querySnapshot = query.get().get();
+        List<QueryDocumentSnapshot> documents = querySnapshot.getDocuments();
+        long totalItems = totalItemsFuture.get().getCount();
+        int totalPages = (int) Math.ceil((double) totalItems / pageable.getSize());
 
-            return new PagedResult<>(residents, pageable.getPage(), totalItems, totalPages);
-        } catch (Exception e) {
-            return new PagedResult<>(residents, pageable.getPage(), 0, 0);
+        for (QueryDocumentSnapshot snapshot : documents) {
+            residents.add(makeResident(snapshot));
         }
+
+        return new PagedResult<>(residents, pageable.getPage(), totalItems, totalPages,
+                pageable.nextCursor(documents, sortField));
     }
 
     /**
@@ -124,92 +155,127 @@ public class ResidentRepository {
      * @throws FirebaseAuthException the firebase auth exception
      */
     public void persist(Resident resident) throws FirebaseAuthException {
-        UserRecord userRecord = firebaseAuth.createUser(new CreateRequest()
+        CreateRequest createRequest = new CreateRequest()
                 .setEmail(resident.getEmail())
                 .setPassword(resident.getPassword())
                 .setDisplayName(resident.getFirstName() + " " + resident.getLastName())
-                .setEmailVerified(false));
+                .setEmailVerified(false);
 
         // Set Custom Claims
         Map<String, Object> customClaims = new HashMap<>();
         customClaims.put("role", UserRole.RESIDENT.toString());
         customClaims.put("status", UserStatus.ACTIVE.toString());
 
-        firebaseAuth.setCustomUserClaims(userRecord.getUid(), customClaims);
-
         // Set Firestore Document
         Map<String, Object> data = new HashMap<>();
         data.put("firstName", resident.getFirstName());
         data.put("lastName", resident.getLastName());
-        data.put("creationDate", new Date(userRecord.getUserMetadata().getCreationTimestamp()));
+        data.putAll(UserProjection.fields(resident.getEmail(), null, UserRole.RESIDENT));
         data.put("status", UserStatus.ACTIVE.toString());
 
-        collectionReference.document(userRecord.getUid()).set(data);
+        // Account, claims and document are created together or not at all
+        registrationCoordinator.register(UserRole.RESIDENT, collectionReference, createRequest, customClaims, data);
     }
 
     /**
-     * Update resident.
+     * Update resident. Only the non-null fields of the patch are written. Auth is updated first, so a rejected
+     * Auth change leaves the document untouched, then the document, reading it in the same transaction only
+     * when the status changes.
      *
-     * @param resident the resident
-     * @return the resident
+     * @param resident     the patch, identified by its uid
+     * @param precondition the precondition on the document update time
      * @throws FirebaseAuthException the firebase auth exception
+     * @throws ExecutionException    the execution exception
+     * @throws InterruptedException  the interrupted exception
      */
-    public Resident update(Resident resident) throws FirebaseAuthException, ExecutionException, InterruptedException {
-        UserRecord userRecord = firebaseAuth.getUser(resident.getUid());
+    public void update(Resident resident, Precondition precondition)
+            throws FirebaseAuthException, ExecutionException, InterruptedException {
+        String uid = resident.getUid();
+        DocumentReference documentReference = collectionReference.document(uid);
+
+        // Auth is changed before the document: its errors, such as a taken email, must leave the document and its
+        // version untouched. The precondition is checked up front so a rejected one leaves Auth untouched as well,
+        // on the read that also gives the stored half of a name patched alone for the display name
+        boolean partialName = (resident.getFirstName() == null) != (resident.getLastName() == null);
+        DocumentSnapshot previous = partialName || FirestoreWrites.hasUpdateTime(precondition)
+                ? FirestoreWrites.read(documentReference, precondition)
+                : null;
 
-        // Update User Record
-        UpdateRequest request = new UpdateRequest(userRecord.getUid());
+        Map<String, Object> userData = new HashMap<>();
 
-        if (!Objects.equals(resident.getFirstName() + " " + resident.getLastName(), userRecord.getDisplayName())) {
-            request.setDisplayName(resident.getFirstName() + " " + resident.getLastName());
+        if (resident.getFirstName() != null) {
+            userData.put("firstName", resident.getFirstName());
         }
 
-        if (!Objects.equals(resident.getEmail(), userRecord.getEmail())) {
-            request.setEmail(resident.getEmail());
-            request.setEmailVerified(false);
+        if (resident.getLastName() != null) {
+            userData.put("lastName", resident.getLastName());
         }
 
-        if (resident.getPassword() != null) {
-            request.setPassword(resident.getPassword());
+        if (resident.getStatus() != null) {
+            userData.put("status", resident.getStatus().toString());
         }
 
-        if (!Objects.equals(resident.getPhoneNumber(), userRecord.getPhoneNumber())) {
-            request.setPhoneNumber(resident.getPhoneNumber());
+        // Update User Record
+        UpdateRequest request = new UpdateRequest(uid);
+        boolean userRecordChanged = false;
+
+        if (resident.getFirstName() != null || resident.getLastName() != null) {
+            String firstName = resident.getFirstName() != null ? resident.getFirstName() : previous.getString("firstName");
+            String lastName = resident.getLastName() != null ? resident.getLastName() : previous.getString("lastName");
+            request.setDisplayName(firstName + " " + lastName);
+            userRecordChanged = true;
         }
 
-        // Update Firestore Document
-        DocumentSnapshot snapshot = collectionReference.document(userRecord.getUid()).get().get();
-        Map<String, Object> userData = new HashMap<>();
-
-        if (!Objects.equals(resident.getFirstName(), snapshot.getString("firstName"))) {
-            userData.put("firstName", resident.getFirstName());
+        if (resident.getPassword() != null) {
+            request.setPassword(resident.getPassword());
+            userRecordChanged = true;
         }
 
-        if (!Objects.equals(resident.getLastName(), snapshot.getString("lastName"))) {
-            userData.put("lastName", resident.getLastName());
+        if (resident.getPhoneNumber() != null) {
+            request.setPhoneNumber(resident.getPhoneNumber());
+            userData.put(UserProjection.PHONE_NUMBER_FIELD, resident.getPhoneNumber());
+            userRecordChanged = true;
         }
 
-        if (!Objects.equals(resident.getStatus().toString(), snapshot.getString("status"))) {
-            userData.put("status", resident.getStatus().toString());
-        }
+        // Compared against the current record, resubmitting the same email must not reset its verification.
+        // Read fresh rather than cached: claims rebuilt from a stale copy would undo a concurrent change
+        if (resident.getEmail() != null || resident.getStatus() != null) {
+            UserRecord userRecord = firebaseAuth.getUser(uid);
 
-        // Update Custom Claims
-        Map<String, Object> customClaims = new HashMap<>(userRecord.getCustomClaims());
+            if (resident.getEmail() != null && !resident.getEmail().equals(userRecord.getEmail())) {
+                request.setEmail(resident.getEmail());
+                userData.put(UserProjection.EMAIL_FIELD, resident.getEmail());
+                request.setEmailVerified(false);
+                userRecordChanged = true;
+            }
 
-        if (!Objects.equals(resident.getStatus().toString(), customClaims.get("status").toString())) {
-            customClaims.put("status", resident.getStatus().toString());
+            // Update Custom Claims
+            if (resident.getStatus() != null
+                    && !Objects.equals(resident.getStatus().toString(), userRecord.getCustomClaims().get("status"))) {
+                Map<String, Object> customClaims = new HashMap<>(userRecord.getCustomClaims());
+                customClaims.put("status", resident.getStatus().toString());
+                request.setCustomClaims(customClaims);
+                userRecordChanged = true;
+            }
         }
 
-        // Update User Record
-        request.setCustomClaims(customClaims);
-        firebaseAuth.updateUser(request);
+        if (userRecordChanged) {
+            firebaseAuth.updateUser(request);
+            userRecordProvider.invalidate(uid);
+        }
 
-        // Update Firestore Document
-        if (!userData.isEmpty()) {
-            collectionReference.document(userRecord.getUid()).update(userData);
+        // The projected fields go with the document fields, written after Auth accepted them. A write rejected after
+        // a concurrent change leaves Auth ahead of the document until the client retries with the new version
+        // A status change also moves the user between counters, which needs the previous status
+        String version = null;
+        if (resident.getStatus() != null) {
+            userCounters.update(documentReference, userData, precondition, UserRole.RESIDENT);
+        } else {
+            version = EntityVersion.of(FirestoreWrites.update(documentReference, userData, precondition).getUpdateTime());
         }
+        requestIdentityMap.evict(documentReference);
 
-        return resident;
+        eventPublisher.publishEvent(new EntityChangedEvent(Resident.class, uid, version));
     }
 
     /**
@@ -220,7 +286,12 @@ public class ResidentRepository {
      */
     public void delete(String uid) throws FirebaseAuthException {
         firebaseAuth.deleteUser(uid);
-        collectionReference.document(uid).delete();
+        userRecordProvider.invalidate(uid);
+        DocumentReference documentReference = collectionReference.document(uid);
+        requestIdentityMap.evict(documentReference);
+        writePipeline.submit("resident.delete", () -> userCounters.delete(documentReference, UserRole.RESIDENT))
+                .whenComplete((result, e) ->
+                        eventPublisher.publishEvent(new EntityChangedEvent(Resident.class, uid)));
     }
 
     private Resident makeResident(UserRecord userRecord, DocumentSnapshot snapshot) {
@@ -230,6 +301,8 @@ public class ResidentRepository {
         resident.setEmail(userRecord.getEmail());
         resident.setStatus(UserStatus.valueOf(snapshot.getString("status")));
         resident.setPhoto(userRecord.getPhotoUrl());
+        resident.setPhotoVariants(PhotoVariants.of(snapshot, userRecord.getPhotoUrl()));
+        resident.setVersion(EntityVersion.of(snapshot, userRecord));
         resident.setRole(UserRole.RESIDENT);
         resident.setCreationDate(LocalDateTime.ofInstant(
                 Instant.ofEpochMilli(userRecord.getUserMetadata().getCreationTimestamp()),
@@ -239,4 +312,15 @@ public class ResidentRepository {
 
         return resident;
     }
+
+    private static Resident makeResident(DocumentSnapshot snapshot) {
+        Resident resident = new Resident();
+
+        UserProjection.read(resident, snapshot);
+        resident.setRole(UserRole.RESIDENT);
+        resident.setFirstName(snapshot.getString("firstName"));
+        resident.setLastName(snapshot.getString("lastName"));
+
+        return resident;
+    }
 }
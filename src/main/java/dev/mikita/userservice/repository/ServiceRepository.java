@@ -1,5 +1,6 @@
 package dev.mikita.userservice.repository;
 
+import com.google.api.core.ApiFuture;
 import com.google.cloud.firestore.*;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
@@ -10,15 +11,21 @@ import dev.mikita.userservice.entity.Service;
 import dev.mikita.userservice.entity.User;
 import dev.mikita.userservice.entity.UserRole;
 import dev.mikita.userservice.entity.UserStatus;
+import dev.mikita.userservice.event.EntityChangedEvent;
 import dev.mikita.userservice.exception.NotFoundException;
+import dev.mikita.userservice.util.EntityVersion;
+import dev.mikita.userservice.util.FirestoreWrites;
 import dev.mikita.userservice.util.Pageable;
 import dev.mikita.userservice.util.PagedResult;
+import dev.mikita.userservice.util.PhotoVariants;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Repository;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.stream.Collectors;
 
@@ -28,21 +35,45 @@ import java.util.stream.Collectors;
 @Repository
 public class ServiceRepository {
     private final CollectionReference collectionReference;
+    private final RequestIdentityMap requestIdentityMap;
     private final FirebaseAuth firebaseAuth;
+    private final UserRecordProvider userRecordProvider;
+    private final ApplicationEventPublisher eventPublisher;
+    private final WritePipeline writePipeline;
+    private final UserCounters userCounters;
+    private final RegistrationCoordinator registrationCoordinator;
 
     /**
      * Instantiates a new Service repository.
      *
-     * @param firebaseAuth   the firebase auth
-     * @param firestore      the firestore
-     * @param collectionName the collection name
+     * @param firebaseAuth            the firebase auth
+     * @param userRecordProvider      the user record provider
+     * @param firestore               the firestore
+     * @param requestIdentityMap      the request identity map
+     * @param eventPublisher          the event publisher
+     * @param writePipeline           the write pipeline
+     * @param userCounters            the user counters
+     * @param registrationCoordinator the registration coordinator
+     * @param collectionName          the collection name
      */
     @Autowired
     public ServiceRepository(FirebaseAuth firebaseAuth,
+                             UserRecordProvider userRecordProvider,
                              Firestore firestore,
+                             RequestIdentityMap requestIdentityMap,
+                             ApplicationEventPublisher eventPublisher,
+                             WritePipeline writePipeline,
+                             UserCounters userCounters,
+                             RegistrationCoordinator registrationCoordinator,
                              @Value("${firebase.firestore.collections.service}") String collectionName) {
         this.firebaseAuth = firebaseAuth;
+        this.userRecordProvider = userRecordProvider;
         this.collectionReference = firestore.collection(collectionName);
+        this.requestIdentityMap = requestIdentityMap;
+        this.eventPublisher = eventPublisher;
+        this.writePipeline = writePipeline;
+        this.userCounters = userCounters;
+        this.registrationCoordinator = registrationCoordinator;
     }
 
     /**
@@ -55,67 +86,67 @@ public class ServiceRepository {
      * @throws InterruptedException  the interrupted exception
      */
     public Service find(String uid) throws FirebaseAuthException, ExecutionException, InterruptedException {
-        UserRecord userRecord = firebaseAuth.getUser(uid);
+        UserRecord userRecord = userRecordProvider.get(uid, "service");
 
         if (userRecord.getCustomClaims().isEmpty()
                 || !userRecord.getCustomClaims().get("role").toString().equals(UserRole.SERVICE.toString())) {
             throw NotFoundException.create("Service", uid);
         }
 
-        return makeService(userRecord, collectionReference.document(uid).get().get());
+        return makeService(userRecord, requestIdentityMap.get(collectionReference.document(uid)));
     }
 
-    public PagedResult<Service> findAll(List<UserStatus> statuses, Pageable pageable) {
-        List<Service> services = new ArrayList<>();
-
-        try {
-            // Total items query
-            Query totalItemsQuery;
-            if (statuses != null) {
-                totalItemsQuery = collectionReference.whereIn("status", statuses.stream()
-                        .map(UserStatus::toString)
-                        .collect(Collectors.toList()));
-            } else {
-                totalItemsQuery = collectionReference;
+    /**
+     * Find service without blocking. The Auth lookup and the document read are issued concurrently.
+     *
+     * @param uid the uid
+     * @return the service future
+     */
+    public CompletableFuture<Service> findAsync(String uid) {
+        CompletableFuture<UserRecord> userRecordFuture = userRecordProvider.getAsync(uid, "service");
+        CompletableFuture<DocumentSnapshot> snapshotFuture =
+                requestIdentityMap.getAsync(collectionReference.document(uid));
+
+        return userRecordFuture.thenCombine(snapshotFuture, (userRecord, snapshot) -> {
+            if (userRecord.getCustomClaims().isEmpty()
+                    || !userRecord.getCustomClaims().get("role").toString().equals(UserRole.SERVICE.toString())) {
+                throw NotFoundException.create("Service", uid);
             }
 
-            long totalItems = totalItemsQuery.get().get().size();
-            int totalPages = (int) Math.ceil((double) totalItems / pageable.getSize());
-
-            // Items query
-            Query query;
-            if (statuses != null) {
-                query = collectionReference.whereIn("status", statuses.stream()
-                                .map(UserStatus::toString)
-                                .collect(Collectors.toList()))
-                        .orderBy("status", pageable.getSortDirection())
-                        .offset(pageable.getOffset())
-                        .limit(pageable.getSize());
-            } else {
-                query = collectionReference
-                        .orderBy(pageable.getSortBy(), pageable.getSortDirection())
-                        .offset(pageable.getOffset())
-                        .limit(pageable.getSize());
-            }
+            return makeService(userRecord, snapshot);
+        });
+    }
 
-            QuerySnapshot querySnapshot = query.get().get();
-            List<QueryDocumentSnapshot> documents = querySnapshot.getDocuments();
+    public PagedResult<Service> findAll(List<UserStatus> statuses, Pageable pageable)
+            throws ExecutionException, InterruptedException {
+        List<Service> services = new ArrayList<>();
 
-            for (QueryDocumentSnapshot snapshot : documents) {
-                UserRecord userRecord = firebaseAuth.getUser(snapshot.getId());
+        // Total items query, the role filter replaces checking every row against its Auth record
+        Query totalItemsQuery = collectionReference
+                .whereEqualTo(UserProjection.ROLE_FIELD, UserRole.SERVICE.toString());
+        if (statuses != null) {
+            totalItemsQuery = totalItemsQuery.whereIn(UserProjection.STATUS_FIELD, statuses.stream()
+                    .map(UserStatus::toString)
+                    .collect(Collectors.toList()));
+        }
 
-                if (userRecord.getCustomClaims().isEmpty() ||
-                        !userRecord.getCustomClaims().get("role").toString().equals(UserRole.SERVICE.toString())) {
-                    continue;
-                }
+        ApiFuture<AggregateQuerySnapshot> totalItemsFuture = totalItemsQuery.count().get();
 
-                services.add(makeService(userRecord, snapshot));
-            }
+        // Items query
+        String sortField = statuses != null ? "status" : pageable.getSortBy();
+        Query query = pageable.applyTo(totalItemsQuery, sortField);
 
-            return new PagedResult<>(services, pageable.getPage(), totalItems, totalPages);
-        } catch (Exception e) {
-            return new PagedResult<>(services, pageable.getPage(), 0, 0);
+        QuerySnapshot querySnapshot = query.get().get();
+        List<QueryDocumentSnapshot> documents = querySnapshot.getDocuments();
+        long totalItems = totalItemsFuture.get().getCount();
+        int totalPages = (int) Math.ceil((double) totalItems / pageable.getSize());
+
+        for (QueryDocumentSnapshot snapshot : documents) {
+            services.add(makeService(snapshot));
         }
+
+        return new PagedResult<>(services, pageable.getPage(), totalItems, totalPages,
+                pageable.nextCursor(documents, sortField));
     }
 
     /**
@@ -125,97 +156,125 @@ public class ServiceRepository {
      * @throws FirebaseAuthException the firebase auth exception
      */
     public void persist(Service service) throws FirebaseAuthException {
-        UserRecord userRecord = firebaseAuth.createUser(new CreateRequest()
+        CreateRequest createRequest = new CreateRequest()
                 .setEmail(service.getEmail())
                 .setPassword(service.getPassword())
                 .setDisplayName(service.getName())
-                .setEmailVerified(true));
+                .setEmailVerified(true);
 
         // Set Custom Claims
         Map<String, Object> customClaims = new HashMap<>();
         customClaims.put("role", UserRole.SERVICE.toString());
         customClaims.put("status", UserStatus.ACTIVE.toString());
 
-        firebaseAuth.setCustomUserClaims(userRecord.getUid(), customClaims);
-
         // Set Firestore Document
         Map<String, Object> data = new HashMap<>();
         data.put("name", service.getName());
         data.put("description", service.getDescription());
         data.put("address", service.getAddress());
-        data.put("creationDate", new Date(userRecord.getUserMetadata().getCreationTimestamp()));
+        data.putAll(UserProjection.fields(service.getEmail(), null, UserRole.SERVICE));
         data.put("status", UserStatus.ACTIVE.toString());
 
-        collectionReference.document(userRecord.getUid()).set(data);
+        // Account, claims and document are created together or not at all
+        registrationCoordinator.register(UserRole.SERVICE, collectionReference, createRequest, customClaims, data);
     }
 
     /**
-     * Update service.
+     * Update service. Only the non-null fields of the patch are written. Auth is updated first, so a rejected
+     * Auth change leaves the document untouched, then the document, read in the same transaction only when the
+     * status changes.
      *
-     * @param service the service
-     * @return the service
+     * @param service      the patch, identified by its uid
+     * @param precondition the precondition on the document update time
      * @throws FirebaseAuthException the firebase auth exception
+     * @throws ExecutionException    the execution exception
+     * @throws InterruptedException  the interrupted exception
      */
-    public Service update(Service service) throws FirebaseAuthException, ExecutionException, InterruptedException {
-        UserRecord userRecord = firebaseAuth.getUser(service.getUid());
+    public void update(Service service, Precondition precondition)
+            throws FirebaseAuthException, ExecutionException, InterruptedException {
+        String uid = service.getUid();
+        DocumentReference documentReference = collectionReference.document(uid);
+
+        // Auth is changed before the document: its errors, such as a taken email, must leave the document and its
+        // version untouched. The precondition is checked up front so a rejected one leaves Auth untouched as well
+        if (FirestoreWrites.hasUpdateTime(precondition)) {
+            FirestoreWrites.read(documentReference, precondition);
+        }
 
-        // Update User Record
-        UpdateRequest request = new UpdateRequest(userRecord.getUid());
+        Map<String, Object> userData = new HashMap<>();
 
-        if (!Objects.equals(service.getName(), userRecord.getDisplayName())) {
-            request.setDisplayName(service.getName());
+        if (service.getName() != null) {
+            userData.put("name", service.getName());
         }
 
-        if (!Objects.equals(service.getEmail(), userRecord.getEmail())) {
-            request.setEmail(service.getEmail());
-            request.setEmailVerified(true);
+        if (service.getDescription() != null) {
+            userData.put("description", service.getDescription());
         }
 
-        if (service.getPassword() != null) {
-            request.setPassword(service.getPassword());
+        if (service.getAddress() != null) {
+            userData.put("address", service.getAddress());
         }
 
-        if (!Objects.equals(service.getPhoneNumber(), userRecord.getPhoneNumber())) {
-            request.setPhoneNumber(service.getPhoneNumber());
+        if (service.getStatus() != null) {
+            userData.put("status", service.getStatus().toString());
         }
 
-        // Update Firestore Document
-        DocumentSnapshot snapshot = collectionReference.document(userRecord.getUid()).get().get();
-        Map<String, Object> userData = new HashMap<>();
+        // Update User Record
+        UpdateRequest request = new UpdateRequest(uid);
+        boolean userRecordChanged = false;
 
-        if (!Objects.equals(service.getName(), snapshot.getString("name"))) {
-            userData.put("name", service.getName());
+        if (service.getName() != null) {
+            request.setDisplayName(service.getName());
+            userRecordChanged = true;
         }
 
-        if (!Objects.equals(service.getDescription(), snapshot.getString("description"))) {
-            userData.put("description", service.getDescription());
+        if (service.getPassword() != null) {
+            request.setPassword(service.getPassword());
+            userRecordChanged = true;
         }
 
-        if (!Objects.equals(service.getAddress(), snapshot.getString("address"))) {
-            userData.put("address", service.getAddress());
+        if (service.getPhoneNumber() != null) {
+            request.setPhoneNumber(service.getPhoneNumber());
+            userData.put(UserProjection.PHONE_NUMBER_FIELD, service.getPhoneNumber());
+            userRecordChanged = true;
         }
 
-        if (!Objects.equals(service.getStatus().toString(), snapshot.getString("status"))) {
-            userData.put("status", service.getStatus().toString());
+        if (service.getEmail() != null) {
+            request.setEmail(service.getEmail());
+            userData.put(UserProjection.EMAIL_FIELD, service.getEmail());
+            request.setEmailVerified(true);
+            userRecordChanged = true;
         }
 
-        // Update Custom Claims
-        Map<String, Object> customClaims = new HashMap<>(userRecord.getCustomClaims());
+        // Update Custom Claims, rebuilt from a fresh record so a concurrent change is not undone
+        if (service.getStatus() != null) {
+            UserRecord userRecord = firebaseAuth.getUser(uid);
 
-        if (!Objects.equals(service.getStatus().toString(), customClaims.get("status").toString())) {
-            customClaims.put("status", service.getStatus().toString());
+            if (!Objects.equals(service.getStatus().toString(), userRecord.getCustomClaims().get("status"))) {
+                Map<String, Object> customClaims = new HashMap<>(userRecord.getCustomClaims());
+                customClaims.put("status", service.getStatus().toString());
+                request.setCustomClaims(customClaims);
+                userRecordChanged = true;
+            }
         }
 
-        // Update User Record
-        request.setCustomClaims(customClaims);
-        firebaseAuth.updateUser(request);
+        if (userRecordChanged) {
+            firebaseAuth.updateUser(request);
+            userRecordProvider.invalidate(uid);
+        }
 
-        // Update Firestore Document
-        if (!userData.isEmpty()) {
-            collectionReference.document(userRecord.getUid()).update(userData);
+        // The projected fields go with the document fields, written after Auth accepted them. A write rejected after
+        // a concurrent change leaves Auth ahead of the document until the client retries with the new version
+        // A status change also moves the user between counters, which needs the previous status
+        String version = null;
+        if (service.getStatus() != null) {
+            userCounters.update(documentReference, userData, precondition, UserRole.SERVICE);
+        } else {
+            version = EntityVersion.of(FirestoreWrites.update(documentReference, userData, precondition).getUpdateTime());
         }
+        requestIdentityMap.evict(documentReference);
 
-        return service;
+        eventPublisher.publishEvent(new EntityChangedEvent(Service.class, uid, version));
     }
 
     /**
@@ -226,12 +285,22 @@ public class ServiceRepository {
      */
     public void delete(String uid) throws FirebaseAuthException {
         firebaseAuth.deleteUser(uid);
-        collectionReference.document(uid).delete();
+        userRecordProvider.invalidate(uid);
+        DocumentReference documentReference = collectionReference.document(uid);
+        requestIdentityMap.evict(documentReference);
+        writePipeline.submit("service.delete", () -> userCounters.delete(documentReference, UserRole.SERVICE))
+                .whenComplete((result, e) ->
+                        eventPublisher.publishEvent(new EntityChangedEvent(Service.class, uid)));
     }
 
+    /**
+     * Counts active services from the maintained counters instead of querying the collection.
+     *
+     * @return the count
+     */
     public Long count() {
         try {
-            return (long) collectionReference.whereEqualTo("status", UserStatus.ACTIVE).get().get().size();
+            return userCounters.count(UserRole.SERVICE, UserStatus.ACTIVE);
         } catch (Exception e) {
             return 0L;
         }
@@ -243,6 +312,8 @@ public class ServiceRepository {
         service.setEmail(userRecord.getEmail());
         service.setPhoneNumber(userRecord.getPhoneNumber());
         service.setPhoto(userRecord.getPhotoUrl());
+        service.setPhotoVariants(PhotoVariants.of(snapshot, userRecord.getPhotoUrl()));
+        service.setVersion(EntityVersion.of(snapshot, userRecord));
         service.setRole(UserRole.SERVICE);
         service.setStatus(UserStatus.valueOf(snapshot.getString("status")));
         service.setCreationDate(LocalDateTime.ofInstant(
@@ -254,4 +325,16 @@ public class ServiceRepository {
 
         return service;
     }
+
+    private static Service makeService(DocumentSnapshot snapshot) {
+        Service service = new Service();
+
+        UserProjection.read(service, snapshot);
+        service.setRole(UserRole.SERVICE);
+        service.setName(snapshot.getString("name"));
+        service.setDescription(snapshot.getString("description"));
+        service.setAddress(snapshot.getString("address"));
+
+        return service;
+    }
 }
@@ -0,0 +1,144 @@
+package dev.mikita.userservice.repository;
+
+import com.google.cloud.firestore.AggregateQuery;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import dev.mikita.userservice.entity.UserRole;
+import dev.mikita.userservice.entity.UserStatus;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically compares every {@link UserCounters} counter with a count query over the users and corrects
+ * the drift left by failed or retried writes and by documents written before the counters existed. The
+ * correction sets the first shard so that all shards add up to the queried count, so instances reconciling
+ * at the same time do not correct twice. The count and the shards are read in the transaction writing the
+ * correction, so both reflect the same writes. The first run also initializes the counters of existing users.
+ * Disabled with {@code app.counters.reconcile.enabled=false}.
+ */
+@Component
+@ConditionalOnProperty(name = "app.counters.reconcile.enabled", havingValue = "true", matchIfMissing = true)
+public class UserCounterReconciler {
+    private static final Logger LOG = LoggerFactory.getLogger(UserCounterReconciler.class);
+
+    private final Firestore firestore;
+    private final UserCounters userCounters;
+    private final UserProjection userProjection;
+    private final Duration interval;
+    private final ScheduledExecutorService scheduler;
+    private final Counter corrections;
+
+    /**
+     * Instantiates a new User counter reconciler.
+     *
+     * @param firestore      the firestore
+     * @param userCounters   the user counters
+     * @param userProjection the user projection, resolving the collection of a role
+     * @param meterRegistry  the meter registry
+     * @param interval       the time between two runs
+     */
+    @Autowired
+    public UserCounterReconciler(Firestore firestore,
+                                 UserCounters userCounters,
+                                 UserProjection userProjection,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.counters.reconcile.interval:1h}") Duration interval) {
+        this.firestore = firestore;
+        this.userCounters = userCounters;
+        this.userProjection = userProjection;
+        this.interval = interval;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-counter-reconciler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.corrections = Counter.builder("users.counters.corrections")
+                .description("Counters found off and corrected by the reconciler")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Schedules the runs, the first one right away.
+     */
+    @PostConstruct
+    public void start() {
+        scheduler.scheduleWithFixedDelay(this::reconcile, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops the runs.
+     */
+    @PreDestroy
+    public void stop() {
+        scheduler.shutdownNow();
+    }
+
+    /**
+     * Reconciles all counters.
+     */
+    public void reconcile() {
+        for (UserRole role : UserRole.values()) {
+            String collection = userProjection.collection(role);
+            if (collection == null) {
+                continue;
+            }
+
+            for (UserStatus status : UserStatus.values()) {
+                try {
+                    reconcile(firestore.collection(collection), role, status);
+                } catch (Exception e) {
+                    LOG.warn("Failed to reconcile the {} {} user counter", status, role, e);
+                }
+            }
+        }
+    }
+
+    private void reconcile(CollectionReference collection, UserRole role, UserStatus status) throws Exception {
+        // Every collection holds the users of one role
+        AggregateQuery users = collection.whereEqualTo(UserProjection.STATUS_FIELD, status.toString()).count();
+        CollectionReference shards = userCounters.shards(role, status);
+        DocumentReference first = shards.document("0");
+
+        // Counted in the transaction, a user written between the count and the shard read would be lost
+        long drift = firestore.runTransaction(transaction -> {
+            long actual = transaction.get(users).get().getCount();
+            long others = 0;
+            long current = 0;
+            for (QueryDocumentSnapshot shard : transaction.get(shards).get().getDocuments()) {
+                Long count = shard.getLong(UserCounters.COUNT_FIELD);
+                if (shard.getId().equals(first.getId())) {
+                    current = count != null ? count : 0;
+                } else {
+                    others += count != null ? count : 0;
+                }
+            }
+
+            long expected = actual - others;
+            if (expected != current) {
+                transaction.set(first, Map.of(UserCounters.COUNT_FIELD, expected));
+            }
+            return expected - current;
+        }).get();
+
+        if (drift != 0) {
+            corrections.increment();
+            userCounters.invalidate(role, status);
+            LOG.info("Corrected the {} {} user counter by {}", status, role, drift);
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package dev.mikita.userservice.repository;
+
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.LoadingCache;
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.SetOptions;
+import com.google.cloud.firestore.UpdateBuilder;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.cloud.firestore.WriteResult;
+import dev.mikita.userservice.entity.UserRole;
+import dev.mikita.userservice.entity.UserStatus;
+import dev.mikita.userservice.exception.NotFoundException;
+import dev.mikita.userservice.util.FirestoreWrites;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Number of users per role and status, kept in sharded counter documents. Every write creating, deleting or
+ * changing the status of a user moves the counters in the same batch or transaction, spreading increments over
+ * {@code shards} documents to stay below the write rate limit of a single document. Reads sum the shards behind
+ * a short local cache, so counts may lag writes by up to its TTL. {@link UserCounterReconciler} corrects drift.
+ */
+@Component
+public class UserCounters {
+    /**
+     * The counter field of a shard.
+     */
+    public static final String COUNT_FIELD = "count";
+
+    private final Firestore firestore;
+    private final CollectionReference collectionReference;
+    private final int shards;
+    private final LoadingCache<String, Long> counts;
+
+    /**
+     * Instantiates a new User counters.
+     *
+     * @param firestore      the firestore
+     * @param collectionName the collection holding one document per counter
+     * @param shards         the number of shards per counter
+     * @param cacheTtl       how long a summed count is served from the local cache
+     */
+    @Autowired
+    public UserCounters(Firestore firestore,
+                        @Value("${app.counters.collection:counters}") String collectionName,
+                        @Value("${app.counters.shards:10}") int shards,
+                        @Value("${app.counters.cache-ttl:5s}") Duration cacheTtl) {
+        this.firestore = firestore;
+        this.collectionReference = firestore.collection(collectionName);
+        this.shards = Math.max(1, shards);
+        this.counts = Caffeine.newBuilder()
+                .expireAfterWrite(cacheTtl)
+                .build(this::load);
+    }
+
+    /**
+     * Gets the number of users of a role with a status.
+     *
+     * @param role   the role
+     * @param status the status
+     * @return the count
+     */
+    public long count(UserRole role, UserStatus status) {
+        return counts.get(key(role, status));
+    }
+
+    /**
+     * Creates a user document and counts the user in one batch. The document is created rather than set,
+     * so a commit retried after an ambiguous failure is rejected instead of counting the user twice.
+     *
+     * @param documentReference the user document
+     * @param data              the document data
+     * @param role              the role
+     * @param status            the status
+     * @return the batch commit future
+     */
+    public ApiFuture<List<WriteResult>> create(DocumentReference documentReference, Map<String, Object> data,
+                                               UserRole role, UserStatus status) {
+        WriteBatch batch = firestore.batch();
+        batch.create(documentReference, data);
+        increment(batch, role, status, 1);
+        return batch.commit();
+    }
+
+    /**
+     * Updates a user document in a transaction reading it first. When the fields change the status, the user
+     * moves from the counter of its previous status in the same transaction.
+     *
+     * @param documentReference the user document
+     * @param fields            the fields to write, possibly including a new status
+     * @param precondition      the precondition on the document update time
+     * @param role              the role
+     * @return the document as read before the update
+     * @throws ExecutionException   the execution exception
+     * @throws InterruptedException the interrupted exception
+     */
+    public DocumentSnapshot update(DocumentReference documentReference, Map<String, Object> fields,
+                                   Precondition precondition, UserRole role)
+            throws ExecutionException, InterruptedException {
+        Map<String, Object> data = FirestoreWrites.withUpdateDate(fields);
+
+        return FirestoreWrites.runTransaction(firestore, documentReference, transaction -> {
+            DocumentSnapshot snapshot = transaction.get(documentReference).get();
+            if (!snapshot.exists()) {
+                throw NotFoundException.create("Document", documentReference.getPath());
+            }
+
+            String previous = snapshot.getString(UserProjection.STATUS_FIELD);
+            Object next = fields.get(UserProjection.STATUS_FIELD);
+
+            FirestoreWrites.update(transaction, documentReference, data, precondition);
+            if (previous != null && next != null && !Objects.equals(previous, next.toString())) {
+                increment(transaction, role, UserStatus.valueOf(previous), -1);
+                increment(transaction, role, UserStatus.valueOf(next.toString()), 1);
+            }
+            return snapshot;
+        });
+    }
+
+    /**
+     * Deletes a user document and uncounts the user in one transaction. Deleting a missing document
+     * changes no counter, so the transaction can be retried.
+     *
+     * @param documentReference the user document
+     * @param role              the role
+     * @return the transaction future
+     */
+    public ApiFuture<Void> delete(DocumentReference documentReference, UserRole role) {
+        return firestore.runTransaction(transaction -> {
+            DocumentSnapshot snapshot = transaction.get(documentReference).get();
+            String status = snapshot.getString(UserProjection.STATUS_FIELD);
+
+            transaction.delete(documentReference);
+            if (snapshot.exists() && status != null) {
+                increment(transaction, role, UserStatus.valueOf(status), -1);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Adds to a counter as part of a batch or transaction.
+     *
+     * @param batch  the batch or transaction
+     * @param role   the role
+     * @param status the status
+     * @param delta  the amount to add
+     */
+    public void increment(UpdateBuilder<?> batch, UserRole role, UserStatus status, long delta) {
+        DocumentReference shard = shards(role, status)
+                .document(String.valueOf(ThreadLocalRandom.current().nextInt(shards)));
+        batch.set(shard, Map.of(COUNT_FIELD, FieldValue.increment(delta)), SetOptions.merge());
+    }
+
+    /**
+     * Gets the shards of a counter.
+     *
+     * @param role   the role
+     * @param status the status
+     * @return the shard collection
+     */
+    public CollectionReference shards(UserRole role, UserStatus status) {
+        return collectionReference.document(key(role, status)).collection("shards");
+    }
+
+    /**
+     * Drops the cached count, so the next read sums the shards again.
+     *
+     * @param role   the role
+     * @param status the status
+     */
+    public void invalidate(UserRole role, UserStatus status) {
+        counts.invalidate(key(role, status));
+    }
+
+    private Long load(String key) throws ExecutionException, InterruptedException {
+        String[] parts = key.split("_", 2);
+        long sum = 0;
+        for (QueryDocumentSnapshot shard : shards(UserRole.valueOf(parts[0]), UserStatus.valueOf(parts[1]))
+                .get().get().getDocuments()) {
+            Long count = shard.getLong(COUNT_FIELD);
+            sum += count != null ? count : 0;
+        }
+        return sum;
+    }
+
+    private static String key(UserRole role, UserStatus status) {
+        return role + "_" + status;
+    }
+}
@@ -0,0 +1,194 @@
+package dev.mikita.userservice.repository;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.firebase.auth.UserRecord;
+import dev.mikita.userservice.entity.User;
+import dev.mikita.userservice.entity.UserRole;
+import dev.mikita.userservice.entity.UserStatus;
+import dev.mikita.userservice.util.EntityVersion;
+import dev.mikita.userservice.util.PhotoVariants;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Copy of the Firebase Auth fields of a user kept on the user document, so listings are answered by a single
+ * Firestore query without looking up every row in Auth. Auth stays the source of truth: single-user reads still
+ * use the Auth record, and every write path updating one of these fields in Auth also updates the copy and waits
+ * for it, so a listing read after the request has returned shows the change.
+ */
+@Component
+public class UserProjection {
+    /**
+     * The email of the user.
+     */
+    public static final String EMAIL_FIELD = "email";
+    /**
+     * The phone number of the user.
+     */
+    public static final String PHONE_NUMBER_FIELD = "phoneNumber";
+    /**
+     * The photo URL of the user.
+     */
+    public static final String PHOTO_FIELD = "photo";
+    /**
+     * The role claim of the user, listings filter on it.
+     */
+    public static final String ROLE_FIELD = "role";
+    /**
+     * The status of the user.
+     */
+    public static final String STATUS_FIELD = "status";
+    /**
+     * The creation time of the Auth account.
+     */
+    public static final String CREATION_DATE_FIELD = "creationDate";
+
+    private final Firestore firestore;
+    private final WritePipeline writePipeline;
+    private final Map<UserRole, String> collections = new EnumMap<>(UserRole.class);
+
+    /**
+     * Instantiates a new User projection.
+     *
+     * @param firestore          the firestore
+     * @param writePipeline      the write pipeline
+     * @param residentCollection the resident collection name
+     * @param serviceCollection  the service collection name
+     * @param employeeCollection the employee collection name
+     * @param analystCollection  the analyst collection name
+     */
+    @Autowired
+    public UserProjection(Firestore firestore,
+                          WritePipeline writePipeline,
+                          @Value("${firebase.firestore.collections.resident}") String residentCollection,
+                          @Value("${firebase.firestore.collections.service}") String serviceCollection,
+                          @Value("${firebase.firestore.collections.employee}") String employeeCollection,
+                          @Value("${firebase.firestore.collections.analyst}") String analystCollection) {
+        this.firestore = firestore;
+        this.writePipeline = writePipeline;
+        collections.put(UserRole.RESIDENT, residentCollection);
+        collections.put(UserRole.SERVICE, serviceCollection);
+        collections.put(UserRole.EMPLOYEE, employeeCollection);
+        collections.put(UserRole.ANALYST, analystCollection);
+    }
+
+    /**
+     * Gets the projected fields of a user.
+     *
+     * @param userRecord the user record
+     * @param role       the role, passed explicitly since a freshly created record has no claims yet
+     * @return the fields
+     */
+    public static Map<String, Object> fields(UserRecord userRecord, UserRole role) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(EMAIL_FIELD, userRecord.getEmail());
+        fields.put(PHONE_NUMBER_FIELD, userRecord.getPhoneNumber());
+        fields.put(PHOTO_FIELD, userRecord.getPhotoUrl());
+        fields.put(ROLE_FIELD, role.toString());
+        fields.put(CREATION_DATE_FIELD, new Date(userRecord.getUserMetadata().getCreationTimestamp()));
+
+        return fields;
+    }
+
+    /**
+     * Gets the projected fields of a user being registered, before its Auth account exists. The creation date
+     * is the commit time of the document, which may differ slightly from that of the account.
+     *
+     * @param email       the email
+     * @param phoneNumber the phone number, may be null
+     * @param role        the role
+     * @return the fields
+     */
+    public static Map<String, Object> fields(String email, String phoneNumber, UserRole role) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(EMAIL_FIELD, email);
+        fields.put(PHONE_NUMBER_FIELD, phoneNumber);
+        fields.put(PHOTO_FIELD, null);
+        fields.put(ROLE_FIELD, role.toString());
+        fields.put(CREATION_DATE_FIELD, FieldValue.serverTimestamp());
+
+        return fields;
+    }
+
+    /**
+     * Fills the common user fields from a user document holding the projection.
+     *
+     * @param user     the user
+     * @param snapshot the user document
+     */
+    public static void read(User user, DocumentSnapshot snapshot) {
+        String photo = snapshot.getString(PHOTO_FIELD);
+        String status = snapshot.getString(STATUS_FIELD);
+        Date creationDate = snapshot.getDate(CREATION_DATE_FIELD);
+
+        user.setUid(snapshot.getId());
+        user.setEmail(snapshot.getString(EMAIL_FIELD));
+        user.setPhoneNumber(snapshot.getString(PHONE_NUMBER_FIELD));
+        user.setPhoto(photo);
+        user.setPhotoVariants(PhotoVariants.of(snapshot, photo));
+        user.setVersion(EntityVersion.of(snapshot));
+        user.setStatus(status != null ? UserStatus.valueOf(status) : null);
+        user.setCreationDate(creationDate != null
+                ? LocalDateTime.ofInstant(creationDate.toInstant(), ZoneId.systemDefault())
+                : null);
+    }
+
+    /**
+     * Gets the collection holding the users of a role.
+     *
+     * @param role the role
+     * @return the collection name
+     */
+    public String collection(UserRole role) {
+        return collections.get(role);
+    }
+
+    /**
+     * Updates projected fields after they were changed in Auth and waits for the write.
+     *
+     * @param documentReference the user document
+     * @param fields            the changed fields
+     * @return the update time of the write, or null if there was nothing to write
+     * @throws ExecutionException   the execution exception
+     * @throws InterruptedException the interrupted exception
+     */
+    public Timestamp update(DocumentReference documentReference, Map<String, Object> fields)
+            throws ExecutionException, InterruptedException {
+        if (fields.isEmpty()) {
+            return null;
+        }
+
+        return writePipeline.submit("projection.update", () -> documentReference.update(fields))
+                .get()
+                .getUpdateTime();
+    }
+
+    /**
+     * Updates the projected photo URL of a user.
+     *
+     * @param uid      the uid
+     * @param role     the role, selecting the user document
+     * @param photoUrl the photo url
+     * @throws ExecutionException   the execution exception
+     * @throws InterruptedException the interrupted exception
+     */
+    public void updatePhoto(String uid, UserRole role, String photoUrl)
+            throws ExecutionException, InterruptedException {
+        String collection = collections.get(role);
+        if (collection != null) {
+            update(firestore.collection(collection).document(uid), Map.of(PHOTO_FIELD, photoUrl));
+        }
+    }
+}
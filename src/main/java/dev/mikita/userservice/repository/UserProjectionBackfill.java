@@ -0,0 +1,246 @@
+package dev.mikita.userservice.repository;
+
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.WriteBatch;
+import com.google.firebase.auth.UserRecord;
+import dev.mikita.userservice.entity.UserRole;
+import dev.mikita.userservice.util.FirebaseAuthUtil;
+import dev.mikita.userservice.util.FirestoreWrites;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One-off migration writing the {@link UserProjection} onto the user documents that do not hold it yet, which
+ * listings depend on. Opt-in with {@code app.users.projection.backfill.enabled=true}, set for a single instance
+ * and a single deploy: it runs in the background once that instance is ready, and a completed run is recorded in
+ * a marker document, so later startups with the flag left on read that one document instead of every user. Pages of every collection are processed in parallel,
+ * each page with one batched Auth lookup and one batched write conditioned on the update time of every document,
+ * so a user written meanwhile is not overwritten with the Auth state read before; such a page is read again.
+ * Documents without a matching Auth account are left out and so stay out of listings, as before.
+ */
+@Component
+@ConditionalOnProperty(name = "app.users.projection.backfill.enabled", havingValue = "true")
+public class UserProjectionBackfill {
+    private static final Logger LOG = LoggerFactory.getLogger(UserProjectionBackfill.class);
+    private static final int MAX_PAGE_ATTEMPTS = 3;
+    private static final String MARKER_ID = "user-projection-backfill";
+
+    private final Firestore firestore;
+    private final FirebaseAuthUtil firebaseAuthUtil;
+    private final UserProjection userProjection;
+    private final DocumentReference marker;
+    private final int parallelism;
+    private final int pageSize;
+    private final Counter updated;
+    private final Counter skipped;
+    private final Counter failedPages;
+
+    /**
+     * Instantiates a new User projection backfill.
+     *
+     * @param firestore        the firestore
+     * @param firebaseAuthUtil the firebase auth util
+     * @param userProjection   the user projection
+     * @param meterRegistry    the meter registry
+     * @param parallelism      the number of pages processed at once
+     * @param pageSize         the number of documents per page, at most one Auth batch
+     * @param markerCollection the collection of the document recording a completed run
+     */
+    @Autowired
+    public UserProjectionBackfill(Firestore firestore,
+                                  FirebaseAuthUtil firebaseAuthUtil,
+                                  UserProjection userProjection,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${app.users.projection.backfill.parallelism:4}") int parallelism,
+                                  @Value("${app.users.projection.backfill.page-size:100}") int pageSize,
+                                  @Value("${app.users.projection.backfill.marker-collection:migrations}")
+                                  String markerCollection) {
+        this.firestore = firestore;
+        this.firebaseAuthUtil = firebaseAuthUtil;
+        this.userProjection = userProjection;
+        this.marker = firestore.collection(markerCollection).document(MARKER_ID);
+        this.parallelism = Math.max(1, parallelism);
+        this.pageSize = Math.max(1, Math.min(pageSize, FirebaseAuthUtil.MAX_BATCH_SIZE));
+        this.updated = counter(meterRegistry, "updated");
+        this.skipped = counter(meterRegistry, "skipped");
+        this.failedPages = Counter.builder("users.projection.backfill.failed.pages")
+                .description("Backfill pages that failed and must be run again")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Starts the backfill once the application is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        Thread thread = new Thread(this::run, "user-projection-backfill");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run() {
+        try {
+            if (marker.get().get().exists()) {
+                LOG.info("User projection backfill already completed, skipping");
+                return;
+            }
+        } catch (Exception e) {
+            LOG.error("User projection backfill could not read its marker, not started", e);
+            return;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        Semaphore permits = new Semaphore(parallelism * 2);
+        boolean complete = true;
+
+        try {
+            for (UserRole role : UserRole.values()) {
+                String collection = userProjection.collection(role);
+                if (collection != null) {
+                    backfill(role, firestore.collection(collection), executor, permits);
+                }
+            }
+        } catch (Exception e) {
+            complete = false;
+            LOG.error("User projection backfill stopped", e);
+        } finally {
+            executor.shutdown();
+        }
+
+        try {
+            if (executor.awaitTermination(1, TimeUnit.HOURS)) {
+                LOG.info("User projection backfill finished: {} updated, {} skipped, {} failed pages",
+                        (long) updated.count(), (long) skipped.count(), (long) failedPages.count());
+                // A run with failed pages is not recorded, so the next startup with the flag on repeats it
+                if (complete && failedPages.count() == 0) {
+                    marker.set(Map.of("completedAt", FieldValue.serverTimestamp(),
+                            "updated", (long) updated.count(), "skipped", (long) skipped.count())).get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error("User projection backfill finished but could not record it", e);
+        }
+    }
+
+    private void backfill(UserRole role, CollectionReference collectionReference, ExecutorService executor,
+                          Semaphore permits) throws Exception {
+        Query query = collectionReference.orderBy(FieldPath.documentId()).limit(pageSize);
+        List<QueryDocumentSnapshot> page;
+
+        do {
+            page = query.get().get().getDocuments();
+            if (page.isEmpty()) {
+                break;
+            }
+
+            // Pages are read sequentially, the Auth lookups and writes of several pages overlap
+            List<QueryDocumentSnapshot> documents = page;
+            permits.acquire();
+            executor.execute(() -> {
+                try {
+                    backfillPage(role, documents);
+                } catch (Exception e) {
+                    failedPages.increment();
+                    LOG.error("Failed to backfill a page of {} users", role, e);
+                } finally {
+                    permits.release();
+                }
+            });
+
+            query = collectionReference.orderBy(FieldPath.documentId())
+                    .startAfter(page.get(page.size() - 1))
+                    .limit(pageSize);
+        } while (page.size() == pageSize);
+    }
+
+    private void backfillPage(UserRole role, List<? extends DocumentSnapshot> documents) throws Exception {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                writePage(role, documents);
+                return;
+            } catch (ExecutionException e) {
+                if (attempt >= MAX_PAGE_ATTEMPTS || !FirestoreWrites.isPreconditionFailed(e)) {
+                    throw e;
+                }
+
+                // A user of the page was written since it was read
+                documents = firestore.getAll(documents.stream()
+                        .map(DocumentSnapshot::getReference)
+                        .toArray(DocumentReference[]::new)).get();
+            }
+        }
+    }
+
+    private void writePage(UserRole role, List<? extends DocumentSnapshot> documents) throws Exception {
+        // Written by a registration or a previous run, kept current by the write paths since
+        List<? extends DocumentSnapshot> missing = documents.stream()
+                .filter(document -> document.exists() && !document.contains(UserProjection.ROLE_FIELD))
+                .toList();
+        if (missing.isEmpty()) {
+            return;
+        }
+
+        Map<String, UserRecord> userRecords = firebaseAuthUtil.getUsers(missing.stream()
+                .map(DocumentSnapshot::getId)
+                .toList());
+
+        WriteBatch batch = firestore.batch();
+        int writes = 0;
+
+        for (DocumentSnapshot document : missing) {
+            UserRecord userRecord = userRecords.get(document.getId());
+            if (userRecord == null || !role.toString().equals(String.valueOf(userRecord.getCustomClaims().get("role")))) {
+                skipped.increment();
+                continue;
+            }
+
+            Map<String, Object> fields = UserProjection.fields(userRecord, role);
+
+            // Employee documents had no status, their claims hold it
+            Object status = userRecord.getCustomClaims().get("status");
+            if (!document.contains(UserProjection.STATUS_FIELD) && status != null) {
+                fields.put(UserProjection.STATUS_FIELD, status.toString());
+            }
+
+            batch.update(document.getReference(), fields, Precondition.updatedAt(document.getUpdateTime()));
+            writes++;
+        }
+
+        if (writes > 0) {
+            batch.commit().get();
+            updated.increment(writes);
+        }
+    }
+
+    private static Counter counter(MeterRegistry meterRegistry, String result) {
+        return Counter.builder("users.projection.backfill.documents")
+                .description("User documents visited by the projection backfill by result")
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
@@ -0,0 +1,208 @@
+package dev.mikita.userservice.repository;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.GetUsersResult;
+import com.google.firebase.auth.UidIdentifier;
+import com.google.firebase.auth.UserIdentifier;
+import com.google.firebase.auth.UserRecord;
+import dev.mikita.userservice.exception.NotFoundException;
+import dev.mikita.userservice.util.FirebaseAuthUtil;
+import dev.mikita.userservice.util.FutureUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Merges single user lookups issued across concurrent requests into batched {@link FirebaseAuth#getUsersAsync}
+ * calls. A batch is dispatched when its window elapses or when it reaches the maximum size; a uid already
+ * queued or in flight shares the existing future. Uids without an Auth account fail with {@link NotFoundException}.
+ */
+@Component
+public class UserRecordLoader {
+    private final FirebaseAuth firebaseAuth;
+    private final long windowNanos;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService scheduler;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Map<String, CompletableFuture<UserRecord>> inFlight = new HashMap<>();
+    private final DistributionSummary batchSize;
+    private final Counter callsSaved;
+
+    private Map<String, CompletableFuture<UserRecord>> batch = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledDispatch;
+
+    /**
+     * Instantiates a new User record loader.
+     *
+     * @param firebaseAuth  the firebase auth
+     * @param meterRegistry the meter registry
+     * @param window        how long a batch collects uids before it is dispatched
+     * @param maxBatchSize  the number of uids that dispatches a batch immediately
+     */
+    @Autowired
+    public UserRecordLoader(FirebaseAuth firebaseAuth,
+                            MeterRegistry meterRegistry,
+                            @Value("${app.auth.user-loader.window:3ms}") Duration window,
+                            @Value("${app.auth.user-loader.max-batch-size:100}") int maxBatchSize) {
+        this.firebaseAuth = firebaseAuth;
+        this.windowNanos = window.toNanos();
+        this.maxBatchSize = Math.min(Math.max(1, maxBatchSize), FirebaseAuthUtil.MAX_BATCH_SIZE);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "user-record-loader");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.batchSize = DistributionSummary.builder("firebase.auth.batch.size")
+                .description("Uids resolved per batched Auth lookup")
+                .register(meterRegistry);
+        this.callsSaved = Counter.builder("firebase.auth.calls.saved")
+                .description("Auth lookups avoided by batching and deduplication")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Loads a user record in the next batch.
+     *
+     * @param uid the uid
+     * @return the user record future
+     */
+    public CompletableFuture<UserRecord> load(String uid) {
+        CompletableFuture<UserRecord> future;
+        Map<String, CompletableFuture<UserRecord>> fullBatch = null;
+
+        lock.lock();
+        try {
+            future = inFlight.get(uid);
+            if (future != null) {
+                callsSaved.increment();
+                return future;
+            }
+
+            future = new CompletableFuture<>();
+            inFlight.put(uid, future);
+            batch.put(uid, future);
+
+            if (batch.size() >= maxBatchSize) {
+                fullBatch = takeBatch();
+            } else if (batch.size() == 1) {
+                scheduledDispatch = scheduler.schedule(this::dispatchScheduled, windowNanos, TimeUnit.NANOSECONDS);
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (fullBatch != null) {
+            dispatch(fullBatch);
+        }
+        return future;
+    }
+
+    /**
+     * Stops the dispatch scheduler.
+     */
+    @PreDestroy
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    private void dispatchScheduled() {
+        Map<String, CompletableFuture<UserRecord>> dueBatch;
+
+        lock.lock();
+        try {
+            dueBatch = takeBatch();
+        } finally {
+            lock.unlock();
+        }
+
+        if (!dueBatch.isEmpty()) {
+            dispatch(dueBatch);
+        }
+    }
+
+    // Must be called while holding the lock
+    private Map<String, CompletableFuture<UserRecord>> takeBatch() {
+        Map<String, CompletableFuture<UserRecord>> taken = batch;
+        batch = new LinkedHashMap<>();
+
+        if (scheduledDispatch != null) {
+            scheduledDispatch.cancel(false);
+            scheduledDispatch = null;
+        }
+        return taken;
+    }
+
+    private void dispatch(Map<String, CompletableFuture<UserRecord>> dispatched) {
+        batchSize.record(dispatched.size());
+        callsSaved.increment(dispatched.size() - 1);
+
+        // A malformed uid cannot have an account, it must not fail the lookups it was batched with
+        Map<String, CompletableFuture<UserRecord>> requested = new LinkedHashMap<>();
+        Map<String, CompletableFuture<UserRecord>> malformed = new HashMap<>();
+        List<UserIdentifier> identifiers = new ArrayList<>(dispatched.size());
+        dispatched.forEach((uid, future) -> {
+            try {
+                identifiers.add(new UidIdentifier(uid));
+                requested.put(uid, future);
+            } catch (RuntimeException e) {
+                malformed.put(uid, future);
+            }
+        });
+
+        if (!malformed.isEmpty()) {
+            complete(malformed, null, null);
+        }
+        if (requested.isEmpty()) {
+            return;
+        }
+
+        // Every future must complete, or the requests waiting on it and later lookups of its uid hang
+        try {
+            FutureUtil.toCompletableFuture(firebaseAuth.getUsersAsync(identifiers))
+                    .whenComplete((result, e) -> complete(requested, result, e));
+        } catch (RuntimeException e) {
+            complete(requested, null, e);
+        }
+    }
+
+    private void complete(Map<String, CompletableFuture<UserRecord>> dispatched, GetUsersResult result, Throwable e) {
+        Map<String, UserRecord> userRecords = new HashMap<>();
+        if (result != null) {
+            result.getUsers().forEach(userRecord -> userRecords.put(userRecord.getUid(), userRecord));
+        }
+
+        lock.lock();
+        try {
+            dispatched.forEach(inFlight::remove);
+        } finally {
+            lock.unlock();
+        }
+
+        // Complete outside the lock, dependent stages run on this thread
+        dispatched.forEach((uid, future) -> {
+            if (e != null) {
+                future.completeExceptionally(e);
+            } else if (userRecords.containsKey(uid)) {
+                future.complete(userRecords.get(uid));
+            } else {
+                future.completeExceptionally(NotFoundException.create("User", uid));
+            }
+        });
+    }
+}
@@ -0,0 +1,199 @@
+package dev.mikita.userservice.repository;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.UserRecord;
+import dev.mikita.userservice.entity.User;
+import dev.mikita.userservice.event.EntityChangedEvent;
+import dev.mikita.userservice.util.FirebaseAuthUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Shared, bounded cache of Firebase Auth {@link UserRecord}s used by all user repositories.
+ * Writes made through this instance invalidate the entry immediately, writes made by other instances
+ * when their invalidation arrives; the TTL bounds staleness if it never does. Lookups load through the
+ * cache, so an invalidation also discards a lookup still in flight instead of letting it put the record
+ * read before the write back.
+ */
+@Component
+public class UserRecordProvider {
+    private final UserRecordLoader userRecordLoader;
+    private final FirebaseAuthUtil firebaseAuthUtil;
+    private final RequestIdentityMap requestIdentityMap;
+    private final MeterRegistry meterRegistry;
+    private final AsyncCache<String, UserRecord> cache;
+    private final Map<String, CallerCounters> callerCounters = new ConcurrentHashMap<>();
+
+    /**
+     * Instantiates a new User record provider.
+     *
+     * @param userRecordLoader   the user record loader
+     * @param firebaseAuthUtil   the firebase auth util
+     * @param requestIdentityMap the request identity map
+     * @param meterRegistry      the meter registry
+     * @param ttl                the time to live of an entry
+     * @param maximumSize        the maximum number of entries
+     */
+    @Autowired
+    public UserRecordProvider(UserRecordLoader userRecordLoader,
+                              FirebaseAuthUtil firebaseAuthUtil,
+                              RequestIdentityMap requestIdentityMap,
+                              MeterRegistry meterRegistry,
+                              @Value("${app.auth.user-cache.ttl:60s}") Duration ttl,
+                              @Value("${app.auth.user-cache.maximum-size:10000}") long maximumSize) {
+        this.userRecordLoader = userRecordLoader;
+        this.firebaseAuthUtil = firebaseAuthUtil;
+        this.requestIdentityMap = requestIdentityMap;
+        this.meterRegistry = meterRegistry;
+        this.cache = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maximumSize)
+                .recordStats()
+                .buildAsync();
+
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "userRecords");
+    }
+
+    /**
+     * Gets a user record.
+     *
+     * @param uid    the uid
+     * @param caller the caller, used to tag hit and miss counters
+     * @return the user record
+     * @throws FirebaseAuthException the firebase auth exception
+     */
+    public UserRecord get(String uid, String caller) throws FirebaseAuthException {
+        try {
+            return getAsync(uid, caller).join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /**
+     * Gets user records, fetching only the missing ones in batches. Unknown uids are absent from the result.
+     *
+     * @param uids   the uids
+     * @param caller the caller, used to tag hit and miss counters
+     * @return the user records keyed by uid, in request order
+     * @throws FirebaseAuthException the firebase auth exception
+     */
+    public Map<String, UserRecord> getAll(Collection<String> uids, String caller) throws FirebaseAuthException {
+        Set<String> uniqueUids = new LinkedHashSet<>(uids);
+        int present = cache.synchronous().getAllPresent(uniqueUids).size();
+
+        CallerCounters counters = counters(caller);
+        counters.hits().increment(present);
+        counters.misses().increment(uniqueUids.size() - present);
+
+        Map<String, UserRecord> loaded;
+        try {
+            loaded = cache.getAll(uniqueUids, missing -> {
+                requestIdentityMap.recordAuthRead();
+                try {
+                    return firebaseAuthUtil.getUsers(List.copyOf(missing));
+                } catch (FirebaseAuthException e) {
+                    throw new CompletionException(e);
+                }
+            }).join();
+        } catch (CompletionException e) {
+            throw unwrap(e);
+        }
+
+        Map<String, UserRecord> userRecords = new LinkedHashMap<>();
+        for (String uid : uniqueUids) {
+            UserRecord userRecord = loaded.get(uid);
+            if (userRecord != null) {
+                userRecords.put(uid, userRecord);
+            }
+        }
+        return userRecords;
+    }
+
+    /**
+     * Gets a user record without blocking.
+     *
+     * @param uid    the uid
+     * @param caller the caller, used to tag hit and miss counters
+     * @return the user record future
+     */
+    public CompletableFuture<UserRecord> getAsync(String uid, String caller) {
+        return requestIdentityMap.getUserRecord(uid, () -> {
+            CompletableFuture<UserRecord> userRecord = cache.getIfPresent(uid);
+            if (userRecord != null) {
+                counters(caller).hits().increment();
+                return userRecord;
+            }
+
+            counters(caller).misses().increment();
+            return cache.get(uid, (key, executor) -> {
+                requestIdentityMap.recordAuthRead();
+                return userRecordLoader.load(key);
+            });
+        });
+    }
+
+    /**
+     * Invalidates the cached record of a user. Must be called after any write to the user.
+     *
+     * @param uid the uid
+     */
+    public void invalidate(String uid) {
+        cache.synchronous().invalidate(uid);
+        requestIdentityMap.evictUserRecord(uid);
+    }
+
+    /**
+     * Invalidates the cached record of a user changed by another instance.
+     *
+     * @param event the event
+     */
+    @EventListener
+    public void onEntityChanged(EntityChangedEvent event) {
+        if (event.remote() && User.class.isAssignableFrom(event.entityType())) {
+            cache.synchronous().invalidate(event.uid());
+        }
+    }
+
+    private static FirebaseAuthException unwrap(CompletionException e) {
+        if (e.getCause() instanceof FirebaseAuthException firebaseAuthException) {
+            return firebaseAuthException;
+        }
+        if (e.getCause() instanceof RuntimeException runtimeException) {
+            throw runtimeException;
+        }
+        throw e;
+    }
+
+    private CallerCounters counters(String caller) {
+        return callerCounters.computeIfAbsent(caller, key -> new CallerCounters(
+                counter(key, "hit"), counter(key, "miss")));
+    }
+
+    private Counter counter(String caller, String result) {
+        return Counter.builder("user.record.cache.requests")
+                .description("User record lookups by caller and result")
+                .tag("caller", caller)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+    private record CallerCounters(Counter hits, Counter misses) {}
+}
@@ -0,0 +1,217 @@
+package dev.mikita.userservice.repository;
+
+import com.google.api.core.ApiFuture;
+import dev.mikita.userservice.util.FirestoreWrites;
+import dev.mikita.userservice.util.FutureUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.SmartLifecycle;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Issues Firestore writes that callers do not wait for, while keeping track of them. At most
+ * {@code max-in-flight} writes run at once; further callers block until a slot frees up or the acquire
+ * timeout elapses, or are rejected at once with {@link #trySubmit}. Transient failures are retried with
+ * exponential backoff, final failures are logged and counted. On graceful shutdown new writes are rejected
+ * and in-flight writes are drained.
+ */
+@Component
+public class WritePipeline implements SmartLifecycle {
+    private static final Logger LOG = LoggerFactory.getLogger(WritePipeline.class);
+
+    private final int maxInFlight;
+    private final Semaphore permits;
+    private final Duration acquireTimeout;
+    private final int maxAttempts;
+    private final Duration initialBackoff;
+    private final Duration drainTimeout;
+    private final ScheduledExecutorService retryScheduler;
+    private final MeterRegistry meterRegistry;
+    private final Counter failures;
+    private final Counter retries;
+
+    private volatile boolean running;
+
+    /**
+     * Instantiates a new Write pipeline.
+     *
+     * @param meterRegistry  the meter registry
+     * @param maxInFlight    the number of writes allowed to run at once
+     * @param acquireTimeout how long a caller waits for a free slot before the write is rejected
+     * @param maxAttempts    the number of attempts of a write failing with a transient error
+     * @param initialBackoff the delay before the first retry, doubled for every further retry
+     * @param drainTimeout   how long shutdown waits for in-flight writes
+     */
+    @Autowired
+    public WritePipeline(MeterRegistry meterRegistry,
+                         @Value("${app.firestore.writes.max-in-flight:128}") int maxInFlight,
+                         @Value("${app.firestore.writes.acquire-timeout:5s}") Duration acquireTimeout,
+                         @Value("${app.firestore.writes.max-attempts:3}") int maxAttempts,
+                         @Value("${app.firestore.writes.initial-backoff:100ms}") Duration initialBackoff,
+                         @Value("${app.firestore.writes.drain-timeout:20s}") Duration drainTimeout) {
+        this.maxInFlight = Math.max(1, maxInFlight);
+        this.permits = new Semaphore(this.maxInFlight, true);
+        this.acquireTimeout = acquireTimeout;
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.initialBackoff = initialBackoff;
+        this.drainTimeout = drainTimeout;
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "firestore-write-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.meterRegistry = meterRegistry;
+        this.failures = Counter.builder("firestore.write.failures")
+                .description("Writes that failed after all attempts")
+                .register(meterRegistry);
+        this.retries = Counter.builder("firestore.write.retries")
+                .description("Write attempts repeated after a transient failure")
+                .register(meterRegistry);
+
+        Gauge.builder("firestore.write.in.flight", this, pipeline -> pipeline.maxInFlight - pipeline.permits.availablePermits())
+                .description("Writes issued and not yet completed")
+                .register(meterRegistry);
+        Gauge.builder("firestore.write.waiting", permits, Semaphore::getQueueLength)
+                .description("Callers blocked waiting for a free write slot")
+                .register(meterRegistry);
+    }
+
+    /**
+     * Submits a write. Blocks while the pipeline is saturated.
+     *
+     * @param operation the operation name, used in metrics and logs
+     * @param write     issues the write, called again for every retry
+     * @param <T>       the result type, a write result or the results of a batch or transaction
+     * @return the write result future, failed if the write failed after all attempts
+     * @throws RejectedExecutionException if the pipeline is shutting down or no slot freed up in time
+     */
+    public <T> CompletableFuture<T> submit(String operation, Supplier<ApiFuture<T>> write) {
+        if (!running) {
+            throw new RejectedExecutionException("Write pipeline is not accepting writes");
+        }
+
+        try {
+            if (!permits.tryAcquire(acquireTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new RejectedExecutionException("Too many Firestore writes in flight");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Interrupted while waiting for a write slot", e);
+        }
+
+        return issue(operation, write);
+    }
+
+    /**
+     * Submits a write without waiting for a free slot, for callers that must not block.
+     *
+     * @param operation the operation name, used in metrics and logs
+     * @param write     issues the write, called again for every retry
+     * @param <T>       the result type, a write result or the results of a batch or transaction
+     * @return the write result future, failed if the write failed after all attempts
+     * @throws RejectedExecutionException if the pipeline is shutting down or saturated
+     */
+    public <T> CompletableFuture<T> trySubmit(String operation, Supplier<ApiFuture<T>> write) {
+        if (!running) {
+            throw new RejectedExecutionException("Write pipeline is not accepting writes");
+        }
+        if (!permits.tryAcquire()) {
+            throw new RejectedExecutionException("Too many Firestore writes in flight");
+        }
+
+        return issue(operation, write);
+    }
+
+    private <T> CompletableFuture<T> issue(String operation, Supplier<ApiFuture<T>> write) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        Timer.Sample sample = Timer.start(meterRegistry);
+        attempt(operation, write, 1, result);
+
+        return result.whenComplete((writeResult, e) -> {
+            permits.release();
+            sample.stop(Timer.builder("firestore.write.latency")
+                    .description("Time from submission until a write completed, including retries")
+                    .tag("operation", operation)
+                    .tag("outcome", e == null ? "success" : "failure")
+                    .register(meterRegistry));
+        });
+    }
+
+    private <T> void attempt(String operation, Supplier<ApiFuture<T>> write, int attempt,
+                             CompletableFuture<T> result) {
+        CompletableFuture<T> future;
+        try {
+            future = FutureUtil.toCompletableFuture(write.get());
+        } catch (RuntimeException e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+
+        future.whenComplete((writeResult, e) -> {
+            if (e == null) {
+                result.complete(writeResult);
+            } else if (attempt < maxAttempts && FirestoreWrites.isRetryable(e) && !retryScheduler.isShutdown()) {
+                retries.increment();
+                long delay = initialBackoff.toMillis() << (attempt - 1);
+                retryScheduler.schedule(() -> attempt(operation, write, attempt + 1, result),
+                        delay, TimeUnit.MILLISECONDS);
+            } else {
+                failures.increment();
+                LOG.error("Firestore write {} failed after {} attempt(s)", operation, attempt, e);
+                result.completeExceptionally(e);
+            }
+        });
+    }
+
+    @Override
+    public void start() {
+        running = true;
+    }
+
+    @Override
+    public void stop() {
+        running = false;
+
+        // Every permit is back once all in-flight writes completed
+        try {
+            if (permits.tryAcquire(maxInFlight, drainTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                permits.release(maxInFlight);
+            } else {
+                LOG.warn("Shutting down with {} Firestore writes still in flight",
+                        maxInFlight - permits.availablePermits());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            retryScheduler.shutdown();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Stops after the web server finished its graceful shutdown, so writes issued by the last requests drain.
+     *
+     * @return the phase
+     */
+    @Override
+    public int getPhase() {
+        return SmartLifecycle.DEFAULT_PHASE - 2048;
+    }
+}
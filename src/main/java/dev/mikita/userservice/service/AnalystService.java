@@ -1,16 +1,16 @@
 package dev.mikita.userservice.service;
 
+import com.google.cloud.firestore.Precondition;
 import com.google.firebase.auth.FirebaseAuthException;
 import dev.mikita.userservice.entity.Analyst;
 import dev.mikita.userservice.entity.UserStatus;
 import dev.mikita.userservice.repository.AnalystRepository;
 import dev.mikita.userservice.util.Pageable;
 import dev.mikita.userservice.util.PagedResult;
-import org.modelmapper.Conditions;
-import org.modelmapper.ModelMapper;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 @Service
@@ -22,7 +22,8 @@ public class AnalystService {
         this.analystRepository = analystRepository;
     }
 
-    public PagedResult<Analyst> getAnalysts(List<UserStatus> statuses, Pageable pageable) {
+    public PagedResult<Analyst> getAnalysts(List<UserStatus> statuses, Pageable pageable)
+            throws ExecutionException, InterruptedException {
         return analystRepository.findAll(statuses, pageable);
     }
 
@@ -30,25 +31,26 @@ public class AnalystService {
         return analystRepository.find(uid);
     }
 
+    public CompletableFuture<Analyst> getAnalystAsync(String uid) {
+        return analystRepository.findAsync(uid);
+    }
+
     public void createAnalyst(Analyst analyst) throws ExecutionException, InterruptedException, FirebaseAuthException {
         analystRepository.persist(analyst);
     }
 
-    public Analyst updateAnalyst(Analyst analyst) throws ExecutionException, InterruptedException, FirebaseAuthException {
-        Analyst toUpdateAnalyst = analystRepository.find(analyst.getUid());
-
-        ModelMapper modelMapper = new ModelMapper();
-        modelMapper.getConfiguration().setPropertyCondition(Conditions.isNotNull());
-        modelMapper.map(analyst, toUpdateAnalyst);
-
-        return analystRepository.update(toUpdateAnalyst);
+    public Analyst updateAnalyst(Analyst analyst, Precondition precondition)
+            throws ExecutionException, InterruptedException, FirebaseAuthException {
+        analystRepository.update(analyst, precondition);
+        return analystRepository.find(analyst.getUid());
     }
 
     public void updateAnalystStatus(String uid, UserStatus status)
             throws ExecutionException, InterruptedException, FirebaseAuthException {
-        Analyst analyst = analystRepository.find(uid);
+        Analyst analyst = new Analyst();
+        analyst.setUid(uid);
         analyst.setStatus(status);
-        analystRepository.update(analyst);
+        analystRepository.update(analyst, Precondition.NONE);
     }
 
     public void deleteAnalyst(String uid) throws FirebaseAuthException {
@@ -1,15 +1,15 @@
 package dev.mikita.userservice.service;
 
+import com.google.cloud.firestore.Precondition;
 import com.google.firebase.auth.FirebaseAuthException;
 import dev.mikita.userservice.entity.Department;
 import dev.mikita.userservice.repository.DepartmentRepository;
 import dev.mikita.userservice.util.Pageable;
 import dev.mikita.userservice.util.PagedResult;
-import org.modelmapper.Conditions;
-import org.modelmapper.ModelMapper;
 import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 @Service
@@ -24,6 +24,10 @@ public class DepartmentService {
         return departmentRepository.find(uid);
     }
 
+    public CompletableFuture<Department> getDepartmentAsync(String uid) {
+        return departmentRepository.findAsync(uid);
+    }
+
     public PagedResult<Department> getDepartmentsByServiceUid(String serviceUid, Pageable pageable)
             throws ExecutionException, InterruptedException {
         return departmentRepository.findByServiceUid(serviceUid, pageable);
@@ -35,16 +39,10 @@ public class DepartmentService {
         departmentRepository.persist(department);
     }
 
-    public Department updateDepartment(Department department)
+    public Department updateDepartment(Department department, Precondition precondition)
             throws ExecutionException, InterruptedException, FirebaseAuthException {
-        Department oldDepartment = departmentRepository.find(department.getUid());
-
-        ModelMapper modelMapper = new ModelMapper();
-        modelMapper.getConfiguration().setPropertyCondition(Conditions.isNotNull());
-        modelMapper.getConfiguration().setCollectionsMergeEnabled(false);
-        modelMapper.map(department, oldDepartment);
-
-        return departmentRepository.update(oldDepartment);
+        departmentRepository.update(department, precondition);
+        return departmentRepository.find(department.getUid());
     }
 
     public void deleteDepartment(String uid) throws FirebaseAuthException {
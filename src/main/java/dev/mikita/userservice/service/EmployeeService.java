@@ -1,16 +1,20 @@
 package dev.mikita.userservice.service;
 
+import com.google.cloud.firestore.Precondition;
 import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.FirebaseToken;
 import dev.mikita.userservice.entity.Department;
 import dev.mikita.userservice.entity.Employee;
 import dev.mikita.userservice.exception.NotFoundException;
 import dev.mikita.userservice.repository.DepartmentRepository;
 import dev.mikita.userservice.repository.EmployeeRepository;
+import dev.mikita.userservice.util.ClaimsUpdateTracker;
 import dev.mikita.userservice.util.Pageable;
 import dev.mikita.userservice.util.PagedResult;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 @Service
@@ -30,7 +34,12 @@ public class EmployeeService {
         return employeeRepository.find(uid);
     }
 
-    public PagedResult<Employee> getEmployeesByServiceUid(String serviceUid, Pageable pageable) {
+    public CompletableFuture<Employee> getEmployeeAsync(String uid) {
+        return employeeRepository.findAsync(uid);
+    }
+
+    public PagedResult<Employee> getEmployeesByServiceUid(String serviceUid, Pageable pageable)
+            throws ExecutionException, InterruptedException {
         return employeeRepository.findAllByServiceUid(serviceUid, pageable);
     }
 
@@ -51,17 +60,15 @@ public class EmployeeService {
         employeeRepository.persist(employee);
     }
 
-    public Employee updateEmployee(Employee employee)
+    public Employee updateEmployee(Employee employee, Precondition precondition)
             throws FirebaseAuthException, ExecutionException, InterruptedException {
-        return employeeRepository.update(employee);
+        employeeRepository.update(employee, precondition);
+        return employeeRepository.find(employee.getUid());
     }
 
     public void deleteEmployee(String uid) throws FirebaseAuthException, ExecutionException, InterruptedException {
-        Employee employee = employeeRepository.find(uid);
-        if (employeeRepository.find(employee.getUid()) == null) {
-            throw new NotFoundException("Employee not found");
-        }
-
+        // Throws if the employee does not exist
+        employeeRepository.find(uid);
         employeeRepository.delete(uid);
     }
 
@@ -71,6 +78,32 @@ public class EmployeeService {
         return employee.getDepartmentUid().equals(departmentUid);
     }
 
+    public CompletableFuture<Boolean> isEmployeeInDepartmentAsync(String employeeUid, String departmentUid) {
+        return employeeRepository.findAsync(employeeUid)
+                .thenApply(employee -> employee.getDepartmentUid().equals(departmentUid));
+    }
+
+    /**
+     * Checks department membership of the calling employee from the claims of their verified token.
+     * Only the employee document is read, to learn when the claims last changed; the employee is looked up
+     * in full when the token may carry claims from before that change.
+     *
+     * @param token         the verified token of the employee
+     * @param departmentUid the department uid
+     * @return the membership future
+     */
+    public CompletableFuture<Boolean> isEmployeeInDepartmentAsync(FirebaseToken token, String departmentUid) {
+        Object departmentClaim = token.getClaims().get("departmentUid");
+        if (departmentClaim == null) {
+            return isEmployeeInDepartmentAsync(token.getUid(), departmentUid);
+        }
+
+        return employeeRepository.findDocumentAsync(token.getUid()).thenCompose(snapshot ->
+                ClaimsUpdateTracker.isStale(token, snapshot)
+                        ? isEmployeeInDepartmentAsync(token.getUid(), departmentUid)
+                        : CompletableFuture.completedFuture(departmentUid.equals(departmentClaim.toString())));
+    }
+
     public boolean isEmployeeInService(String employeeUid, String serviceUid)
             throws ExecutionException, InterruptedException, FirebaseAuthException {
         Employee employee = employeeRepository.find(employeeUid);
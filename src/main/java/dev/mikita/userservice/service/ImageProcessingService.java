@@ -0,0 +1,299 @@
+package dev.mikita.userservice.service;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.firebase.auth.FirebaseAuth;
+import dev.mikita.userservice.entity.User;
+import dev.mikita.userservice.entity.UserRole;
+import dev.mikita.userservice.event.EntityChangedEvent;
+import dev.mikita.userservice.util.FirebaseStorageUtil;
+import dev.mikita.userservice.util.PhotoVariants;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Service;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Produces resized variants of uploaded user photos in the background.
+ * Jobs are queued on a dedicated, bounded executor; when the queue is full the job is dropped
+ * and the user keeps only the original photo.
+ */
+@Service
+public class ImageProcessingService {
+    private static final Logger LOG = LoggerFactory.getLogger(ImageProcessingService.class);
+
+    private final FirebaseStorageUtil firebaseStorageUtil;
+    private final FirebaseAuth firebaseAuth;
+    private final Firestore firestore;
+    private final ApplicationEventPublisher eventPublisher;
+    private final Map<UserRole, String> collections = new EnumMap<>(UserRole.class);
+    private final List<Integer> sizes;
+    private final long maxPixels;
+    private final ThreadPoolExecutor executor;
+    private final MeterRegistry meterRegistry;
+    private final Counter completedCounter;
+    private final Counter failedCounter;
+    private final Counter rejectedCounter;
+
+    /**
+     * Instantiates a new Image processing service.
+     *
+     * @param firebaseStorageUtil  the firebase storage util
+     * @param firebaseAuth         the firebase auth
+     * @param firestore            the firestore
+     * @param eventPublisher       the event publisher
+     * @param meterRegistry        the meter registry
+     * @param sizes                the variant sizes in pixels
+     * @param maxPixels            the largest width times height of a photo that is decoded
+     * @param threads              the number of worker threads
+     * @param queueCapacity        the queue capacity
+     * @param residentCollection   the resident collection name
+     * @param serviceCollection    the service collection name
+     * @param employeeCollection   the employee collection name
+     * @param analystCollection    the analyst collection name
+     */
+    @Autowired
+    public ImageProcessingService(FirebaseStorageUtil firebaseStorageUtil,
+                                  FirebaseAuth firebaseAuth,
+                                  Firestore firestore,
+                                  ApplicationEventPublisher eventPublisher,
+                                  MeterRegistry meterRegistry,
+                                  @Value("${app.images.variants.sizes:64,256,512}") List<Integer> sizes,
+                                  @Value("${app.images.variants.max-pixels:40000000}") long maxPixels,
+                                  @Value("${app.images.variants.threads:2}") int threads,
+                                  @Value("${app.images.variants.queue-capacity:100}") int queueCapacity,
+                                  @Value("${firebase.firestore.collections.resident}") String residentCollection,
+                                  @Value("${firebase.firestore.collections.service}") String serviceCollection,
+                                  @Value("${firebase.firestore.collections.employee}") String employeeCollection,
+                                  @Value("${firebase.firestore.collections.analyst}") String analystCollection) {
+        this.firebaseStorageUtil = firebaseStorageUtil;
+        this.firebaseAuth = firebaseAuth;
+        this.firestore = firestore;
+        this.eventPublisher = eventPublisher;
+        this.meterRegistry = meterRegistry;
+        this.sizes = List.copyOf(sizes);
+        this.maxPixels = maxPixels;
+
+        collections.put(UserRole.RESIDENT, residentCollection);
+        collections.put(UserRole.SERVICE, serviceCollection);
+        collections.put(UserRole.EMPLOYEE, employeeCollection);
+        collections.put(UserRole.ANALYST, analystCollection);
+
+        AtomicInteger threadNumber = new AtomicInteger();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "image-processing-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+
+        Gauge.builder("image.pipeline.queue.size", executor, e -> e.getQueue().size())
+                .description("Photo variant jobs waiting for a worker")
+                .register(meterRegistry);
+        Gauge.builder("image.pipeline.active", executor, ThreadPoolExecutor::getActiveCount)
+                .description("Photo variant jobs being processed")
+                .register(meterRegistry);
+        this.completedCounter = jobCounter("completed");
+        this.failedCounter = jobCounter("failed");
+        this.rejectedCounter = jobCounter("rejected");
+    }
+
+    /**
+     * Queues variant generation for a freshly uploaded photo. Returns immediately.
+     *
+     * @param uid      the uid
+     * @param role     the role of the user, selecting the document to record the variants on
+     * @param photoUrl the url of the original photo
+     */
+    public void submit(String uid, UserRole role, String photoUrl) {
+        String collection = collections.get(role);
+        if (collection == null) {
+            return;
+        }
+
+        try {
+            executor.execute(() -> process(uid, collection, photoUrl));
+        } catch (RejectedExecutionException e) {
+            rejectedCounter.increment();
+            LOG.warn("Photo variant queue is full, skipping variants of user {}", uid);
+        }
+    }
+
+    /**
+     * Deletes the variants produced from a photo.
+     *
+     * @param photoUrl the url of the original photo
+     */
+    public void deleteVariants(String photoUrl) {
+        String filePath = firebaseStorageUtil.parseFilePath(photoUrl);
+        for (Integer size : sizes) {
+            firebaseStorageUtil.deleteFile(variantPath(filePath, size));
+        }
+    }
+
+    /**
+     * Stops accepting jobs and waits briefly for queued ones.
+     *
+     * @throws InterruptedException the interrupted exception
+     */
+    @PreDestroy
+    public void shutdown() throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+            executor.shutdownNow();
+        }
+    }
+
+    private void process(String uid, String collection, String photoUrl) {
+        try {
+            String filePath = firebaseStorageUtil.parseFilePath(photoUrl);
+            String formatName = filePath.endsWith(".png") ? "png" : "jpg";
+            String contentType = formatName.equals("png") ? "image/png" : "image/jpeg";
+
+            byte[] original = stage("download", () -> firebaseStorageUtil.downloadFile(filePath));
+            BufferedImage image = stage("decode", () -> decode(original));
+
+            Map<String, String> variants = new HashMap<>();
+            for (Integer size : sizes) {
+                BufferedImage resized = stage("resize", () -> resize(image, size, formatName));
+                byte[] encoded = stage("encode", () -> encode(resized, formatName));
+                String url = stage("upload",
+                        () -> firebaseStorageUtil.uploadFile(variantPath(filePath, size), encoded, contentType));
+                variants.put(String.valueOf(size), url);
+            }
+
+            stage("record", () -> record(uid, collection, photoUrl, variants));
+            completedCounter.increment();
+        } catch (Exception e) {
+            failedCounter.increment();
+            LOG.error("Failed to produce photo variants of user {}", uid, e);
+        }
+    }
+
+    private Void record(String uid, String collection, String photoUrl, Map<String, String> variants)
+            throws Exception {
+        // The photo may have been replaced while the job was queued
+        if (!Objects.equals(photoUrl, firebaseAuth.getUser(uid).getPhotoUrl())) {
+            deleteVariants(photoUrl);
+            return null;
+        }
+
+        Map<String, Object> data = new HashMap<>();
+        data.put(PhotoVariants.FIELD, variants);
+        data.put(PhotoVariants.SOURCE_FIELD, photoUrl);
+        firestore.collection(collection).document(uid).update(data).get();
+        eventPublisher.publishEvent(new EntityChangedEvent(User.class, uid));
+        return null;
+    }
+
+    private BufferedImage decode(byte[] bytes) throws IOException {
+        try (ImageInputStream input = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes))) {
+            Iterator<ImageReader> readers = input != null ? ImageIO.getImageReaders(input) : null;
+            if (readers == null || !readers.hasNext()) {
+                throw new IOException("Unreadable image.");
+            }
+
+            ImageReader reader = readers.next();
+            try {
+                reader.setInput(input, true, true);
+
+                // The dimensions come from the header, a small file may declare a huge raster
+                int width = reader.getWidth(0);
+                int height = reader.getHeight(0);
+                if ((long) width * height > maxPixels) {
+                    throw new IOException("Image of " + width + "x" + height + " pixels is too large.");
+                }
+
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private static BufferedImage resize(BufferedImage image, int size, String formatName) {
+        double scale = Math.min(1.0, (double) size / Math.max(image.getWidth(), image.getHeight()));
+        int width = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int height = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        // JPEG has no alpha channel
+        int type = formatName.equals("png") ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage resized = new BufferedImage(width, height, type);
+
+        Graphics2D graphics = resized.createGraphics();
+        try {
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            graphics.drawImage(image, 0, 0, width, height, null);
+        } finally {
+            graphics.dispose();
+        }
+
+        return resized;
+    }
+
+    private static byte[] encode(BufferedImage image, String formatName) throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        if (!ImageIO.write(image, formatName, outputStream)) {
+            throw new IOException("No image writer for " + formatName + ".");
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static String variantPath(String filePath, int size) {
+        int extensionIndex = filePath.lastIndexOf('.');
+        return filePath.substring(0, extensionIndex) + "_" + size + filePath.substring(extensionIndex);
+    }
+
+    private <T> T stage(String stage, StageCallable<T> callable) throws Exception {
+        Timer.Sample sample = Timer.start(meterRegistry);
+        try {
+            return callable.call();
+        } finally {
+            sample.stop(Timer.builder("image.pipeline.stage")
+                    .description("Time spent in each photo variant stage")
+                    .tag("stage", stage)
+                    .register(meterRegistry));
+        }
+    }
+
+    private Counter jobCounter(String outcome) {
+        return Counter.builder("image.pipeline.jobs")
+                .description("Photo variant jobs by outcome")
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
+    @FunctionalInterface
+    private interface StageCallable<T> {
+        T call() throws Exception;
+    }
+}
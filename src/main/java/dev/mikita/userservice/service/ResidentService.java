@@ -1,18 +1,19 @@
 package dev.mikita.userservice.service;
 
+import com.google.cloud.firestore.Precondition;
 import com.google.firebase.auth.FirebaseAuthException;
-import dev.mikita.userservice.entity.Analyst;
 import dev.mikita.userservice.exception.NotFoundException;
 import dev.mikita.userservice.repository.ResidentRepository;
 import dev.mikita.userservice.entity.Resident;
 import dev.mikita.userservice.entity.UserStatus;
 import dev.mikita.userservice.util.Pageable;
 import dev.mikita.userservice.util.PagedResult;
-import org.modelmapper.Conditions;
-import org.modelmapper.ModelMapper;
+import dev.mikita.userservice.util.PublicProfileCache;
+import dev.mikita.userservice.util.PublicProfileCaches;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -21,18 +22,23 @@ import java.util.concurrent.ExecutionException;
 @Service
 public class ResidentService {
     private final ResidentRepository residentRepository;
+    private final PublicProfileCache<Resident> publicResidents;
 
     /**
      * Instantiates a new Resident service.
      *
-     * @param residentDao the resident dao
+     * @param residentDao         the resident dao
+     * @param publicProfileCaches the public profile caches
      */
     @Autowired
-    public ResidentService(ResidentRepository residentDao) {
+    public ResidentService(ResidentRepository residentDao, PublicProfileCaches publicProfileCaches) {
         this.residentRepository = residentDao;
+        this.publicResidents = publicProfileCaches.create("publicResidents", Resident.class,
+                residentRepository::findAsync);
     }
 
-    public PagedResult<Resident> getResidents(List<UserStatus> statuses, Pageable pageable) {
+    public PagedResult<Resident> getResidents(List<UserStatus> statuses, Pageable pageable)
+            throws ExecutionException, InterruptedException {
         return residentRepository.findAll(statuses, pageable);
     }
 
@@ -49,6 +55,26 @@ public class ResidentService {
         return residentRepository.find(uid);
     }
 
+    /**
+     * Gets resident without blocking the calling thread.
+     *
+     * @param uid the uid
+     * @return the resident future
+     */
+    public CompletableFuture<Resident> getResidentAsync(String uid) {
+        return residentRepository.findAsync(uid);
+    }
+
+    /**
+     * Gets resident for public profile reads, served from a stale-while-revalidate cache.
+     *
+     * @param uid the uid
+     * @return the resident future
+     */
+    public CompletableFuture<Resident> getPublicResidentAsync(String uid) {
+        return publicResidents.get(uid);
+    }
+
     /**
      * Create resident.
      *
@@ -62,26 +88,23 @@ public class ResidentService {
     /**
      * Update resident resident.
      *
-     * @param resident the resident
-     * @return the resident
+     * @param resident     the resident patch, only non-null fields are written
+     * @param precondition the precondition taken from the client's If-Match header
+     * @return the updated resident
      * @throws FirebaseAuthException the firebase auth exception
      */
-    public Resident updateResident(Resident resident)
+    public Resident updateResident(Resident resident, Precondition precondition)
             throws FirebaseAuthException, ExecutionException, InterruptedException {
-        Resident toUpdateResident = residentRepository.find(resident.getUid());
-
-        ModelMapper modelMapper = new ModelMapper();
-        modelMapper.getConfiguration().setPropertyCondition(Conditions.isNotNull());
-        modelMapper.map(resident, toUpdateResident);
-
-        return residentRepository.update(toUpdateResident);
+        residentRepository.update(resident, precondition);
+        return residentRepository.find(resident.getUid());
     }
 
     public void updateResidentStatus(String uid, UserStatus status)
             throws ExecutionException, InterruptedException, FirebaseAuthException {
-        Resident resident = residentRepository.find(uid);
+        Resident resident = new Resident();
+        resident.setUid(uid);
         resident.setStatus(status);
-        residentRepository.update(resident);
+        residentRepository.update(resident, Precondition.NONE);
     }
 
     /**
@@ -99,7 +122,9 @@ public class ResidentService {
             throw new RuntimeException("User already deleted");
         }
 
-        resident.setStatus(UserStatus.DELETED);
-        residentRepository.update(resident);
+        Resident deletedResident = new Resident();
+        deletedResident.setUid(uid);
+        deletedResident.setStatus(UserStatus.DELETED);
+        residentRepository.update(deletedResident, Precondition.NONE);
     }
 }
@@ -1,15 +1,17 @@
 package dev.mikita.userservice.service;
 
+import com.google.cloud.firestore.Precondition;
 import com.google.firebase.auth.FirebaseAuthException;
 import dev.mikita.userservice.repository.ServiceRepository;
 import dev.mikita.userservice.entity.UserStatus;
 import dev.mikita.userservice.util.Pageable;
 import dev.mikita.userservice.util.PagedResult;
-import org.modelmapper.Conditions;
-import org.modelmapper.ModelMapper;
+import dev.mikita.userservice.util.PublicProfileCache;
+import dev.mikita.userservice.util.PublicProfileCaches;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
 /**
@@ -18,15 +20,19 @@ import java.util.concurrent.ExecutionException;
 @Service
 public class ServiceService {
     private final ServiceRepository serviceRepository;
+    private final PublicProfileCache<dev.mikita.userservice.entity.Service> publicServices;
 
     /**
      * Instantiates a new Service service.
      *
-     * @param serviceDao  the service dao
+     * @param serviceDao          the service dao
+     * @param publicProfileCaches the public profile caches
      */
     @Autowired
-    public ServiceService(ServiceRepository serviceDao) {
+    public ServiceService(ServiceRepository serviceDao, PublicProfileCaches publicProfileCaches) {
         this.serviceRepository = serviceDao;
+        this.publicServices = publicProfileCaches.create("publicServices", dev.mikita.userservice.entity.Service.class,
+                serviceRepository::findAsync);
     }
 
     /**
@@ -42,7 +48,28 @@ public class ServiceService {
         return serviceRepository.find(uid);
     }
 
-    public PagedResult<dev.mikita.userservice.entity.Service> getServices(List<UserStatus> statuses, Pageable pageable) {
+    /**
+     * Gets service without blocking the calling thread.
+     *
+     * @param uid the uid
+     * @return the service future
+     */
+    public CompletableFuture<dev.mikita.userservice.entity.Service> getServiceAsync(String uid) {
+        return serviceRepository.findAsync(uid);
+    }
+
+    /**
+     * Gets service for public profile reads. Served from a stale-while-revalidate cache.
+     *
+     * @param uid the uid
+     * @return the service future
+     */
+    public CompletableFuture<dev.mikita.userservice.entity.Service> getPublicServiceAsync(String uid) {
+        return publicServices.get(uid);
+    }
+
+    public PagedResult<dev.mikita.userservice.entity.Service> getServices(List<UserStatus> statuses, Pageable pageable)
+            throws ExecutionException, InterruptedException {
         return serviceRepository.findAll(statuses, pageable);
     }
 
@@ -63,26 +90,24 @@ public class ServiceService {
     /**
      * Update service dev.mikita.userservice.entity.service.
      *
-     * @param service the service
-     * @return the dev.mikita.userservice.entity.service
+     * @param service      the service patch, only non-null fields are written
+     * @param precondition the precondition taken from the client's If-Match header
+     * @return the updated dev.mikita.userservice.entity.service
      * @throws FirebaseAuthException the firebase auth exception
      */
-    public dev.mikita.userservice.entity.Service updateService(dev.mikita.userservice.entity.Service service)
+    public dev.mikita.userservice.entity.Service updateService(dev.mikita.userservice.entity.Service service,
+                                                               Precondition precondition)
             throws FirebaseAuthException, ExecutionException, InterruptedException {
-        dev.mikita.userservice.entity.Service toUpdateService = serviceRepository.find(service.getUid());
-
-        ModelMapper modelMapper = new ModelMapper();
-        modelMapper.getConfiguration().setPropertyCondition(Conditions.isNotNull());
-        modelMapper.map(service, toUpdateService);
-
-        return serviceRepository.update(toUpdateService);
+        serviceRepository.update(service, precondition);
+        return serviceRepository.find(service.getUid());
     }
 
     public void updateServiceStatus(String uid, UserStatus status)
             throws ExecutionException, InterruptedException, FirebaseAuthException {
-        dev.mikita.userservice.entity.Service service = serviceRepository.find(uid);
+        dev.mikita.userservice.entity.Service service = new dev.mikita.userservice.entity.Service();
+        service.setUid(uid);
         service.setStatus(status);
-        serviceRepository.update(service);
+        serviceRepository.update(service, Precondition.NONE);
     }
 
     /**
@@ -100,7 +125,9 @@ public class ServiceService {
             throw new RuntimeException("Service already deleted.");
         }
 
-        service.setStatus(UserStatus.DELETED);
-        serviceRepository.update(service);
+        dev.mikita.userservice.entity.Service deletedService = new dev.mikita.userservice.entity.Service();
+        deletedService.setUid(uid);
+        deletedService.setStatus(UserStatus.DELETED);
+        serviceRepository.update(deletedService, Precondition.NONE);
     }
 }
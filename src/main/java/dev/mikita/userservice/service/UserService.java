@@ -4,12 +4,19 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseAuthException;
 import com.google.firebase.auth.UserRecord;
 import com.google.firebase.auth.UserRecord.UpdateRequest;
+import dev.mikita.userservice.entity.User;
+import dev.mikita.userservice.entity.UserRole;
+import dev.mikita.userservice.event.EntityChangedEvent;
 import dev.mikita.userservice.exception.NotFoundException;
+import dev.mikita.userservice.repository.UserProjection;
+import dev.mikita.userservice.repository.UserRecordProvider;
 import dev.mikita.userservice.util.FirebaseStorageUtil;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * The type User service.
@@ -18,16 +25,34 @@ import java.io.IOException;
 public class UserService {
     private final FirebaseAuth firebaseAuth;
     private final FirebaseStorageUtil firebaseStorageUtil;
+    private final ImageProcessingService imageProcessingService;
+    private final UserRecordProvider userRecordProvider;
+    private final ApplicationEventPublisher eventPublisher;
+    private final UserProjection userProjection;
 
     /**
      * Instantiates a new User service.
      *
-     * @param firebaseAuth    the firebase auth
+     * @param firebaseAuth           the firebase auth
+     * @param firebaseStorageUtil    the firebase storage util
+     * @param imageProcessingService the image processing service
+     * @param userRecordProvider     the user record provider
+     * @param eventPublisher         the event publisher
+     * @param userProjection         the user projection
      */
     @Autowired
-    public UserService(FirebaseAuth firebaseAuth, FirebaseStorageUtil firebaseStorageUtil) {
+    public UserService(FirebaseAuth firebaseAuth,
+                       FirebaseStorageUtil firebaseStorageUtil,
+                       ImageProcessingService imageProcessingService,
+                       UserRecordProvider userRecordProvider,
+                       ApplicationEventPublisher eventPublisher,
+                       UserProjection userProjection) {
         this.firebaseAuth = firebaseAuth;
         this.firebaseStorageUtil = firebaseStorageUtil;
+        this.imageProcessingService = imageProcessingService;
+        this.userRecordProvider = userRecordProvider;
+        this.eventPublisher = eventPublisher;
+        this.userProjection = userProjection;
     }
 
     /**
@@ -37,9 +62,12 @@ public class UserService {
      * @param photoFile the photo file
      * @throws IOException           the io exception
      * @throws FirebaseAuthException the firebase auth exception
+     * @throws ExecutionException    the execution exception
+     * @throws InterruptedException  the interrupted exception
      */
-    public void updateUserPhoto(String uid, MultipartFile photoFile) throws IOException, FirebaseAuthException {
-        // Get user
+    public void updateUserPhoto(String uid, MultipartFile photoFile)
+            throws IOException, FirebaseAuthException, ExecutionException, InterruptedException {
+        // Get user, fresh: the photo deleted below must be the current one
         UserRecord userRecord = firebaseAuth.getUser(uid);
         if (userRecord == null) {
             throw new NotFoundException("User not found.");
@@ -55,6 +83,7 @@ public class UserService {
         // Delete photo from Firebase Storage if it exists
         if (currentPhotoUrl != null && !currentPhotoUrl.isEmpty()) {
             firebaseStorageUtil.deleteFile(firebaseStorageUtil.parseFileName(currentPhotoUrl));
+            imageProcessingService.deleteVariants(currentPhotoUrl);
         }
 
         String storagePath = firebaseStorageUtil.uploadImage(photoFile, "users/%s/".formatted(uid));
@@ -62,5 +91,18 @@ public class UserService {
         // Update user
         UpdateRequest newPhotoRequest = new UpdateRequest(uid).setPhotoUrl(storagePath);
         firebaseAuth.updateUser(newPhotoRequest);
+        userRecordProvider.invalidate(uid);
+
+        Object role = userRecord.getCustomClaims().get("role");
+        UserRole userRole = role != null ? UserRole.valueOf(role.toString()) : null;
+        if (userRole != null) {
+            userProjection.updatePhoto(uid, userRole, storagePath);
+        }
+        eventPublisher.publishEvent(new EntityChangedEvent(User.class, uid));
+
+        // Resized variants are produced in the background
+        if (userRole != null) {
+            imageProcessingService.submit(uid, userRole, storagePath);
+        }
     }
 }
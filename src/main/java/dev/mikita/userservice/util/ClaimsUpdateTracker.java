@@ -0,0 +1,41 @@
+package dev.mikita.userservice.util;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.firebase.auth.FirebaseToken;
+
+/**
+ * Tells whether the custom claims of a verified token may predate the last claims change of its user. The time
+ * of the change is stored on the user document after Auth accepted the new claims, so every instance sees it,
+ * also after a restart, and authorization can trust the claims of a token issued later without an Auth lookup.
+ */
+public final class ClaimsUpdateTracker {
+    /**
+     * The server time of the last custom claims change of the user.
+     */
+    public static final String FIELD = "claimsUpdatedAt";
+
+    private ClaimsUpdateTracker() {}
+
+    /**
+     * Checks whether the claims of a token may predate the last claims update of its user.
+     *
+     * @param token        the verified token
+     * @param userDocument the user document
+     * @return true if the claims must be confirmed remotely
+     */
+    public static boolean isStale(FirebaseToken token, DocumentSnapshot userDocument) {
+        Timestamp updatedAt = userDocument.getTimestamp(FIELD);
+        if (updatedAt == null) {
+            return false;
+        }
+
+        Object issuedAt = token.getClaims().get("iat");
+        if (!(issuedAt instanceof Number issuedAtSeconds)) {
+            return true;
+        }
+
+        // iat has second precision, so a token issued in the same second is treated as stale
+        return issuedAtSeconds.longValue() <= updatedAt.getSeconds();
+    }
+}
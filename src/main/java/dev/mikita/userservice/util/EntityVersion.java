@@ -0,0 +1,160 @@
+package dev.mikita.userservice.util;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.Precondition;
+import com.google.firebase.auth.UserRecord;
+import dev.mikita.userservice.exception.BadRequestException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Entity tags derived from the Firestore update time of a document and, for users, the Auth fields
+ * exposed next to it. Auth records carry no modification time, so those fields are digested instead.
+ */
+public final class EntityVersion {
+    private EntityVersion() {}
+
+    /**
+     * Gets the version of a document.
+     *
+     * @param snapshot the document
+     * @return the quoted entity tag, or null if the document does not exist
+     */
+    public static String of(DocumentSnapshot snapshot) {
+        return of(snapshot.getUpdateTime());
+    }
+
+    /**
+     * Gets the version of a document written at the given time.
+     *
+     * @param updateTime the update time, may be null
+     * @return the quoted entity tag, or null without an update time
+     */
+    public static String of(Timestamp updateTime) {
+        if (updateTime == null) {
+            return null;
+        }
+        return "\"" + updateTime.getSeconds() + "." + updateTime.getNanos() + "\"";
+    }
+
+    /**
+     * Gets the version of a user stored as an Auth record and a document.
+     *
+     * @param snapshot   the document
+     * @param userRecord the user record
+     * @return the quoted entity tag, or null if the document does not exist
+     */
+    public static String of(DocumentSnapshot snapshot, UserRecord userRecord) {
+        Timestamp updateTime = snapshot.getUpdateTime();
+        if (updateTime == null) {
+            return null;
+        }
+
+        return "\"" + updateTime.getSeconds() + "." + updateTime.getNanos() + "-" + authDigest(userRecord) + "\"";
+    }
+
+    /**
+     * Gets the document update time a version was derived from.
+     *
+     * @param etag the quoted entity tag, weak or strong
+     * @return the update time, or null if the tag was not issued by this service
+     */
+    public static Timestamp updateTime(String etag) {
+        String opaqueTag = stripWeak(etag.trim());
+        if (opaqueTag.length() < 2 || !opaqueTag.startsWith("\"") || !opaqueTag.endsWith("\"")) {
+            return null;
+        }
+
+        String value = opaqueTag.substring(1, opaqueTag.length() - 1);
+        int digestStart = value.indexOf('-');
+        String updateTime = digestStart >= 0 ? value.substring(0, digestStart) : value;
+        int separator = updateTime.indexOf('.');
+
+        try {
+            long seconds = Long.parseLong(updateTime.substring(0, separator));
+            int nanos = Integer.parseInt(updateTime.substring(separator + 1));
+            return Timestamp.ofTimeSecondsAndNanos(seconds, nanos);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Checks an {@code If-None-Match} header against an entity tag, using the weak comparison
+     * RFC 9110 prescribes for conditional GET.
+     *
+     * @param ifNoneMatch the header value, may be null
+     * @param etag        the quoted entity tag, may be null
+     * @return true if the client already has this version
+     */
+    public static boolean matches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null || etag == null) {
+            return false;
+        }
+
+        String opaqueTag = stripWeak(etag);
+        for (String candidate : ifNoneMatch.split(",")) {
+            String trimmed = candidate.trim();
+            if (trimmed.equals("*") || stripWeak(trimmed).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Turns an {@code If-Match} header into a Firestore precondition on the document update time.
+     * The Auth part of a user version is not checked: every update also moves the document update time.
+     * Without a header and for {@code *} there is no precondition: updates only require the document to exist.
+     *
+     * @param ifMatch the header value, may be null
+     * @return the precondition, {@link Precondition#NONE} without a header or for {@code *}
+     * @throws BadRequestException if the header is not a version issued by this service
+     */
+    public static Precondition toPrecondition(String ifMatch) {
+        if (ifMatch == null || ifMatch.isBlank() || ifMatch.trim().equals("*")) {
+            return Precondition.NONE;
+        }
+
+        Timestamp updateTime = updateTime(ifMatch);
+        if (updateTime == null) {
+            throw new BadRequestException("Malformed If-Match header");
+        }
+        return Precondition.updatedAt(updateTime);
+    }
+
+    // Two different Auth states must not share a tag, so a real digest rather than a 32-bit hash
+    private static String authDigest(UserRecord userRecord) {
+        Map<String, Object> claims = userRecord.getCustomClaims() != null
+                ? new TreeMap<>(userRecord.getCustomClaims())
+                : Map.of();
+        StringBuilder state = new StringBuilder();
+        for (Object field : new Object[]{userRecord.getEmail(), userRecord.getPhoneNumber(),
+                userRecord.getDisplayName(), userRecord.getPhotoUrl(), userRecord.isDisabled(), claims}) {
+            // Length-prefixed, so no two field lists serialize to the same string
+            if (field == null) {
+                state.append('~');
+            } else {
+                String value = field.toString();
+                state.append(value.length()).append(':').append(value);
+            }
+        }
+
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(state.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String stripWeak(String etag) {
+        return etag.startsWith("W/") ? etag.substring(2) : etag;
+    }
+}
@@ -0,0 +1,133 @@
+package dev.mikita.userservice.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.google.cloud.Timestamp;
+import dev.mikita.userservice.entity.Versioned;
+import dev.mikita.userservice.event.EntityChangedEvent;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+
+/**
+ * Remembers the last version served for an entity, so a conditional GET from a client that already has it
+ * can be answered with {@code 304 Not Modified} without reading the entity. Entries expire after a short TTL
+ * to bound staleness from writes made by other instances. A change replaces the entry with a tombstone
+ * holding the update time of the write, so a read that started before the write cannot put the old version
+ * back; without a known update time the change time is used, and the entity is not remembered until the
+ * tombstone expires.
+ */
+@Component
+public class EntityVersionCache {
+    private final Cache<String, Entry> versions;
+
+    /**
+     * Instantiates a new Entity version cache.
+     *
+     * @param ttl         how long a served version is trusted
+     * @param maximumSize the maximum number of remembered versions
+     */
+    @Autowired
+    public EntityVersionCache(@Value("${app.cache.entity-versions.ttl:30s}") Duration ttl,
+                              @Value("${app.cache.entity-versions.maximum-size:10000}") long maximumSize) {
+        this.versions = Caffeine.newBuilder()
+                .expireAfterWrite(ttl)
+                .maximumSize(maximumSize)
+                .build();
+    }
+
+    /**
+     * Gets the last served entity if the request already holds its version.
+     *
+     * @param <T>     the entity type
+     * @param uid     the uid
+     * @param type    the entity type
+     * @param request the request
+     * @return the entity, or null if the entity must be read
+     */
+    public <T extends Versioned> T findNotModified(String uid, Class<T> type, HttpServletRequest request) {
+        Entry entry = versions.getIfPresent(uid);
+        Versioned entity = entry != null ? entry.entity() : null;
+        if (!type.isInstance(entity)
+                || !EntityVersion.matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), entity.getVersion())) {
+            return null;
+        }
+        return type.cast(entity);
+    }
+
+    /**
+     * Records a read entity and checks whether the request already holds its version.
+     *
+     * @param entity  the entity
+     * @param request the request
+     * @return true if the client already has this version
+     */
+    public boolean isNotModified(Versioned entity, HttpServletRequest request) {
+        if (entity.getVersion() == null) {
+            return false;
+        }
+
+        Timestamp updateTime = EntityVersion.updateTime(entity.getVersion());
+        if (updateTime != null) {
+            // Only ever move forward, a slow read must not replace a newer version or a tombstone
+            versions.asMap().compute(entity.getUid(), (uid, current) ->
+                    current == null || current.accepts(entity, updateTime)
+                            ? new Entry(entity, updateTime, entity.getVersion())
+                            : current);
+        }
+        return EntityVersion.matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), entity.getVersion());
+    }
+
+    /**
+     * Replaces a changed entity with a tombstone.
+     *
+     * @param event the event
+     */
+    @EventListener
+    public void onEntityChanged(EntityChangedEvent event) {
+        Timestamp written = event.version() != null ? EntityVersion.updateTime(event.version()) : null;
+        Entry tombstone = new Entry(null, written != null ? written : Timestamp.now(), event.version());
+
+        versions.asMap().merge(event.uid(), tombstone, (current, next) ->
+                current.updateTime().compareTo(next.updateTime()) > 0 ? current.withoutEntity() : next);
+    }
+
+    /**
+     * Builds a {@code 304 Not Modified} response.
+     *
+     * @param <T>    the body type
+     * @param entity the entity the client already has
+     * @return the response entity
+     */
+    public static <T> ResponseEntity<T> notModified(Versioned entity) {
+        return ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(entity.getVersion()).build();
+    }
+
+    /**
+     * A remembered entity, or a tombstone without one, and the update time below which reads are stale.
+     *
+     * @param entity     the entity, null for a tombstone
+     * @param updateTime the update time
+     * @param version    the version written at the update time, null if unknown
+     */
+    private record Entry(Versioned entity, Timestamp updateTime, String version) {
+        boolean accepts(Versioned read, Timestamp readUpdateTime) {
+            int order = readUpdateTime.compareTo(updateTime);
+            if (entity != null) {
+                return order >= 0;
+            }
+            // The tombstone of a write lets through that exact version and anything newer
+            return order > 0 || read.getVersion().equals(version);
+        }
+
+        Entry withoutEntity() {
+            return new Entry(null, updateTime, version);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package dev.mikita.userservice.util;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.GetUsersResult;
+import com.google.firebase.auth.UidIdentifier;
+import com.google.firebase.auth.UserIdentifier;
+import com.google.firebase.auth.UserRecord;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Resolves user records from Firebase Auth in batches instead of one lookup per uid.
+ */
+@Component
+public class FirebaseAuthUtil {
+    /**
+     * Maximum number of identifiers accepted by a single {@link FirebaseAuth#getUsers} call.
+     */
+    public static final int MAX_BATCH_SIZE = 100;
+
+    private final FirebaseAuth firebaseAuth;
+
+    @Autowired
+    public FirebaseAuthUtil(FirebaseAuth firebaseAuth) {
+        this.firebaseAuth = firebaseAuth;
+    }
+
+    /**
+     * Gets the user records for the given uids, keyed by uid.
+     * Uids without an Auth account are missing from the result.
+     *
+     * @param uids the uids
+     * @return the user records by uid
+     * @throws FirebaseAuthException the firebase auth exception
+     */
+    public Map<String, UserRecord> getUsers(Collection<String> uids) throws FirebaseAuthException {
+        Map<String, UserRecord> userRecords = new HashMap<>();
+        List<String> distinctUids = new ArrayList<>(new LinkedHashSet<>(uids));
+
+        for (int from = 0; from < distinctUids.size(); from += MAX_BATCH_SIZE) {
+            List<UserIdentifier> identifiers = new ArrayList<>();
+            for (String uid : distinctUids.subList(from, Math.min(from + MAX_BATCH_SIZE, distinctUids.size()))) {
+                identifiers.add(new UidIdentifier(uid));
+            }
+
+            GetUsersResult result = firebaseAuth.getUsers(identifiers);
+            for (UserRecord userRecord : result.getUsers()) {
+                userRecords.put(userRecord.getUid(), userRecord);
+            }
+        }
+
+        return userRecords;
+    }
+}
@@ -1,18 +1,28 @@
 package dev.mikita.userservice.util;
 
+import com.google.cloud.WriteChannel;
 import com.google.cloud.storage.Blob;
+import com.google.cloud.storage.BlobInfo;
 import com.google.firebase.cloud.StorageClient;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URLDecoder;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
 import java.util.UUID;
 
 @Component
 public class FirebaseStorageUtil {
+    private static final long MAX_FILE_SIZE = 5 * 1024 * 1024;
+    private static final int CHUNK_SIZE = 256 * 1024;
+    private static final int MAGIC_BYTES_LENGTH = 8;
+    private static final byte[] JPEG_MAGIC = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG_MAGIC = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+
     private final StorageClient firebaseStorage;
     private final String BASE_URL;
 
@@ -27,35 +37,119 @@ public class FirebaseStorageUtil {
         if (blob != null) blob.delete();
     }
 
+    public String parseFilePath(String url) {
+        return URLDecoder.decode(parseFileName(url), StandardCharsets.UTF_8);
+    }
+
+    public byte[] downloadFile(String filePath) throws IOException {
+        Blob blob = firebaseStorage.bucket().get(filePath);
+        if (blob == null) {
+            throw new IOException("File not found.");
+        }
+        return blob.getContent();
+    }
+
+    public String uploadFile(String filePath, byte[] content, String contentType) {
+        Blob blob = firebaseStorage.bucket().create(filePath, content, contentType);
+        return BASE_URL + URLEncoder.encode(blob.getName(), StandardCharsets.UTF_8);
+    }
+
     public String parseFileName(String url) {
         String[] parts = url.split("/");
         return parts[parts.length - 1];
     }
 
+    /**
+     * Streams an image to Cloud Storage in {@value #CHUNK_SIZE} byte chunks, so memory per upload
+     * does not grow with the file. The type is taken from the leading magic bytes and the size
+     * limit is enforced while streaming; the partial object of an upload failing midway is deleted.
+     */
     public String uploadImage(MultipartFile file, String dirPath) throws IOException {
         String originalFilename = file.getOriginalFilename();
         if (originalFilename == null) {
             throw new IOException("File name is null.");
         }
 
-        if (file.getSize() > 5 * 1024 * 1024) {
+        if (file.getSize() > MAX_FILE_SIZE) {
             throw new IOException("File size is too large.");
         }
 
-        String fileMimeType = file.getContentType();
-        if (fileMimeType == null) {
-            throw new IOException("File type is null.");
+        try (InputStream inputStream = file.getInputStream()) {
+            byte[] buffer = new byte[CHUNK_SIZE];
+            int headerLength = inputStream.readNBytes(buffer, 0, MAGIC_BYTES_LENGTH);
+
+            String fileMimeType = detectImageType(buffer, headerLength);
+            if (fileMimeType == null) {
+                throw new IOException("File type is not supported.");
+            }
+
+            String fileExtension = fileMimeType.equals("image/png") ? ".png" : ".jpg";
+            String filePath = dirPath + UUID.randomUUID() + fileExtension;
+            BlobInfo blobInfo = BlobInfo.newBuilder(firebaseStorage.bucket().getName(), filePath)
+                    .setContentType(fileMimeType)
+                    .build();
+
+            try (WriteChannel writer = firebaseStorage.bucket().getStorage().writer(blobInfo)) {
+                writer.setChunkSize(CHUNK_SIZE);
+
+                long totalBytes = headerLength;
+                int length = headerLength;
+                int read;
+                while ((read = inputStream.read(buffer, length, buffer.length - length)) != -1) {
+                    length += read;
+                    totalBytes += read;
+
+                    if (totalBytes > MAX_FILE_SIZE) {
+                        throw new IOException("File size is too large.");
+                    }
+
+                    if (length == buffer.length) {
+                        writeFully(writer, buffer, length);
+                        length = 0;
+                    }
+                }
+
+                writeFully(writer, buffer, length);
+            } catch (IOException | RuntimeException e) {
+                // Closing the channel finalized whatever was written, remove the partial object
+                try {
+                    firebaseStorage.bucket().getStorage().delete(blobInfo.getBlobId());
+                } catch (RuntimeException deleteException) {
+                    e.addSuppressed(deleteException);
+                }
+                throw e;
+            }
+
+            return BASE_URL + URLEncoder.encode(filePath, StandardCharsets.UTF_8);
         }
+    }
 
-        String fileExtension = switch (fileMimeType) {
-            case "image/jpeg" -> ".jpg";
-            case "image/png" -> ".png";
-            default -> throw new IOException("File type is not supported.");
-        };
+    private static void writeFully(WriteChannel writer, byte[] buffer, int length) throws IOException {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, length);
+        while (byteBuffer.hasRemaining()) {
+            writer.write(byteBuffer);
+        }
+    }
 
-        String fileName = UUID.randomUUID() + fileExtension;
-        String filePath = dirPath + fileName;
-        Blob blob = firebaseStorage.bucket().create(filePath, file.getBytes(), fileMimeType);
-        return BASE_URL + URLEncoder.encode(blob.getName(), StandardCharsets.UTF_8);
+    private static String detectImageType(byte[] header, int length) {
+        if (startsWith(header, length, JPEG_MAGIC)) {
+            return "image/jpeg";
+        }
+        if (startsWith(header, length, PNG_MAGIC)) {
+            return "image/png";
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] header, int length, byte[] magic) {
+        if (length < magic.length) {
+            return false;
+        }
+        for (int i = 0; i < magic.length; i++) {
+            if (header[i] != magic[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 }
@@ -0,0 +1,98 @@
+package dev.mikita.userservice.util;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.FirebaseToken;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies Firebase ID tokens and keeps the verified tokens until their {@code exp} claim,
+ * so repeated requests with the same token skip JWT parsing and signature checks. The cache is keyed
+ * on the raw token, about a kilobyte per entry, so a hit is a single lookup without hashing.
+ */
+@Component
+public class FirebaseTokenVerifier {
+    private final FirebaseAuth firebaseAuth;
+    private final Cache<String, FirebaseToken> tokenCache;
+    private final Timer verificationTimer;
+    private final Counter verificationTimeSaved;
+
+    @Autowired
+    public FirebaseTokenVerifier(FirebaseAuth firebaseAuth,
+                                 MeterRegistry meterRegistry,
+                                 @Value("${app.auth.token-cache.maximum-size:10000}") long maximumSize) {
+        this.firebaseAuth = firebaseAuth;
+        this.tokenCache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfter(new TokenExpiry())
+                .recordStats()
+                .build();
+        this.verificationTimer = Timer.builder("firebase.token.verification")
+                .description("Time spent verifying ID tokens that were not cached")
+                .register(meterRegistry);
+        this.verificationTimeSaved = Counter.builder("firebase.token.verification.saved")
+                .description("Estimated verification time saved by cache hits")
+                .baseUnit("seconds")
+                .register(meterRegistry);
+
+        CaffeineCacheMetrics.monitor(meterRegistry, tokenCache, "firebaseTokens");
+    }
+
+    /**
+     * Verifies the token, answering from the cache when the same token was verified before.
+     *
+     * @param token the raw ID token
+     * @return the verified firebase token
+     * @throws FirebaseAuthException if the token is invalid
+     */
+    public FirebaseToken verify(String token) throws FirebaseAuthException {
+        FirebaseToken firebaseToken = tokenCache.getIfPresent(token);
+        if (firebaseToken != null) {
+            verificationTimeSaved.increment(verificationTimer.mean(TimeUnit.SECONDS));
+            return firebaseToken;
+        }
+
+        long start = System.nanoTime();
+        firebaseToken = firebaseAuth.verifyIdToken(token);
+        verificationTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+
+        tokenCache.put(token, firebaseToken);
+        return firebaseToken;
+    }
+
+    /**
+     * Expires each entry at the {@code exp} claim of its token.
+     */
+    private static class TokenExpiry implements Expiry<String, FirebaseToken> {
+        @Override
+        public long expireAfterCreate(String key, FirebaseToken token, long currentTime) {
+            Object exp = token.getClaims().get("exp");
+            if (!(exp instanceof Number expiresAt)) {
+                return 0;
+            }
+
+            long remainingMillis = TimeUnit.SECONDS.toMillis(expiresAt.longValue()) - System.currentTimeMillis();
+            return TimeUnit.MILLISECONDS.toNanos(Math.max(0, remainingMillis));
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, FirebaseToken token, long currentTime, long currentDuration) {
+            return expireAfterCreate(key, token, currentTime);
+        }
+
+        @Override
+        public long expireAfterRead(String key, FirebaseToken token, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+package dev.mikita.userservice.util;
+
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.Precondition;
+import com.google.cloud.firestore.Transaction;
+import com.google.cloud.firestore.UpdateBuilder;
+import com.google.cloud.firestore.WriteResult;
+import dev.mikita.userservice.exception.NotFoundException;
+import dev.mikita.userservice.exception.PreconditionFailedException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Conditional Firestore writes and transactions that translate rejected preconditions into
+ * {@link PreconditionFailedException}, and classification of write failures.
+ */
+public final class FirestoreWrites {
+    /**
+     * Server timestamp of the last update, written with every update so the document update time
+     * also moves when only fields stored outside the document changed.
+     */
+    public static final String UPDATE_DATE_FIELD = "updateDate";
+
+    private FirestoreWrites() {}
+
+    /**
+     * Updates the given fields of a document without reading it first, waiting for the commit. The document
+     * must exist, a missing one fails with {@link NotFoundException} instead of being created.
+     *
+     * @param reference    the document reference
+     * @param fields       the fields to write, other fields are left untouched
+     * @param precondition the precondition on the update time, {@link Precondition#NONE} for none
+     * @return the write result
+     * @throws ExecutionException   the execution exception
+     * @throws InterruptedException the interrupted exception
+     */
+    public static WriteResult update(DocumentReference reference, Map<String, Object> fields, Precondition precondition)
+            throws ExecutionException, InterruptedException {
+        try {
+            return hasUpdateTime(precondition)
+                    ? reference.update(withUpdateDate(fields), precondition).get()
+                    : reference.update(withUpdateDate(fields)).get();
+        } catch (ExecutionException e) {
+            throw translate(e, reference);
+        }
+    }
+
+    /**
+     * Reads a document and checks a precondition against it, before a change outside Firestore that a rejected
+     * write could not take back. The write must still carry the precondition, the document may change meanwhile.
+     *
+     * @param reference    the document reference
+     * @param precondition the precondition on the update time, {@link Precondition#NONE} for none
+     * @return the document
+     * @throws ExecutionException   the execution exception
+     * @throws InterruptedException the interrupted exception
+     */
+    public static DocumentSnapshot read(DocumentReference reference, Precondition precondition)
+            throws ExecutionException, InterruptedException {
+        DocumentSnapshot snapshot = reference.get().get();
+        if (!snapshot.exists()) {
+            throw NotFoundException.create("Document", reference.getPath());
+        }
+        if (hasUpdateTime(precondition) && !precondition.equals(Precondition.updatedAt(snapshot.getUpdateTime()))) {
+            throw new PreconditionFailedException("Resource was modified, reload it and retry");
+        }
+        return snapshot;
+    }
+
+    /**
+     * Runs a transaction writing a document, waiting for the commit. Failures are translated like those of
+     * {@link #update}.
+     *
+     * @param firestore the firestore
+     * @param reference the document written by the transaction, used in error messages
+     * @param function  the transaction body, run again if the transaction is aborted
+     * @param <T>       the result type
+     * @return the result of the transaction body
+     * @throws ExecutionException   the execution exception
+     * @throws InterruptedException the interrupted exception
+     */
+    public static <T> T runTransaction(Firestore firestore, DocumentReference reference, Transaction.Function<T> function)
+            throws ExecutionException, InterruptedException {
+        try {
+            return firestore.runTransaction(function).get();
+        } catch (ExecutionException e) {
+            throw translate(e, reference);
+        }
+    }
+
+    /**
+     * Updates the given fields of a document as part of a batch or transaction, like {@link #update}.
+     *
+     * @param batch        the batch or transaction
+     * @param reference    the document reference
+     * @param fields       the fields to write, including the update date
+     * @param precondition the precondition on the update time, {@link Precondition#NONE} for none
+     */
+    public static void update(UpdateBuilder<?> batch, DocumentReference reference, Map<String, Object> fields,
+                              Precondition precondition) {
+        if (hasUpdateTime(precondition)) {
+            batch.update(reference, fields, precondition);
+        } else {
+            batch.update(reference, fields);
+        }
+    }
+
+    /**
+     * Adds the server timestamp of the update to the fields of an update.
+     *
+     * @param fields the fields to write
+     * @return a copy of the fields with the update date
+     */
+    public static Map<String, Object> withUpdateDate(Map<String, Object> fields) {
+        Map<String, Object> data = new HashMap<>(fields);
+        data.put(UPDATE_DATE_FIELD, FieldValue.serverTimestamp());
+        return data;
+    }
+
+    /**
+     * Checks whether a failed write may succeed when issued again.
+     *
+     * @param e the failure
+     * @return true for transient errors
+     */
+    public static boolean isRetryable(Throwable e) {
+        return hasStatus(e, StatusCode.Code.UNAVAILABLE)
+                || hasStatus(e, StatusCode.Code.DEADLINE_EXCEEDED)
+                || hasStatus(e, StatusCode.Code.ABORTED)
+                || hasStatus(e, StatusCode.Code.RESOURCE_EXHAUSTED);
+    }
+
+    /**
+     * Checks whether a write failed because its precondition did not hold.
+     *
+     * @param e the failure
+     * @return true if the document changed since it was read
+     */
+    public static boolean isPreconditionFailed(Throwable e) {
+        return hasStatus(e, StatusCode.Code.FAILED_PRECONDITION);
+    }
+
+    /**
+     * Checks whether a precondition constrains the update time. An update without precondition argument implies
+     * that the document exists, {@link Precondition#NONE} would drop that check and create the document.
+     *
+     * @param precondition the precondition, may be null
+     * @return true unless the precondition is null or {@link Precondition#NONE}
+     */
+    public static boolean hasUpdateTime(Precondition precondition) {
+        return precondition != null && !Precondition.NONE.equals(precondition);
+    }
+
+    private static ExecutionException translate(ExecutionException e, DocumentReference reference) {
+        if (hasStatus(e.getCause(), StatusCode.Code.FAILED_PRECONDITION)) {
+            throw new PreconditionFailedException("Resource was modified, reload it and retry", e.getCause());
+        }
+        if (hasStatus(e.getCause(), StatusCode.Code.NOT_FOUND) || e.getCause() instanceof NotFoundException) {
+            throw NotFoundException.create("Document", reference.getPath());
+        }
+        return e;
+    }
+
+    private static boolean hasStatus(Throwable e, StatusCode.Code code) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ApiException apiException && apiException.getStatusCode().getCode() == code) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,40 @@
+package dev.mikita.userservice.util;
+
+import com.google.api.core.ApiFuture;
+import com.google.api.core.ApiFutureCallback;
+import com.google.api.core.ApiFutures;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Bridges Google {@link ApiFuture}s into {@link CompletableFuture}s without blocking a thread.
+ */
+public final class FutureUtil {
+    private FutureUtil() {}
+
+    /**
+     * Adapts an api future. The returned future completes on the thread that completes the source,
+     * so dependent stages should stay cheap or switch executors explicitly.
+     *
+     * @param <T>       the result type
+     * @param apiFuture the api future
+     * @return the completable future
+     */
+    public static <T> CompletableFuture<T> toCompletableFuture(ApiFuture<T> apiFuture) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+
+        ApiFutures.addCallback(apiFuture, new ApiFutureCallback<>() {
+            @Override
+            public void onFailure(Throwable t) {
+                future.completeExceptionally(t);
+            }
+
+            @Override
+            public void onSuccess(T result) {
+                future.complete(result);
+            }
+        }, MoreExecutors.directExecutor());
+
+        return future;
+    }
+}
@@ -0,0 +1,108 @@
+package dev.mikita.userservice.util;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.DocumentSnapshot;
+import dev.mikita.userservice.exception.BadRequestException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Position of the last document of a page: the value of the sort field and the document id.
+ * Encoded as an opaque URL-safe string handed out to clients as {@code nextCursor}.
+ *
+ * @param value      the sort field value, null when the query is ordered by document id only
+ * @param documentId the document id
+ */
+public record PageCursor(Object value, String documentId) {
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    /**
+     * Creates a cursor pointing at the given snapshot.
+     *
+     * @param snapshot  the snapshot
+     * @param sortField the sort field, or null when ordered by document id only
+     * @return the page cursor
+     */
+    public static PageCursor of(DocumentSnapshot snapshot, String sortField) {
+        return new PageCursor(sortField != null ? snapshot.get(sortField) : null, snapshot.getId());
+    }
+
+    /**
+     * Encodes the cursor.
+     *
+     * @return the opaque cursor string
+     */
+    public String encode() {
+        String type;
+        String payload;
+
+        if (value == null) {
+            type = "n";
+            payload = "";
+        } else if (value instanceof String string) {
+            type = "s";
+            payload = string;
+        } else if (value instanceof Long || value instanceof Integer) {
+            type = "l";
+            payload = value.toString();
+        } else if (value instanceof Double) {
+            type = "d";
+            payload = value.toString();
+        } else if (value instanceof Boolean) {
+            type = "b";
+            payload = value.toString();
+        } else if (value instanceof Timestamp timestamp) {
+            type = "t";
+            payload = timestamp.getSeconds() + ":" + timestamp.getNanos();
+        } else {
+            throw new IllegalArgumentException("Unsupported cursor value type: " + value.getClass().getName());
+        }
+
+        return type + "." + encodePart(payload) + "." + encodePart(documentId);
+    }
+
+    /**
+     * Decodes a cursor produced by {@link #encode()}.
+     *
+     * @param cursor the cursor
+     * @return the page cursor
+     * @throws BadRequestException if the cursor is malformed
+     */
+    public static PageCursor decode(String cursor) {
+        String[] parts = cursor.split("\\.", -1);
+        if (parts.length != 3 || parts[2].isEmpty()) {
+            throw new BadRequestException("Invalid cursor.");
+        }
+
+        try {
+            String payload = decodePart(parts[1]);
+            String documentId = decodePart(parts[2]);
+
+            Object value = switch (parts[0]) {
+                case "n" -> null;
+                case "s" -> payload;
+                case "l" -> Long.parseLong(payload);
+                case "d" -> Double.parseDouble(payload);
+                case "b" -> Boolean.parseBoolean(payload);
+                case "t" -> {
+                    String[] time = payload.split(":");
+                    yield Timestamp.ofTimeSecondsAndNanos(Long.parseLong(time[0]), Integer.parseInt(time[1]));
+                }
+                default -> throw new BadRequestException("Invalid cursor.");
+            };
+
+            return new PageCursor(value, documentId);
+        } catch (RuntimeException e) {
+            throw new BadRequestException("Invalid cursor.", e);
+        }
+    }
+
+    private static String encodePart(String part) {
+        return ENCODER.encodeToString(part.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String decodePart(String part) {
+        return new String(DECODER.decode(part), StandardCharsets.UTF_8);
+    }
+}
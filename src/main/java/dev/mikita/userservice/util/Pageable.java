@@ -1,7 +1,10 @@
 package dev.mikita.userservice.util;
 
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldPath;
 import com.google.cloud.firestore.Query;
 import lombok.Getter;
+import java.util.List;
 
 @Getter
 public class Pageable {
@@ -9,19 +12,26 @@ public class Pageable {
     private final int size;
     private final String sortBy;
     private final Query.Direction sortDirection;
+    private final PageCursor cursor;
 
     public Pageable() {
         this.page = 0;
         this.size = 20;
         this.sortBy = null;
         this.sortDirection = Query.Direction.DESCENDING;
+        this.cursor = null;
     }
 
-    public Pageable(int page, int size, String sortBy, Query.Direction sortDirection) {
+    public Pageable(int page, int size, String sortBy, Query.Direction sortDirection, String cursor) {
         this.page = Math.max(page, 0);
         this.size = Math.max(size, 1);
         this.sortBy = sortBy;
         this.sortDirection = sortDirection;
+        this.cursor = cursor != null && !cursor.isEmpty() ? PageCursor.decode(cursor) : null;
+    }
+
+    public Pageable(int page, int size, String sortBy, Query.Direction sortDirection) {
+        this(page, size, sortBy, sortDirection, null);
     }
 
     public Pageable(int page, int size, String sortBy) {
@@ -39,4 +49,45 @@ public class Pageable {
     public int getOffset() {
         return Math.max(0, page) * size;
     }
+
+    /**
+     * Orders the query by the sort field with the document id as tie-breaker and selects the page,
+     * continuing after the cursor when one is given and skipping by offset otherwise.
+     *
+     * @param query     the query
+     * @param sortField the sort field, or null to order by document id only
+     * @return the page query
+     */
+    public Query applyTo(Query query, String sortField) {
+        if (sortField != null) {
+            query = query.orderBy(sortField, sortDirection).orderBy(FieldPath.documentId(), sortDirection);
+        } else {
+            query = query.orderBy(FieldPath.documentId());
+        }
+
+        if (cursor != null) {
+            query = sortField != null
+                    ? query.startAfter(cursor.value(), cursor.documentId())
+                    : query.startAfter(cursor.documentId());
+        } else {
+            query = query.offset(getOffset());
+        }
+
+        return query.limit(size);
+    }
+
+    /**
+     * Builds the cursor of the page following the given documents.
+     *
+     * @param documents the documents of the current page
+     * @param sortField the sort field used in {@link #applyTo(Query, String)}
+     * @return the encoded cursor, or null if this is the last page
+     */
+    public String nextCursor(List<? extends DocumentSnapshot> documents, String sortField) {
+        if (documents.size() < size) {
+            return null;
+        }
+
+        return PageCursor.of(documents.get(documents.size() - 1), sortField).encode();
+    }
 }
@@ -2,4 +2,8 @@ package dev.mikita.userservice.util;
 
 import java.util.List;
 
-public record PagedResult<T>(List<T> items, int currentPage, long totalItems, int totalPages) { }
+public record PagedResult<T>(List<T> items, int currentPage, long totalItems, int totalPages, String nextCursor) {
+    public PagedResult(List<T> items, int currentPage, long totalItems, int totalPages) {
+        this(items, currentPage, totalItems, totalPages, null);
+    }
+}
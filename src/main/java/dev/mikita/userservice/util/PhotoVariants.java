@@ -0,0 +1,40 @@
+package dev.mikita.userservice.util;
+
+import com.google.cloud.firestore.DocumentSnapshot;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Firestore fields holding the resized variants of a user photo.
+ */
+public final class PhotoVariants {
+    /**
+     * Variant URLs keyed by size in pixels.
+     */
+    public static final String FIELD = "photoVariants";
+    /**
+     * URL of the original the variants were produced from.
+     */
+    public static final String SOURCE_FIELD = "photoVariantsSource";
+
+    private PhotoVariants() {}
+
+    /**
+     * Reads the variants of the current photo. Variants of a replaced photo are ignored,
+     * so clients never get thumbnails of a previous upload.
+     *
+     * @param snapshot the user document
+     * @param photoUrl the current photo url
+     * @return the variant urls keyed by size, or null if none were produced for the current photo
+     */
+    @SuppressWarnings("unchecked")
+    public static Map<String, String> of(DocumentSnapshot snapshot, String photoUrl) {
+        if (photoUrl == null || !snapshot.exists()
+                || !Objects.equals(photoUrl, snapshot.getString(SOURCE_FIELD))) {
+            return null;
+        }
+
+        Object variants = snapshot.get(FIELD);
+        return variants instanceof Map ? (Map<String, String>) variants : null;
+    }
+}
@@ -0,0 +1,38 @@
+package dev.mikita.userservice.util;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import dev.mikita.userservice.event.EntityChangedEvent;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Stale-while-revalidate cache of the public profiles of one entity type. After the soft TTL a cached profile
+ * is still returned while a single background refresh reloads it; after the hard TTL it is no longer served.
+ * Created by {@link PublicProfileCaches}, which also evicts changed entities.
+ *
+ * @param <T> the entity type
+ */
+public class PublicProfileCache<T> {
+    private final Class<T> type;
+    private final AsyncLoadingCache<String, T> profiles;
+
+    PublicProfileCache(Class<T> type, AsyncLoadingCache<String, T> profiles) {
+        this.type = type;
+        this.profiles = profiles;
+    }
+
+    /**
+     * Gets a profile.
+     *
+     * @param uid the uid
+     * @return the entity future
+     */
+    public CompletableFuture<T> get(String uid) {
+        return profiles.get(uid);
+    }
+
+    void onEntityChanged(EntityChangedEvent event) {
+        if (event.entityType().isAssignableFrom(type)) {
+            profiles.synchronous().invalidate(event.uid());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package dev.mikita.userservice.util;
+
+import com.github.benmanes.caffeine.cache.AsyncLoadingCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import dev.mikita.userservice.event.EntityChangedEvent;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Function;
+
+/**
+ * Creates the {@link PublicProfileCache}s of the services serving public profiles, with one shared
+ * configuration, and evicts changed entities from them.
+ */
+@Component
+public class PublicProfileCaches {
+    private final MeterRegistry meterRegistry;
+    private final Duration softTtl;
+    private final Duration hardTtl;
+    private final long maximumSize;
+    private final List<PublicProfileCache<?>> caches = new CopyOnWriteArrayList<>();
+
+    /**
+     * Instantiates the public profile caches.
+     *
+     * @param meterRegistry the meter registry
+     * @param softTtl       the age after which a cached profile is refreshed in the background
+     * @param hardTtl       the age after which a cached profile is no longer served
+     * @param maximumSize   the maximum number of cached profiles per entity type
+     */
+    @Autowired
+    public PublicProfileCaches(MeterRegistry meterRegistry,
+                               @Value("${app.cache.public-profiles.soft-ttl:30s}") Duration softTtl,
+                               @Value("${app.cache.public-profiles.hard-ttl:5m}") Duration hardTtl,
+                               @Value("${app.cache.public-profiles.maximum-size:10000}") long maximumSize) {
+        this.meterRegistry = meterRegistry;
+        this.softTtl = softTtl;
+        this.hardTtl = hardTtl;
+        this.maximumSize = maximumSize;
+    }
+
+    /**
+     * Creates the cache of an entity type.
+     *
+     * @param <T>    the entity type
+     * @param name   the cache name, used in metrics
+     * @param type   the entity type, changes of it or of a supertype evict the entity
+     * @param loader loads an entity without blocking
+     * @return the cache
+     */
+    public <T> PublicProfileCache<T> create(String name, Class<T> type, Function<String, CompletableFuture<T>> loader) {
+        AsyncLoadingCache<String, T> profiles = Caffeine.newBuilder()
+                .refreshAfterWrite(softTtl)
+                .expireAfterWrite(hardTtl)
+                .maximumSize(maximumSize)
+                .recordStats()
+                .buildAsync((uid, executor) -> loader.apply(uid));
+        CaffeineCacheMetrics.monitor(meterRegistry, profiles.synchronous(), name);
+
+        PublicProfileCache<T> cache = new PublicProfileCache<>(type, profiles);
+        caches.add(cache);
+        return cache;
+    }
+
+    /**
+     * Evicts a changed entity.
+     *
+     * @param event the event
+     */
+    @EventListener
+    public void onEntityChanged(EntityChangedEvent event) {
+        caches.forEach(cache -> cache.onEntityChanged(event));
+    }
+}
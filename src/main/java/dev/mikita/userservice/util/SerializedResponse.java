@@ -0,0 +1,65 @@
+package dev.mikita.userservice.util;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A response body serialized once, with its gzip copy and a strong ETag derived from the JSON bytes.
+ *
+ * @param json the json bytes
+ * @param gzip the gzip compressed json bytes
+ * @param etag the quoted strong etag
+ */
+public record SerializedResponse(byte[] json, byte[] gzip, String etag) {
+    /**
+     * Serializes a response body.
+     *
+     * @param body         the body
+     * @param objectMapper the object mapper
+     * @return the serialized response
+     */
+    public static SerializedResponse of(Object body, ObjectMapper objectMapper) {
+        try {
+            byte[] json = objectMapper.writeValueAsBytes(body);
+            return new SerializedResponse(json, gzip(json), etag(json));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Failed to serialize response body", e);
+        }
+    }
+
+    /**
+     * Gets the strong ETag of the gzip encoded body, which is a different representation of the same JSON.
+     *
+     * @return the quoted strong etag
+     */
+    public String gzipEtag() {
+        return etag.substring(0, etag.length() - 1) + "-gzip\"";
+    }
+
+    private static byte[] gzip(byte[] json) {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream(json.length / 2 + 32);
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream)) {
+            gzipOutputStream.write(json);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return outputStream.toByteArray();
+    }
+
+    private static String etag(byte[] json) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(json);
+            return "\"" + Base64.getUrlEncoder().withoutPadding().encodeToString(Arrays.copyOf(digest, 16)) + "\"";
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package dev.mikita.userservice.util;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import java.util.function.Function;
+
+/**
+ * Keeps the serialized response of cached entity instances. Entries are keyed by entity identity and held
+ * weakly, so a response lives exactly as long as the cached entity it was built from: a changed entity is a
+ * new instance and gets a freshly mapped and serialized response.
+ */
+@Component
+public class SerializedResponseCache {
+    private final ObjectMapper objectMapper;
+    private final Cache<Object, SerializedResponse> responses = Caffeine.newBuilder()
+            .weakKeys()
+            .build();
+
+    /**
+     * Instantiates a new Serialized response cache.
+     *
+     * @param objectMapper the object mapper
+     */
+    @Autowired
+    public SerializedResponseCache(ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+    }
+
+    /**
+     * Gets the serialized response of an entity, mapping and serializing it only once per instance.
+     *
+     * @param <T>    the entity type
+     * @param entity the entity
+     * @param mapper the mapper from the entity to the response body
+     * @return the serialized response
+     */
+    @SuppressWarnings("unchecked")
+    public <T> SerializedResponse get(T entity, Function<T, ?> mapper) {
+        return responses.get(entity, key -> SerializedResponse.of(mapper.apply((T) key), objectMapper));
+    }
+
+    /**
+     * Writes a serialized response, gzip encoded when the client accepts it. The gzip body carries its own
+     * strong ETag, as RFC 9110 requires for distinct representations. A client already holding the selected
+     * representation gets {@code 304 Not Modified} without a body.
+     *
+     * @param response the serialized response
+     * @param request  the request
+     * @return the response entity
+     */
+    public static ResponseEntity<byte[]> ok(SerializedResponse response, HttpServletRequest request) {
+        boolean gzip = acceptsGzip(request.getHeader(HttpHeaders.ACCEPT_ENCODING));
+        String etag = gzip ? response.gzipEtag() : response.etag();
+
+        if (EntityVersion.matches(request.getHeader(HttpHeaders.IF_NONE_MATCH), etag)) {
+            return ResponseEntity.status(HttpStatus.NOT_MODIFIED)
+                    .eTag(etag)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        ResponseEntity.BodyBuilder builder = ResponseEntity.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .eTag(etag)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+
+        if (gzip) {
+            return builder.header(HttpHeaders.CONTENT_ENCODING, "gzip").body(response.gzip());
+        }
+        return builder.body(response.json());
+    }
+
+    /**
+     * Checks whether an {@code Accept-Encoding} header accepts gzip, honouring quality values: an explicit
+     * {@code gzip;q=0} refuses it, otherwise a wildcard with a non-zero quality accepts it.
+     *
+     * @param acceptEncoding the header value, may be null
+     * @return true if gzip is acceptable
+     */
+    private static boolean acceptsGzip(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+
+        Double gzipQuality = null;
+        Double wildcardQuality = null;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            double quality = quality(parts);
+
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzipQuality = gzipQuality == null ? quality : Math.max(gzipQuality, quality);
+            } else if (coding.equals("*")) {
+                wildcardQuality = quality;
+            }
+        }
+
+        if (gzipQuality != null) {
+            return gzipQuality > 0;
+        }
+        return wildcardQuality != null && wildcardQuality > 0;
+    }
+
+    private static double quality(String[] parts) {
+        for (int i = 1; i < parts.length; i++) {
+            String parameter = parts[i].trim();
+            if (parameter.length() > 2 && (parameter.startsWith("q=") || parameter.startsWith("Q="))) {
+                try {
+                    return Double.parseDouble(parameter.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    // An unreadable weight refuses the coding
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
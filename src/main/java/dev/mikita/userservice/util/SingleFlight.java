@@ -0,0 +1,89 @@
+package dev.mikita.userservice.util;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key into one in-flight {@link CompletableFuture}.
+ * Callers never block on each other; the key is released as soon as the call completes,
+ * so results are never reused after the fact.
+ *
+ * @param <K> the key type
+ * @param <V> the result type
+ */
+public class SingleFlight<K, V> {
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final Counter issued;
+    private final Counter coalesced;
+
+    /**
+     * Instantiates a new Single flight.
+     *
+     * @param name          the name, used to tag the call counters
+     * @param meterRegistry the meter registry
+     */
+    public SingleFlight(String name, MeterRegistry meterRegistry) {
+        this.issued = counter(name, "issued", meterRegistry);
+        this.coalesced = counter(name, "coalesced", meterRegistry);
+    }
+
+    /**
+     * Joins the in-flight call for the key, or starts one.
+     *
+     * @param key  the key
+     * @param call the call, invoked only when no call for the key is in flight
+     * @return the shared result future
+     */
+    public CompletableFuture<V> execute(K key, Supplier<CompletableFuture<V>> call) {
+        CompletableFuture<V> existing = inFlight.get(key);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+
+        CompletableFuture<V> promise = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(key, promise);
+        if (existing != null) {
+            coalesced.increment();
+            return existing;
+        }
+
+        issued.increment();
+        try {
+            call.get().whenComplete((result, e) -> {
+                inFlight.remove(key, promise);
+                if (e != null) {
+                    promise.completeExceptionally(e);
+                } else {
+                    promise.complete(result);
+                }
+            });
+        } catch (RuntimeException e) {
+            inFlight.remove(key, promise);
+            promise.completeExceptionally(e);
+        }
+        return promise;
+    }
+
+    /**
+     * Detaches the in-flight call for the key, so later callers start a new one.
+     * Used after a write, when a call started earlier may return the previous state.
+     *
+     * @param key the key
+     */
+    public void forget(K key) {
+        inFlight.remove(key);
+    }
+
+    private static Counter counter(String name, String result, MeterRegistry meterRegistry) {
+        return Counter.builder("singleflight.calls")
+                .description("Calls issued to the remote store or coalesced into an in-flight one")
+                .tag("name", name)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+}
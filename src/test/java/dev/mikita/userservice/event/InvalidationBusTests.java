@@ -0,0 +1,96 @@
+package dev.mikita.userservice.event;
+
+import dev.mikita.userservice.entity.Resident;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The type Invalidation bus tests.
+ */
+class InvalidationBusTests {
+    private InProcessInvalidationTransport transport;
+    private SimpleMeterRegistry meterRegistry;
+    private List<Object> eventsA;
+    private List<Object> eventsB;
+    private InvalidationBus busA;
+
+    @BeforeEach
+    void setUp() {
+        transport = new InProcessInvalidationTransport();
+        meterRegistry = new SimpleMeterRegistry();
+        eventsA = new ArrayList<>();
+        eventsB = new ArrayList<>();
+        busA = new InvalidationBus(transport, eventsA::add, meterRegistry, "node-a", Duration.ofMinutes(1));
+        new InvalidationBus(transport, eventsB::add, meterRegistry, "node-b", Duration.ofMinutes(1));
+    }
+
+    @Test
+    void localChangeIsRepublishedOnOtherNodesAsRemote() {
+        busA.onEntityChanged(new EntityChangedEvent(Resident.class, "uid-1", "\"1.0\""));
+
+        assertTrue(eventsA.isEmpty());
+        assertEquals(List.of(new EntityChangedEvent(Resident.class, "uid-1", "\"1.0\"", true)), eventsB);
+    }
+
+    @Test
+    void remoteChangeIsNotSentAgain() {
+        busA.onEntityChanged(new EntityChangedEvent(Resident.class, "uid-1", "\"1.0\"", true));
+
+        assertTrue(eventsB.isEmpty());
+    }
+
+    @Test
+    void duplicateDeliveryIsAppliedOnce() {
+        InvalidationMessage message = new InvalidationMessage("message-1", "node-a",
+                Resident.class.getName(), "uid-1", null, System.currentTimeMillis());
+
+        transport.send(message);
+        transport.send(message);
+
+        assertEquals(1, eventsB.size());
+        assertEquals(1.0, meterRegistry.counter("invalidation.messages", "result", "duplicate").count());
+    }
+
+    @Test
+    void sameVersionFromSeveralMessagesIsAppliedOnce() {
+        busA.onEntityChanged(new EntityChangedEvent(Resident.class, "uid-1", "\"1.0\""));
+        busA.onEntityChanged(new EntityChangedEvent(Resident.class, "uid-1", "\"1.0\""));
+        busA.onEntityChanged(new EntityChangedEvent(Resident.class, "uid-1", "\"2.0\""));
+
+        assertEquals(2, eventsB.size());
+    }
+
+    @Test
+    void typesOutsideTheEntityPackageAreDropped() {
+        transport.send(new InvalidationMessage("message-2", "node-a", "java.lang.Runtime", "uid-1", null, 0L));
+
+        assertTrue(eventsB.isEmpty());
+    }
+
+    @Test
+    void failedAsynchronousSendIsCounted() {
+        InvalidationTransport failing = new InvalidationTransport() {
+            @Override
+            public CompletableFuture<Void> send(InvalidationMessage message) {
+                return CompletableFuture.failedFuture(new IllegalStateException("unavailable"));
+            }
+
+            @Override
+            public void subscribe(Consumer<InvalidationMessage> subscriber) {}
+        };
+        SimpleMeterRegistry registry = new SimpleMeterRegistry();
+        InvalidationBus bus = new InvalidationBus(failing, event -> {}, registry, "node-c", Duration.ofMinutes(1));
+
+        bus.onEntityChanged(new EntityChangedEvent(Resident.class, "uid-1", "\"1.0\""));
+
+        assertEquals(1.0, registry.counter("invalidation.send.failures").count());
+    }
+}
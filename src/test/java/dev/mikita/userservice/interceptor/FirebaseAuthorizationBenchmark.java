@@ -0,0 +1,114 @@
+package dev.mikita.userservice.interceptor;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseToken;
+import dev.mikita.userservice.annotation.FirebaseAuthorization;
+import dev.mikita.userservice.util.FirebaseTokenVerifier;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.annotation.AnnotationUtils;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the per-request authorization check of the removed AOP aspect with the precomputed rules, and
+ * measures a token cache hit. Not part of the test run, the README shows how to start it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FirebaseAuthorizationBenchmark {
+    private static final String TOKEN = "eyJhbGciOiJSUzI1NiJ9." + "a".repeat(900) + ".signature";
+
+    private Method handler;
+    private Map<Method, FirebaseAuthorizationRule> rules;
+    private FirebaseToken firebaseToken;
+    private FirebaseTokenVerifier firebaseTokenVerifier;
+
+    /**
+     * Resolves the rule and warms the token cache.
+     *
+     * @throws Exception the exception
+     */
+    @Setup
+    public void setUp() throws Exception {
+        handler = Handlers.class.getMethod("guarded");
+        rules = Map.of(handler, FirebaseAuthorizationRule.of(handler.getAnnotation(FirebaseAuthorization.class)));
+
+        Constructor<FirebaseToken> constructor = FirebaseToken.class.getDeclaredConstructor(Map.class);
+        constructor.setAccessible(true);
+        firebaseToken = constructor.newInstance(Map.of("sub", "user-1", "role", "EMPLOYEE", "status", "ACTIVE",
+                "exp", TimeUnit.MILLISECONDS.toSeconds(System.currentTimeMillis()) + 3600));
+
+        FirebaseAuth firebaseAuth = mock(FirebaseAuth.class);
+        when(firebaseAuth.verifyIdToken(TOKEN)).thenReturn(firebaseToken);
+        firebaseTokenVerifier = new FirebaseTokenVerifier(firebaseAuth, new SimpleMeterRegistry(), 100);
+        firebaseTokenVerifier.verify(TOKEN);
+    }
+
+    /**
+     * The check of the removed aspect: annotation lookup, list copies and linear scans on every call.
+     *
+     * @return whether the token is permitted
+     */
+    @Benchmark
+    public boolean aspectCheck() {
+        FirebaseAuthorization annotation = AnnotationUtils.findAnnotation(handler, FirebaseAuthorization.class);
+        List<String> roles = Arrays.asList(annotation.roles());
+        List<String> statuses = Arrays.asList(annotation.statuses());
+
+        Map<String, Object> claims = firebaseToken.getClaims();
+        return (roles.isEmpty() || roles.contains((String) claims.get("role")))
+                && (statuses.isEmpty() || statuses.contains((String) claims.get("status")));
+    }
+
+    /**
+     * The check of the interceptor: a map lookup and two bitmask tests.
+     *
+     * @return whether the token is permitted
+     */
+    @Benchmark
+    public boolean ruleCheck() {
+        return rules.get(handler).permits(firebaseToken);
+    }
+
+    /**
+     * A repeated request with an already verified token.
+     *
+     * @return the cached token
+     * @throws Exception the exception
+     */
+    @Benchmark
+    public FirebaseToken cachedTokenVerification() throws Exception {
+        return firebaseTokenVerifier.verify(TOKEN);
+    }
+
+    /**
+     * Handlers guarded like the controllers.
+     */
+    public static class Handlers {
+        /**
+         * A guarded handler.
+         */
+        @FirebaseAuthorization(roles = {"SERVICE", "EMPLOYEE"}, statuses = {"ACTIVE"})
+        public void guarded() {}
+    }
+}
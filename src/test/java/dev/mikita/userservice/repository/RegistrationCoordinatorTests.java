@@ -0,0 +1,175 @@
+package dev.mikita.userservice.repository;
+
+import com.google.api.core.ApiFutures;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import com.google.cloud.firestore.CollectionReference;
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.WriteResult;
+import com.google.firebase.ErrorCode;
+import com.google.firebase.auth.AuthErrorCode;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.FirebaseAuthException;
+import com.google.firebase.auth.UserRecord;
+import com.google.firebase.auth.UserRecord.CreateRequest;
+import dev.mikita.userservice.entity.UserRole;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.InOrder;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The type Registration coordinator tests.
+ */
+class RegistrationCoordinatorTests {
+    private static final String UID = "user-1";
+    private static final Map<String, Object> CLAIMS = Map.of("role", "RESIDENT", "status", "ACTIVE");
+
+    private FirebaseAuth firebaseAuth;
+    private UserCounters userCounters;
+    private CollectionReference collectionReference;
+    private DocumentReference documentReference;
+    private SimpleMeterRegistry meterRegistry;
+    private WritePipeline writePipeline;
+    private RegistrationCoordinator registrationCoordinator;
+
+    @BeforeEach
+    void setUp() {
+        firebaseAuth = mock(FirebaseAuth.class);
+        userCounters = mock(UserCounters.class);
+        collectionReference = mock(CollectionReference.class);
+        documentReference = mock(DocumentReference.class);
+        meterRegistry = new SimpleMeterRegistry();
+        writePipeline = new WritePipeline(meterRegistry, 10, Duration.ofSeconds(1), 1, Duration.ofMillis(10),
+                Duration.ofSeconds(5));
+        writePipeline.start();
+
+        UserRecord userRecord = mock(UserRecord.class);
+        when(collectionReference.document()).thenReturn(documentReference);
+        when(documentReference.getId()).thenReturn(UID);
+
+        // Every step succeeds unless a test says otherwise
+        when(userCounters.create(eq(documentReference), anyMap(), eq(UserRole.RESIDENT), any()))
+                .thenReturn(ApiFutures.<List<WriteResult>>immediateFuture(List.of()));
+        when(userCounters.delete(documentReference, UserRole.RESIDENT))
+                .thenReturn(ApiFutures.<Void>immediateFuture(null));
+        when(firebaseAuth.createUserAsync(any(CreateRequest.class)))
+                .thenReturn(ApiFutures.immediateFuture(userRecord));
+        when(firebaseAuth.setCustomUserClaimsAsync(UID, CLAIMS))
+                .thenReturn(ApiFutures.<Void>immediateFuture(null));
+
+        registrationCoordinator = new RegistrationCoordinator(firebaseAuth, writePipeline, userCounters,
+                mock(UserRecordProvider.class), mock(RequestIdentityMap.class), meterRegistry);
+    }
+
+    @AfterEach
+    void tearDown() {
+        writePipeline.stop();
+    }
+
+    @Test
+    void successfulRegistrationUndoesNothing() throws Exception {
+        assertEquals(UID, register());
+
+        verify(firebaseAuth, never()).deleteUser(any());
+        verify(userCounters, never()).delete(any(), any());
+    }
+
+    @Test
+    void failedStepUndoesStepsInReverseOrder() throws Exception {
+        FirebaseAuthException failure = authException(ErrorCode.INTERNAL, null);
+        when(firebaseAuth.setCustomUserClaimsAsync(UID, CLAIMS))
+                .thenReturn(ApiFutures.<Void>immediateFailedFuture(failure));
+
+        assertSame(failure, assertThrows(FirebaseAuthException.class, this::register));
+
+        InOrder order = inOrder(firebaseAuth, userCounters);
+        order.verify(firebaseAuth).deleteUser(UID);
+        order.verify(userCounters).delete(documentReference, UserRole.RESIDENT);
+        assertEquals(1.0, compensations("account", "success"));
+        assertEquals(1.0, compensations("document", "success"));
+    }
+
+    @Test
+    void duplicateEmailRethrowsOriginalException() throws Exception {
+        FirebaseAuthException failure = authException(ErrorCode.ALREADY_EXISTS, AuthErrorCode.EMAIL_ALREADY_EXISTS);
+        when(firebaseAuth.createUserAsync(any(CreateRequest.class)))
+                .thenReturn(ApiFutures.<UserRecord>immediateFailedFuture(failure));
+        // The account of the chosen uid was never created
+        doThrow(authException(ErrorCode.NOT_FOUND, AuthErrorCode.USER_NOT_FOUND)).when(firebaseAuth).deleteUser(UID);
+
+        assertSame(failure, assertThrows(FirebaseAuthException.class, this::register));
+
+        verify(firebaseAuth, never()).setCustomUserClaimsAsync(any(), any());
+        verify(userCounters).delete(documentReference, UserRole.RESIDENT);
+        assertEquals(1.0, compensations("account", "success"));
+        assertEquals(1.0, compensations("document", "success"));
+    }
+
+    @Test
+    void documentWhoseResponseWasLostIsUndone() throws Exception {
+        // A retried create fails when the first attempt landed
+        ApiException failure = apiException(StatusCode.Code.ALREADY_EXISTS);
+        when(userCounters.create(eq(documentReference), anyMap(), eq(UserRole.RESIDENT), any()))
+                .thenReturn(ApiFutures.<List<WriteResult>>immediateFailedFuture(failure));
+
+        assertSame(failure, assertThrows(ApiException.class, this::register));
+
+        verify(firebaseAuth).deleteUser(UID);
+        verify(userCounters).delete(documentReference, UserRole.RESIDENT);
+    }
+
+    @Test
+    void failedCompensationIsCountedAndOriginalRethrown() throws Exception {
+        FirebaseAuthException failure = authException(ErrorCode.INTERNAL, null);
+        when(firebaseAuth.setCustomUserClaimsAsync(UID, CLAIMS))
+                .thenReturn(ApiFutures.<Void>immediateFailedFuture(failure));
+        doThrow(authException(ErrorCode.UNAVAILABLE, null)).when(firebaseAuth).deleteUser(UID);
+
+        assertSame(failure, assertThrows(FirebaseAuthException.class, this::register));
+
+        // The remaining compensation still runs
+        verify(userCounters).delete(documentReference, UserRole.RESIDENT);
+        assertEquals(1.0, compensations("account", "failure"));
+        assertEquals(1.0, compensations("document", "success"));
+    }
+
+    private String register() throws FirebaseAuthException {
+        return registrationCoordinator.register(UserRole.RESIDENT, collectionReference,
+                new CreateRequest().setEmail("user@example.com"), CLAIMS, Map.of("firstName", "User"));
+    }
+
+    private double compensations(String step, String outcome) {
+        return meterRegistry.get("registration.compensations")
+                .tag("step", step)
+                .tag("outcome", outcome)
+                .counter()
+                .count();
+    }
+
+    private static FirebaseAuthException authException(ErrorCode errorCode, AuthErrorCode authErrorCode) {
+        return new FirebaseAuthException(errorCode, errorCode.toString(), null, null, authErrorCode);
+    }
+
+    private static ApiException apiException(StatusCode.Code code) {
+        StatusCode statusCode = mock(StatusCode.class);
+        when(statusCode.getCode()).thenReturn(code);
+        return new ApiException(new RuntimeException(code.toString()), statusCode, false);
+    }
+}
@@ -0,0 +1,124 @@
+package dev.mikita.userservice.repository;
+
+import com.google.api.core.ApiFutures;
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.GetUsersResult;
+import com.google.firebase.auth.UserRecord;
+import dev.mikita.userservice.exception.NotFoundException;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The type User record loader tests.
+ */
+class UserRecordLoaderTests {
+    private FirebaseAuth firebaseAuth;
+    private SimpleMeterRegistry meterRegistry;
+    private UserRecordLoader userRecordLoader;
+
+    @BeforeEach
+    void setUp() {
+        firebaseAuth = mock(FirebaseAuth.class);
+        meterRegistry = new SimpleMeterRegistry();
+
+        // Identifiers are opaque, so every batch answers with the same known users
+        GetUsersResult result = mock(GetUsersResult.class);
+        when(result.getUsers()).thenReturn(Set.of(userRecord("user-1"), userRecord("user-2")));
+        when(firebaseAuth.getUsersAsync(anyCollection())).thenReturn(ApiFutures.immediateFuture(result));
+    }
+
+    @AfterEach
+    void tearDown() {
+        userRecordLoader.shutdown();
+    }
+
+    @Test
+    void lookupsWithinWindowShareOneRemoteCall() throws Exception {
+        userRecordLoader = new UserRecordLoader(firebaseAuth, meterRegistry, Duration.ofMillis(50), 100);
+
+        CompletableFuture<UserRecord> first = userRecordLoader.load("user-1");
+        CompletableFuture<UserRecord> duplicate = userRecordLoader.load("user-1");
+        CompletableFuture<UserRecord> second = userRecordLoader.load("user-2");
+
+        assertSame(first, duplicate);
+        assertEquals("user-1", first.get().getUid());
+        assertEquals("user-2", second.get().getUid());
+        verify(firebaseAuth, times(1)).getUsersAsync(anyCollection());
+        assertEquals(2.0, meterRegistry.get("firebase.auth.calls.saved").counter().count());
+    }
+
+    @Test
+    void fullBatchIsDispatchedWithoutWaitingForWindow() throws Exception {
+        userRecordLoader = new UserRecordLoader(firebaseAuth, meterRegistry, Duration.ofMinutes(1), 2);
+
+        CompletableFuture<UserRecord> first = userRecordLoader.load("user-1");
+        CompletableFuture<UserRecord> second = userRecordLoader.load("user-2");
+
+        assertEquals("user-1", first.get().getUid());
+        assertEquals("user-2", second.get().getUid());
+        verify(firebaseAuth, times(1)).getUsersAsync(anyCollection());
+    }
+
+    @Test
+    void unknownUidFailsOnlyItsOwnFuture() throws Exception {
+        userRecordLoader = new UserRecordLoader(firebaseAuth, meterRegistry, Duration.ofMillis(50), 100);
+
+        CompletableFuture<UserRecord> known = userRecordLoader.load("user-1");
+        CompletableFuture<UserRecord> unknown = userRecordLoader.load("missing");
+
+        assertEquals("user-1", known.get().getUid());
+        ExecutionException e = assertThrows(ExecutionException.class, unknown::get);
+        assertInstanceOf(NotFoundException.class, e.getCause());
+    }
+
+    @Test
+    void invalidUidFailsOnlyItsOwnFuture() throws Exception {
+        userRecordLoader = new UserRecordLoader(firebaseAuth, meterRegistry, Duration.ofMillis(50), 100);
+
+        CompletableFuture<UserRecord> known = userRecordLoader.load("user-1");
+        CompletableFuture<UserRecord> invalid = userRecordLoader.load("");
+
+        assertEquals("user-1", known.get(5, TimeUnit.SECONDS).getUid());
+        ExecutionException e = assertThrows(ExecutionException.class, () -> invalid.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(NotFoundException.class, e.getCause());
+    }
+
+    @Test
+    void failedDispatchCompletesEveryFuture() throws Exception {
+        when(firebaseAuth.getUsersAsync(anyCollection())).thenThrow(new IllegalStateException("closed"));
+        userRecordLoader = new UserRecordLoader(firebaseAuth, meterRegistry, Duration.ofMillis(50), 100);
+
+        CompletableFuture<UserRecord> first = userRecordLoader.load("user-1");
+        CompletableFuture<UserRecord> second = userRecordLoader.load("user-2");
+
+        ExecutionException e = assertThrows(ExecutionException.class, () -> first.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(IllegalStateException.class, e.getCause());
+        assertThrows(ExecutionException.class, () -> second.get(5, TimeUnit.SECONDS));
+
+        // The failed uids are no longer in flight, a new lookup issues a new call
+        assertNotSame(first, userRecordLoader.load("user-1"));
+    }
+
+    private static UserRecord userRecord(String uid) {
+        UserRecord userRecord = mock(UserRecord.class);
+        when(userRecord.getUid()).thenReturn(uid);
+        return userRecord;
+    }
+}
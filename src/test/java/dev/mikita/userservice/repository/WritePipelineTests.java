@@ -0,0 +1,160 @@
+package dev.mikita.userservice.repository;
+
+import com.google.api.core.ApiFutures;
+import com.google.api.core.SettableApiFuture;
+import com.google.api.gax.rpc.ApiException;
+import com.google.api.gax.rpc.StatusCode;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * The type Write pipeline tests.
+ */
+class WritePipelineTests {
+    private SimpleMeterRegistry meterRegistry;
+    private WritePipeline writePipeline;
+
+    @BeforeEach
+    void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        writePipeline = new WritePipeline(meterRegistry, 1, Duration.ofMillis(50), 3, Duration.ofMillis(20),
+                Duration.ofSeconds(5));
+        writePipeline.start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        writePipeline.stop();
+    }
+
+    @Test
+    void transientFailureIsRetriedWithBackoff() throws Exception {
+        AtomicInteger attempts = new AtomicInteger();
+        long start = System.nanoTime();
+
+        CompletableFuture<String> result = writePipeline.submit("test", () -> attempts.incrementAndGet() < 3
+                ? ApiFutures.<String>immediateFailedFuture(failure(StatusCode.Code.UNAVAILABLE))
+                : ApiFutures.<String>immediateFuture("written"));
+
+        assertEquals("written", result.get(5, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+        // 20ms before the second attempt, 40ms before the third
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(60));
+        assertEquals(2.0, meterRegistry.get("firestore.write.retries").counter().count());
+    }
+
+    @Test
+    void transientFailureFailsAfterMaxAttempts() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        CompletableFuture<String> result = writePipeline.submit("test", () -> {
+            attempts.incrementAndGet();
+            return ApiFutures.<String>immediateFailedFuture(failure(StatusCode.Code.DEADLINE_EXCEEDED));
+        });
+
+        assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+        assertEquals(3, attempts.get());
+        assertEquals(1.0, meterRegistry.get("firestore.write.failures").counter().count());
+    }
+
+    @Test
+    void permanentFailureIsNotRetried() throws Exception {
+        for (StatusCode.Code code : new StatusCode.Code[]{
+                StatusCode.Code.FAILED_PRECONDITION, StatusCode.Code.ALREADY_EXISTS}) {
+            AtomicInteger attempts = new AtomicInteger();
+            ApiException failure = failure(code);
+
+            CompletableFuture<String> result = writePipeline.submit("test", () -> {
+                attempts.incrementAndGet();
+                return ApiFutures.<String>immediateFailedFuture(failure);
+            });
+
+            ExecutionException e = assertThrows(ExecutionException.class, () -> result.get(5, TimeUnit.SECONDS));
+            assertSame(failure, e.getCause());
+            assertEquals(1, attempts.get(), code.toString());
+        }
+        assertEquals(0.0, meterRegistry.get("firestore.write.retries").counter().count());
+    }
+
+    @Test
+    void saturatedPipelineRejectsAfterAcquireTimeout() throws Exception {
+        SettableApiFuture<String> pending = SettableApiFuture.create();
+        CompletableFuture<String> first = writePipeline.submit("test", () -> pending);
+
+        assertThrows(RejectedExecutionException.class,
+                () -> writePipeline.submit("test", () -> ApiFutures.<String>immediateFuture("rejected")));
+
+        // The slot frees up once the pending write completes
+        pending.set("written");
+        assertEquals("written", first.get(5, TimeUnit.SECONDS));
+        assertEquals("next", writePipeline.submit("test", () -> ApiFutures.<String>immediateFuture("next"))
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void trySubmitRejectsSaturatedPipelineWithoutWaiting() throws Exception {
+        SettableApiFuture<String> pending = SettableApiFuture.create();
+        writePipeline.submit("test", () -> pending);
+        long start = System.nanoTime();
+
+        assertThrows(RejectedExecutionException.class,
+                () -> writePipeline.trySubmit("test", () -> ApiFutures.<String>immediateFuture("rejected")));
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(50));
+
+        pending.set("written");
+        assertEquals("next", writePipeline.trySubmit("test", () -> ApiFutures.<String>immediateFuture("next"))
+                .get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void stopDrainsInFlightWritesAndRejectsNewOnes() throws Exception {
+        SettableApiFuture<String> pending = SettableApiFuture.create();
+        CompletableFuture<String> inFlight = writePipeline.submit("test", () -> pending);
+
+        Thread stopping = new Thread(writePipeline::stop);
+        stopping.start();
+        stopping.join(100);
+
+        // Still waiting for the in-flight write, which no longer accepts new ones
+        assertTrue(stopping.isAlive());
+        assertFalse(writePipeline.isRunning());
+        assertThrows(RejectedExecutionException.class,
+                () -> writePipeline.submit("test", () -> ApiFutures.<String>immediateFuture("rejected")));
+
+        pending.set("written");
+        stopping.join(5000);
+
+        assertFalse(stopping.isAlive());
+        assertEquals("written", inFlight.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void writeIsRejectedBeforeStart() {
+        WritePipeline stopped = new WritePipeline(meterRegistry, 1, Duration.ofMillis(50), 3, Duration.ofMillis(20),
+                Duration.ofSeconds(5));
+
+        assertThrows(RejectedExecutionException.class,
+                () -> stopped.submit("test", () -> ApiFutures.<String>immediateFuture("rejected")));
+    }
+
+    private static ApiException failure(StatusCode.Code code) {
+        StatusCode statusCode = mock(StatusCode.class);
+        when(statusCode.getCode()).thenReturn(code);
+        return new ApiException(new RuntimeException(code.toString()), statusCode, false);
+    }
+}
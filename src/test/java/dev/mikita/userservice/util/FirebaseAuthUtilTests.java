@@ -0,0 +1,110 @@
+package dev.mikita.userservice.util;
+
+import com.google.firebase.auth.FirebaseAuth;
+import com.google.firebase.auth.GetUsersResult;
+import com.google.firebase.auth.UserIdentifier;
+import com.google.firebase.auth.UserRecord;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * The type Firebase auth util tests.
+ */
+class FirebaseAuthUtilTests {
+    private FirebaseAuth firebaseAuth;
+    private FirebaseAuthUtil firebaseAuthUtil;
+
+    private List<String> requestedUids;
+    private int resolvedCount;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        firebaseAuth = mock(FirebaseAuth.class);
+        firebaseAuthUtil = new FirebaseAuthUtil(firebaseAuth);
+        requestedUids = new ArrayList<>();
+        resolvedCount = 0;
+
+        // Identifiers are opaque, so answer each chunk with the next uids in request order
+        when(firebaseAuth.getUsers(anyCollection())).thenAnswer(invocation -> {
+            Collection<UserIdentifier> identifiers = invocation.getArgument(0);
+            assertTrue(identifiers.size() <= FirebaseAuthUtil.MAX_BATCH_SIZE);
+
+            Set<UserRecord> userRecords = new HashSet<>();
+            for (int i = 0; i < identifiers.size(); i++) {
+                String uid = requestedUids.get(resolvedCount++);
+                if (!uid.startsWith("missing")) {
+                    UserRecord userRecord = mock(UserRecord.class);
+                    when(userRecord.getUid()).thenReturn(uid);
+                    userRecords.add(userRecord);
+                }
+            }
+
+            GetUsersResult result = mock(GetUsersResult.class);
+            when(result.getUsers()).thenReturn(userRecords);
+            return result;
+        });
+    }
+
+    @Test
+    void pageOfUsersIsResolvedWithOneRemoteCall() throws Exception {
+        requestedUids.addAll(uids("user", 20));
+        Map<String, UserRecord> userRecords = firebaseAuthUtil.getUsers(requestedUids);
+
+        assertEquals(20, userRecords.size());
+        verify(firebaseAuth, times(1)).getUsers(anyCollection());
+        verify(firebaseAuth, never()).getUser(anyString());
+    }
+
+    @Test
+    void largePageIsSplitIntoChunksOfMaxBatchSize() throws Exception {
+        requestedUids.addAll(uids("user", 250));
+        Map<String, UserRecord> userRecords = firebaseAuthUtil.getUsers(requestedUids);
+
+        assertEquals(250, userRecords.size());
+        verify(firebaseAuth, times(3)).getUsers(anyCollection());
+        verify(firebaseAuth, never()).getUser(anyString());
+    }
+
+    @Test
+    void duplicateAndMissingUidsAreHandled() throws Exception {
+        requestedUids.addAll(uids("user", 10));
+        requestedUids.add("missing-1");
+
+        List<String> uids = new ArrayList<>(requestedUids);
+        uids.addAll(uids("user", 10));
+        Map<String, UserRecord> userRecords = firebaseAuthUtil.getUsers(uids);
+
+        assertEquals(10, userRecords.size());
+        verify(firebaseAuth, times(1)).getUsers(any());
+    }
+
+    @Test
+    void emptyPageMakesNoRemoteCall() throws Exception {
+        assertTrue(firebaseAuthUtil.getUsers(List.of()).isEmpty());
+        verify(firebaseAuth, never()).getUsers(anyCollection());
+    }
+
+    private static List<String> uids(String prefix, int count) {
+        List<String> uids = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            uids.add(prefix + "-" + i);
+        }
+        return uids;
+    }
+}
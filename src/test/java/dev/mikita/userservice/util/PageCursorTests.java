@@ -0,0 +1,49 @@
+package dev.mikita.userservice.util;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.Query;
+import dev.mikita.userservice.exception.BadRequestException;
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The type Page cursor tests.
+ */
+class PageCursorTests {
+    @Test
+    void timestampCursorRoundTrips() {
+        PageCursor cursor = new PageCursor(Timestamp.ofTimeSecondsAndNanos(1700000000L, 123), "doc-1");
+
+        PageCursor decoded = PageCursor.decode(cursor.encode());
+
+        assertEquals(cursor, decoded);
+    }
+
+    @Test
+    void stringCursorIsUrlSafe() {
+        PageCursor cursor = new PageCursor("ACTIVE/with+chars?", "id|with.dots");
+
+        String encoded = cursor.encode();
+
+        assertFalse(encoded.contains("/") || encoded.contains("+") || encoded.contains("?") || encoded.contains("="));
+        assertEquals(cursor, PageCursor.decode(encoded));
+    }
+
+    @Test
+    void documentIdOnlyCursorRoundTrips() {
+        PageCursor decoded = PageCursor.decode(new PageCursor(null, "doc-2").encode());
+
+        assertNull(decoded.value());
+        assertEquals("doc-2", decoded.documentId());
+    }
+
+    @Test
+    void malformedCursorIsRejected() {
+        assertThrows(BadRequestException.class, () -> PageCursor.decode("garbage"));
+        assertThrows(BadRequestException.class, () -> PageCursor.decode("x.AA.AA"));
+        assertThrows(BadRequestException.class, () -> new Pageable(0, 20, "name", Query.Direction.ASCENDING, "t.!!.AA"));
+    }
+}